@@ -45,4 +45,14 @@ public class OpenAiKey {
      */
     @Builder.Default
     private boolean enabled = true;
+
+    /**
+     * The requests per minute of this api key, unlimited if not positive.
+     */
+    private long rpm;
+
+    /**
+     * The tokens per minute of this api key, unlimited if not positive.
+     */
+    private long tpm;
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.apikey;
+
+/**
+ * How to choose an api key for each request.
+ */
+public enum OpenAiKeyBalance {
+
+    /**
+     * Random by the configured {@link OpenAiKey#getWeight()}.
+     */
+    WEIGHTED_RANDOM,
+
+    /**
+     * Pick two api keys by weight, then use the one with lower EWMA latency, in-flight requests and 429 rate.
+     */
+    POWER_OF_TWO_CHOICES,
+
+    /**
+     * Use the api key with the least in-flight requests relative to its weight, penalized by its 429 rate.
+     */
+    LEAST_OUTSTANDING
+}
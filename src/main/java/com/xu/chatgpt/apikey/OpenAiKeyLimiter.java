@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.apikey;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client-side requests-per-minute and tokens-per-minute budget of one api key.
+ *
+ * <p>Each budget is a token bucket holding one minute of quota, implemented as GCRA on a single
+ * {@link AtomicLong}, so reserving is lock-free. Like OpenAi, the reserved tokens are the prompt tokens
+ * plus {@code max_tokens}, and nothing is refunded after the response.
+ */
+public class OpenAiKeyLimiter {
+
+    private static final long PERIOD_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Bucket requests = new Bucket();
+    private final Bucket tokens = new Bucket();
+
+    /**
+     * Reserve one request and {@code tokenCount} tokens.
+     *
+     * @param rpm requests per minute, unlimited if not positive
+     * @param tpm tokens per minute, unlimited if not positive
+     * @param tokenCount the tokens of this request
+     * @param now the current {@link System#nanoTime()}
+     * @return true if reserved, false if this request would exceed the budget
+     */
+    public boolean tryAcquire(long rpm, long tpm, long tokenCount, long now) {
+        if (!requests.tryAcquire(1, rpm, now)) {
+            return false;
+        }
+        if (!tokens.tryAcquire(tokenCount, tpm, now)) {
+            requests.refund(1, rpm);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get how long to wait until the budget can take this request.
+     *
+     * @param rpm requests per minute, unlimited if not positive
+     * @param tpm tokens per minute, unlimited if not positive
+     * @param tokenCount the tokens of this request
+     * @param now the current {@link System#nanoTime()}
+     * @return the nanoseconds to wait
+     */
+    public long nanosUntilAvailable(long rpm, long tpm, long tokenCount, long now) {
+        return Math.max(requests.nanosUntilAvailable(1, rpm, now), tokens.nanosUntilAvailable(tokenCount, tpm, now));
+    }
+
+    private static final class Bucket {
+
+        /**
+         * The theoretical arrival time: when the bucket is full again.
+         */
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+        private boolean tryAcquire(long permits, long perMinute, long now) {
+            if (perMinute <= 0 || permits <= 0) {
+                return true;
+            }
+            long cost = cost(permits, perMinute);
+            while (true) {
+                long current = tat.get();
+                long next = later(current, now) + cost;
+                if (next - now > PERIOD_NANOS) {
+                    return false;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        private void refund(long permits, long perMinute) {
+            if (perMinute > 0 && permits > 0) {
+                tat.addAndGet(-cost(permits, perMinute));
+            }
+        }
+
+        private long nanosUntilAvailable(long permits, long perMinute, long now) {
+            if (perMinute <= 0 || permits <= 0) {
+                return 0;
+            }
+            long next = later(tat.get(), now) + cost(permits, perMinute);
+            return Math.max(0, next - now - PERIOD_NANOS);
+        }
+
+        /**
+         * A request larger than the whole budget is allowed once the bucket is full.
+         */
+        private static long cost(long permits, long perMinute) {
+            return Math.min(permits, perMinute) * (PERIOD_NANOS / perMinute);
+        }
+
+        private static long later(long tat, long now) {
+            return tat - now > 0 ? tat : now;
+        }
+    }
+}
@@ -28,6 +28,9 @@ public interface OpenAiKeyProvider {
      *
      * <p>Notes: if you get the api keys from DB, also can add cache to improve speed.
      *
+     * <p>It is called on every request. It may return a new list on every call, or change its list in place: the
+     * {@link OpenAiKeySelector} is only rebuilt when the content of the api keys changes.
+     *
      * @return list of {@link OpenAiKey}
      */
     List<OpenAiKey> get();
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.apikey;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe store of api keys which are temporarily or permanently out of rotation.
+ *
+ * <p>Each api key maps to a {@link System#nanoTime()} deadline, expired entries are removed lazily on lookup,
+ * so the quarantined keys automatically rejoin the pool.
+ */
+public class OpenAiKeyQuarantine {
+
+    /**
+     * The deadline of api keys which never rejoin the pool.
+     */
+    static final long FOREVER = Long.MAX_VALUE;
+
+    private final ConcurrentMap<String, Long> deadlines = new ConcurrentHashMap<>();
+
+    /**
+     * Put the {@code apiKey} into quarantine, an existing longer quarantine is kept.
+     *
+     * @param apiKey the api key
+     * @param ttl how long the api key stays in quarantine, forever if null
+     */
+    public void add(String apiKey, Duration ttl) {
+        long deadline = ttl == null ? FOREVER : System.nanoTime() + ttl.toNanos();
+        deadlines.merge(apiKey, deadline, OpenAiKeyQuarantine::later);
+    }
+
+    /**
+     * Release the {@code apiKey} from quarantine immediately.
+     *
+     * @param apiKey the api key
+     * @return true if the api key was in quarantine
+     */
+    public boolean remove(String apiKey) {
+        return deadlines.remove(apiKey) != null;
+    }
+
+    /**
+     * Whether the {@code apiKey} is still in quarantine at {@code now}.
+     *
+     * @param apiKey the api key
+     * @param now the current {@link System#nanoTime()}
+     * @return true if the api key is in quarantine
+     */
+    public boolean contains(String apiKey, long now) {
+        Long deadline = deadlines.get(apiKey);
+        if (deadline == null) {
+            return false;
+        }
+        if (isExpired(deadline, now)) {
+            deadlines.remove(apiKey, deadline);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the earliest deadline of the api keys still in quarantine at {@code now}.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the earliest deadline, or {@link #FOREVER} if no api key will rejoin the pool
+     */
+    public long nextExpiry(long now) {
+        long next = FOREVER;
+        for (Long deadline : deadlines.values()) {
+            if (deadline != FOREVER && !isExpired(deadline, now) && (next == FOREVER || deadline - next < 0)) {
+                next = deadline;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Get the api keys currently in quarantine.
+     *
+     * @return the api keys
+     */
+    public List<String> keys() {
+        long now = System.nanoTime();
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : deadlines.entrySet()) {
+            if (!isExpired(entry.getValue(), now)) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    static boolean isExpired(long deadline, long now) {
+        return deadline != FOREVER && now - deadline >= 0;
+    }
+
+    private static Long later(Long current, Long candidate) {
+        if (current == FOREVER || candidate == FOREVER) {
+            return FOREVER;
+        }
+        return candidate - current > 0 ? candidate : current;
+    }
+}
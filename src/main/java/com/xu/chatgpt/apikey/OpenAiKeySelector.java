@@ -0,0 +1,320 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.apikey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Immutable weight random api key selector, backed by a Walker/Vose alias table.
+ *
+ * <p>The table is built once per api keys snapshot, so {@link #next()} is an O(1), allocation-free read
+ * which can be shared by any number of threads. With an adaptive {@link OpenAiKeyBalance}, the weighted pick
+ * is refined by the {@link OpenAiKeyStats} of each api key.
+ */
+public final class OpenAiKeySelector {
+
+    private final boolean placeholder;
+    private final long fingerprint;
+    private final long expiresAt;
+    private final OpenAiKeyBalance balance;
+    private final Candidate[] candidates;
+    private final double[] probabilities;
+    private final int[] aliases;
+    private final boolean rateLimited;
+    private final boolean tokenLimited;
+
+    private OpenAiKeySelector(
+            boolean placeholder,
+            long fingerprint,
+            long expiresAt,
+            OpenAiKeyBalance balance,
+            Candidate[] candidates,
+            double[] probabilities,
+            int[] aliases) {
+        this.placeholder = placeholder;
+        this.fingerprint = fingerprint;
+        this.expiresAt = expiresAt;
+        this.balance = balance;
+        this.candidates = candidates;
+        this.probabilities = probabilities;
+        this.aliases = aliases;
+        boolean anyRpm = false;
+        boolean anyTpm = false;
+        for (Candidate candidate : candidates) {
+            anyRpm |= candidate.rpm > 0;
+            anyTpm |= candidate.tpm > 0;
+        }
+        this.rateLimited = anyRpm || anyTpm;
+        this.tokenLimited = anyTpm;
+    }
+
+    /**
+     * Create a selector without any available api key, which is always considered stale.
+     *
+     * <p>Every call returns a new instance, so a concurrent rebuild can never replace it by compare-and-set.
+     *
+     * @return {@link OpenAiKeySelector}
+     */
+    static OpenAiKeySelector stale() {
+        return new OpenAiKeySelector(
+                true,
+                0,
+                OpenAiKeyQuarantine.FOREVER,
+                OpenAiKeyBalance.WEIGHTED_RANDOM,
+                new Candidate[0],
+                new double[0],
+                new int[0]);
+    }
+
+    /**
+     * Build the alias table from enabled api keys with a positive weight.
+     *
+     * @param openAiKeys the api keys from {@link OpenAiKeyProvider#get()}
+     * @param excluded the api keys which should not be selected
+     * @param expiresAt the {@link System#nanoTime()} when an excluded api key rejoins the pool
+     * @param balance the {@link OpenAiKeyBalance}
+     * @param statsResolver the {@link OpenAiKeyStats} of each api key
+     * @return {@link OpenAiKeySelector}
+     */
+    static OpenAiKeySelector of(
+            List<OpenAiKey> openAiKeys,
+            Predicate<String> excluded,
+            long expiresAt,
+            OpenAiKeyBalance balance,
+            Function<String, OpenAiKeyStats> statsResolver) {
+        List<OpenAiKey> available = new ArrayList<>(openAiKeys.size());
+        double totalWeight = 0;
+        for (OpenAiKey openAiKey : openAiKeys) {
+            if (openAiKey.isEnabled() && openAiKey.getWeight() > 0 && !excluded.test(openAiKey.getKey())) {
+                available.add(openAiKey);
+                totalWeight += openAiKey.getWeight();
+            }
+        }
+
+        int size = available.size();
+        Candidate[] candidates = new Candidate[size];
+        double[] probabilities = new double[size];
+        int[] aliases = new int[size];
+
+        // Stacks of the indexes whose scaled weight is below and above the average; together they hold at most size.
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int smallSize = 0;
+        int largeSize = 0;
+        double[] scaled = new double[size];
+        for (int i = 0; i < size; i++) {
+            OpenAiKey openAiKey = available.get(i);
+            candidates[i] = new Candidate(openAiKey, statsResolver.apply(openAiKey.getKey()));
+            scaled[i] = openAiKey.getWeight() * size / totalWeight;
+            if (scaled[i] < 1.0) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+        // Whatever remains is 1.0 up to floating point error.
+        while (largeSize > 0) {
+            probabilities[large[--largeSize]] = 1.0;
+        }
+        while (smallSize > 0) {
+            probabilities[small[--smallSize]] = 1.0;
+        }
+
+        return new OpenAiKeySelector(
+                false, fingerprint(openAiKeys), expiresAt, balance, candidates, probabilities, aliases);
+    }
+
+    /**
+     * Whether this selector was built from other api keys than {@code openAiKeys},
+     * or an excluded api key already rejoined the pool.
+     *
+     * <p>The api keys are compared by a fingerprint of their content, so a provider may return a new list on every
+     * call, or change its list in place, and the alias table is only rebuilt when the api keys actually change.
+     *
+     * @param openAiKeys the api keys from {@link OpenAiKeyProvider#get()}
+     * @return true if the alias table needs to rebuild
+     */
+    boolean isStale(List<OpenAiKey> openAiKeys) {
+        return placeholder
+                || fingerprint != fingerprint(openAiKeys)
+                || OpenAiKeyQuarantine.isExpired(expiresAt, System.nanoTime());
+    }
+
+    /**
+     * The size and a 64-bit hash of every field of the api keys, computed without allocation.
+     */
+    static long fingerprint(List<OpenAiKey> openAiKeys) {
+        int size = openAiKeys.size();
+        long hash = size;
+        for (int i = 0; i < size; i++) {
+            OpenAiKey openAiKey = openAiKeys.get(i);
+            hash = hash * 31 + (openAiKey == null ? 0 : openAiKey.hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * Pick an api key according to its weight and the {@link OpenAiKeyBalance}.
+     *
+     * @return the api key, or null if there is no available api key or all api keys exceed their rpm
+     */
+    public String next() {
+        return next(0);
+    }
+
+    /**
+     * Pick an api key according to its weight and the {@link OpenAiKeyBalance}, and reserve one request and
+     * {@code tokens} tokens from its rpm and tpm budget.
+     *
+     * <p>If the picked api key has no budget left, the other api keys are tried in turn.
+     *
+     * @param tokens the tokens of this request
+     * @return the api key, or null if there is no available api key or all api keys exceed their budget
+     */
+    public String next(long tokens) {
+        int size = candidates.length;
+        if (size == 0) {
+            return null;
+        }
+        int index = pick();
+        if (!rateLimited) {
+            return candidates[index].key;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            Candidate candidate = candidates[(index + i) % size];
+            if (candidate.stats.getLimiter().tryAcquire(candidate.rpm, candidate.tpm, tokens, now)) {
+                return candidate.key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get how long to wait until any api key has budget for one request with {@code tokens} tokens.
+     *
+     * @param tokens the tokens of this request
+     * @param now the current {@link System#nanoTime()}
+     * @return the nanoseconds to wait
+     */
+    public long nanosUntilAvailable(long tokens, long now) {
+        long wait = Long.MAX_VALUE;
+        for (Candidate candidate : candidates) {
+            wait = Math.min(
+                    wait, candidate.stats.getLimiter().nanosUntilAvailable(candidate.rpm, candidate.tpm, tokens, now));
+        }
+        return wait;
+    }
+
+    /**
+     * Whether any api key has a tpm budget, i.e. the tokens of each request need to be counted.
+     *
+     * @return true if any api key has a tpm budget
+     */
+    public boolean isTokenLimited() {
+        return tokenLimited;
+    }
+
+    /**
+     * Get the number of available api keys.
+     *
+     * @return the number of available api keys
+     */
+    public int size() {
+        return candidates.length;
+    }
+
+    private int pick() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = weightedIndex(random);
+        if (candidates.length == 1) {
+            return index;
+        }
+        switch (balance) {
+            case POWER_OF_TWO_CHOICES:
+                return lowerCost(index, weightedIndex(random));
+            case LEAST_OUTSTANDING:
+                return leastOutstanding(index);
+            default:
+                return index;
+        }
+    }
+
+    private int weightedIndex(ThreadLocalRandom random) {
+        int index = random.nextInt(candidates.length);
+        return random.nextDouble() < probabilities[index] ? index : aliases[index];
+    }
+
+    private int lowerCost(int first, int second) {
+        OpenAiKeyStats firstStats = candidates[first].stats;
+        OpenAiKeyStats secondStats = candidates[second].stats;
+        if (!firstStats.hasData() || !secondStats.hasData()) {
+            return first;
+        }
+        return secondStats.cost() < firstStats.cost() ? second : first;
+    }
+
+    private int leastOutstanding(int candidate) {
+        int best = candidate;
+        double bestLoad = candidates[candidate].load();
+        for (int i = 0; i < candidates.length; i++) {
+            double load = candidates[i].load();
+            if (load < bestLoad) {
+                best = i;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private static final class Candidate {
+
+        private final String key;
+        private final double weight;
+        private final long rpm;
+        private final long tpm;
+        private final OpenAiKeyStats stats;
+
+        private Candidate(OpenAiKey openAiKey, OpenAiKeyStats stats) {
+            this.key = openAiKey.getKey();
+            this.weight = openAiKey.getWeight();
+            this.rpm = openAiKey.getRpm();
+            this.tpm = openAiKey.getTpm();
+            this.stats = stats;
+        }
+
+        private double load() {
+            return stats.load() / weight;
+        }
+    }
+}
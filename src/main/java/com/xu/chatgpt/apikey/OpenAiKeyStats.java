@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.apikey;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runtime statistics of one api key: in-flight requests, time-decayed EWMA latency and error rate,
+ * and its client-side {@link OpenAiKeyLimiter}.
+ *
+ * <p>Errors are 429 responses and failures without any response.
+ */
+public class OpenAiKeyStats {
+
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double ERROR_PENALTY = 10;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicReference<Ewma> ewma = new AtomicReference<>(Ewma.NONE);
+    private final OpenAiKeyLimiter limiter = new OpenAiKeyLimiter();
+
+    /**
+     * Mark one request started with this api key.
+     *
+     * @return the start {@link System#nanoTime()}
+     */
+    public long acquire() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Mark one request finished with this api key.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Record the response of one request.
+     *
+     * @param startNanos the start {@link System#nanoTime()}, see {@link #acquire()}
+     * @param code the http status code, or a non-positive value if the request failed without response
+     */
+    public void record(long startNanos, int code) {
+        long now = System.nanoTime();
+        double latency = now - startNanos;
+        double error = code == 429 || code <= 0 ? 1 : 0;
+        Ewma current;
+        do {
+            current = ewma.get();
+        } while (!ewma.compareAndSet(current, current.update(latency, error, now)));
+    }
+
+    /**
+     * Whether any response was recorded.
+     *
+     * @return true if there is latency data
+     */
+    public boolean hasData() {
+        return ewma.get() != Ewma.NONE;
+    }
+
+    /**
+     * Get the requests in flight.
+     *
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Get the EWMA latency in nanoseconds.
+     *
+     * @return the EWMA latency
+     */
+    public double getLatency() {
+        return ewma.get().latency;
+    }
+
+    /**
+     * Get the EWMA error rate between 0 and 1.
+     *
+     * @return the EWMA error rate
+     */
+    public double getErrorRate() {
+        return ewma.get().errorRate;
+    }
+
+    /**
+     * Get the rpm and tpm budget of this api key.
+     *
+     * @return {@link OpenAiKeyLimiter}
+     */
+    public OpenAiKeyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * The expected cost of sending one more request with this api key, lower is better.
+     *
+     * @return the cost
+     */
+    double cost() {
+        Ewma current = ewma.get();
+        return current.latency * (inFlight.get() + 1) * (1 + ERROR_PENALTY * current.errorRate);
+    }
+
+    /**
+     * The in-flight requests penalized by error rate, lower is better.
+     *
+     * @return the load
+     */
+    double load() {
+        return (inFlight.get() + 1) * (1 + ERROR_PENALTY * ewma.get().errorRate);
+    }
+
+    private static final class Ewma {
+
+        private static final Ewma NONE = new Ewma(0, 0, 0);
+
+        private final double latency;
+        private final double errorRate;
+        private final long stamp;
+
+        private Ewma(double latency, double errorRate, long stamp) {
+            this.latency = latency;
+            this.errorRate = errorRate;
+            this.stamp = stamp;
+        }
+
+        private Ewma update(double latencySample, double errorSample, long now) {
+            if (this == NONE) {
+                return new Ewma(latencySample, errorSample, now);
+            }
+            double weight = Math.exp(-Math.max(0, now - stamp) / DECAY_NANOS);
+            return new Ewma(
+                    latency * weight + latencySample * (1 - weight),
+                    errorRate * weight + errorSample * (1 - weight),
+                    now);
+        }
+    }
+}
@@ -16,12 +16,16 @@
 
 package com.xu.chatgpt.apikey;
 
-import cn.hutool.cache.CacheUtil;
-import cn.hutool.cache.impl.LFUCache;
-import cn.hutool.core.lang.WeightRandom;
-import cn.hutool.core.util.HashUtil;
+import com.xu.chatgpt.exception.OpenAiErrorCode;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -33,54 +37,155 @@ import org.springframework.util.Assert;
 @Slf4j
 @Getter
 @RequiredArgsConstructor
-@SuppressWarnings({"squid:S3864"})
 public class OpenAiKeyWrapper {
 
     private final OpenAiKeyProvider openAiKeyProvider;
-    private final List<String> invalidKeys = new ArrayList<>();
-    private final LFUCache<Long, WeightRandom<String>> randomLFUCache = CacheUtil.newLFUCache(0);
+    private final OpenAiProperties openAiProperties;
+    private final OpenAiKeyQuarantine quarantine = new OpenAiKeyQuarantine();
+    private final ConcurrentMap<String, OpenAiKeyStats> keyStats = new ConcurrentHashMap<>();
+    private final AtomicReference<OpenAiKeySelector> selector = new AtomicReference<>(OpenAiKeySelector.stale());
 
     /**
      * Wrap the {@link OpenAiKeyProvider#get()} result, in order to make api keys has weight random power.
      *
+     * <p>The {@link OpenAiKeySelector} is only rebuilt when the content of the api keys changed, the invalid keys
+     * changed, or {@link #refresh()} was called.
+     *
      * @return has weight random power api keys
      */
-    public WeightRandom<String> wrap() {
+    public OpenAiKeySelector wrap() {
         List<OpenAiKey> openAiKeys = openAiKeyProvider.get();
         Assert.notEmpty(openAiKeys, "The api keys is empty.");
-        long cacheKey = hashKey(openAiKeys);
-        return Optional.ofNullable(randomLFUCache.get(cacheKey)).orElseGet(() -> {
-            log.debug("Not found openAiKeys in cache, will generate new one api key weight random.");
-            Set<WeightRandom.WeightObj<String>> weightObjSet = openAiKeys.stream()
-                    .filter(OpenAiKey::isEnabled)
-                    .filter(openAiKey -> !invalidKeys.contains(openAiKey.getKey()))
-                    .peek(openAiKey -> log.debug("Found available api key: {}", openAiKey))
-                    .map(obj -> new WeightRandom.WeightObj<>(obj.getKey(), obj.getWeight()))
-                    .collect(Collectors.toSet());
-            WeightRandom<String> weightRandom = new WeightRandom<>(weightObjSet);
-            randomLFUCache.put(cacheKey, weightRandom);
-            return weightRandom;
-        });
+        OpenAiKeySelector current = selector.get();
+        if (!current.isStale(openAiKeys)) {
+            return current;
+        }
+
+        log.debug("The api keys changed, will generate new one api key weight random.");
+        long now = System.nanoTime();
+        OpenAiKeySelector rebuilt = OpenAiKeySelector.of(
+                openAiKeys,
+                apiKey -> quarantine.contains(apiKey, now),
+                quarantine.nextExpiry(now),
+                openAiProperties.getBalance(),
+                this::stats);
+        log.debug("Found {} available api keys.", rebuilt.size());
+        selector.compareAndSet(current, rebuilt);
+        return rebuilt;
+    }
+
+    /**
+     * Pick an api key and reserve its rpm and tpm budget for one request.
+     *
+     * <p>If every api key exceeds its budget, wait up to {@link OpenAiProperties#getRateLimitWait()}
+     * instead of sending a request which is doomed to be throttled.
+     *
+     * @param tokens the tokens of this request, only counted if any api key has a tpm budget
+     * @return the api key, or null if there is no available api key
+     */
+    public String next(LongSupplier tokens) {
+        long tokenCount = -1;
+        long deadline = 0;
+        boolean waiting = false;
+        while (true) {
+            OpenAiKeySelector current = wrap();
+            if (current.size() == 0) {
+                return null;
+            }
+            if (tokenCount < 0) {
+                tokenCount = current.isTokenLimited() ? tokens.getAsLong() : 0;
+            }
+            String apiKey = current.next(tokenCount);
+            if (apiKey != null) {
+                return apiKey;
+            }
+
+            long now = System.nanoTime();
+            if (!waiting) {
+                waiting = true;
+                deadline = now + openAiProperties.getRateLimitWait().toNanos();
+            }
+            long wait = current.nanosUntilAvailable(tokenCount, now);
+            if (wait > deadline - now || Thread.currentThread().isInterrupted()) {
+                throw new OpenAiException("All api keys exceed the rate limit.");
+            }
+            log.debug("All api keys exceed the rate limit, wait {}ns for {} tokens.", wait, tokenCount);
+            LockSupport.parkNanos(wait);
+        }
     }
 
     /**
-     * Remove invalid api keys, support automatic key rotation.
+     * Remove invalid api keys permanently, support automatic key rotation.
      *
      * @param apiKey the api key
      */
     public void invalidKey(String apiKey) {
-        randomLFUCache.clear();
-        invalidKeys.add(apiKey);
-        log.warn("Already removed the invalided api key: {}, total invalided keys: {}", apiKey, invalidKeys);
+        invalidKey(apiKey, null);
     }
 
     /**
-     * Hash {@code openAiKeys}.
+     * Remove invalid api keys for the quarantine duration of {@code reason}, support automatic key rotation.
      *
-     * @param openAiKeys the api keys
-     * @return murmur hash64 result
+     * @param apiKey the api key
+     * @param reason the OpenAi error code or type, see {@link OpenAiErrorCode}
+     */
+    public void invalidKey(String apiKey, String reason) {
+        Duration ttl = quarantineTtl(reason);
+        quarantine.add(apiKey, ttl);
+        selector.set(OpenAiKeySelector.stale());
+        log.warn(
+                "Already removed the invalided api key: {}, reason: {}, quarantine: {}, total invalided keys: {}",
+                apiKey,
+                reason,
+                Optional.ofNullable(ttl).map(Duration::toString).orElse("forever"),
+                quarantine.keys());
+    }
+
+    /**
+     * Put the quarantined {@code apiKey} back to rotation immediately.
+     *
+     * @param apiKey the api key
      */
-    public static long hashKey(List<OpenAiKey> openAiKeys) {
-        return HashUtil.murmur64(openAiKeys.toString().getBytes());
+    public void restoreKey(String apiKey) {
+        if (quarantine.remove(apiKey)) {
+            selector.set(OpenAiKeySelector.stale());
+            log.info("Already restored the api key: {}", apiKey);
+        }
+    }
+
+    /**
+     * Rebuild the {@link OpenAiKeySelector} on the next pick, even if the api keys look unchanged.
+     */
+    public void refresh() {
+        selector.set(OpenAiKeySelector.stale());
+    }
+
+    /**
+     * Get the {@link OpenAiKeyStats} of {@code apiKey}, used to feed back the response of each request.
+     *
+     * @param apiKey the api key
+     * @return {@link OpenAiKeyStats}
+     */
+    public OpenAiKeyStats stats(String apiKey) {
+        return keyStats.computeIfAbsent(apiKey, key -> new OpenAiKeyStats());
+    }
+
+    /**
+     * Get the api keys currently out of rotation.
+     *
+     * @return the invalided api keys
+     */
+    public List<String> getInvalidKeys() {
+        return quarantine.keys();
+    }
+
+    private Duration quarantineTtl(String reason) {
+        if (OpenAiErrorCode.RATE_LIMIT_EXCEEDED.equals(reason)) {
+            return openAiProperties.getQuarantine().getRateLimited();
+        }
+        if (OpenAiErrorCode.INSUFFICIENT_QUOTA.equals(reason)) {
+            return openAiProperties.getQuarantine().getInsufficientQuota();
+        }
+        return null;
     }
 }
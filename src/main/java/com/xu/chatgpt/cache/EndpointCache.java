@@ -0,0 +1,142 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.xu.chatgpt.properties.OpenAiEndpointCache;
+import com.xu.chatgpt.properties.OpenAiUrl;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * A short-lived cache of idempotent GET endpoints, keyed by the endpoint and its uri variables.
+ *
+ * <p>Every endpoint has its own TTL. A pending upstream call is cached as well, so concurrent callers share it;
+ * failed calls are not cached. The cached responses are shared, so callers must not modify them.
+ */
+public class EndpointCache {
+
+    private final Map<OpenAiUrl, Long> ttlNanos = new EnumMap<>(OpenAiUrl.class);
+    private final AsyncCache<Key, Object> cache;
+
+    public EndpointCache(OpenAiEndpointCache properties) {
+        properties.getTtl().forEach((openAiUrl, ttl) -> {
+            Assert.isTrue("GET".equals(openAiUrl.getMethod()), () -> openAiUrl + " is not a GET endpoint.");
+            if (ttl != null && !ttl.isZero() && !ttl.isNegative()) {
+                ttlNanos.put(openAiUrl, ttl.toNanos());
+            }
+        });
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfter(new Expiry<Key, Object>() {
+
+                    @Override
+                    public long expireAfterCreate(Key key, Object value, long currentTime) {
+                        return ttlNanos.get(key.openAiUrl);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, Object value, long currentTime, long currentDuration) {
+                        return ttlNanos.get(key.openAiUrl);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, cache, "gpt.endpoint");
+    }
+
+    /**
+     * Whether the responses of the endpoint are cached.
+     *
+     * @param openAiUrl the endpoint
+     * @return true if cacheable
+     */
+    public boolean isCacheable(OpenAiUrl openAiUrl) {
+        return ttlNanos.containsKey(openAiUrl);
+    }
+
+    /**
+     * Get the cached response of the endpoint, or load it on the calling thread.
+     *
+     * @param openAiUrl the endpoint
+     * @param uriVariables the uri variables
+     * @param responseType the response type
+     * @param loader the upstream call
+     * @param <T> the response type
+     * @return the response
+     */
+    public <T> T get(OpenAiUrl openAiUrl, Object[] uriVariables, Class<T> responseType, Supplier<T> loader) {
+        return SingleFlight.get(cache, new Key(openAiUrl, uriVariables), responseType, loader);
+    }
+
+    /**
+     * Get the cached response of the endpoint, or load it asynchronously.
+     *
+     * @param openAiUrl the endpoint
+     * @param uriVariables the uri variables
+     * @param responseType the response type
+     * @param loader the upstream call
+     * @param <T> the response type
+     * @return {@link CompletableFuture} of the response
+     */
+    public <T> CompletableFuture<T> getAsync(
+            OpenAiUrl openAiUrl,
+            Object[] uriVariables,
+            Class<T> responseType,
+            Supplier<CompletableFuture<T>> loader) {
+        return SingleFlight.getAsync(cache, new Key(openAiUrl, uriVariables), responseType, loader);
+    }
+
+    /**
+     * Drop the cached responses of the endpoints, after a call which changes them.
+     *
+     * @param openAiUrls the endpoints
+     */
+    public void invalidate(OpenAiUrl... openAiUrls) {
+        List<OpenAiUrl> urls = Arrays.asList(openAiUrls);
+        cache.synchronous().asMap().keySet().removeIf(key -> urls.contains(key.openAiUrl));
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Key {
+
+        private final OpenAiUrl openAiUrl;
+        private final List<Object> uriVariables;
+
+        private Key(OpenAiUrl openAiUrl, Object[] uriVariables) {
+            this(openAiUrl, Arrays.asList(uriVariables));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.xu.chatgpt.entity.CommonConfig;
+import com.xu.chatgpt.properties.OpenAiResponseCache;
+import com.xu.chatgpt.utils.JsonUtils;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.SneakyThrows;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * An exact-match response cache, keyed by the SHA-256 of the canonical json of the request.
+ *
+ * <p>Entries are bounded by size (W-TinyLFU) and TTL. A pending upstream call is cached as well,
+ * so concurrent identical requests share it; failed calls are not cached. The cached responses are shared,
+ * so callers must not modify them.
+ */
+public class ResponseCache {
+
+    private final OpenAiResponseCache properties;
+    private final AsyncCache<String, Object> cache;
+
+    public ResponseCache(OpenAiResponseCache properties) {
+        this.properties = properties;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, cache, "gpt.response");
+    }
+
+    /**
+     * Whether the response of the request may be cached.
+     *
+     * @param request the chat or completion request, not streamed
+     * @return true if cacheable
+     */
+    public boolean isCacheable(CommonConfig request) {
+        return !properties.isDeterministicOnly()
+                || (request.getTemperature() != null && request.getTemperature().doubleValue() == 0);
+    }
+
+    /**
+     * Get the cached response of the request, or load it on the calling thread.
+     *
+     * @param request the request
+     * @param responseType the response type
+     * @param loader the upstream call
+     * @param <T> the response type
+     * @return the response
+     */
+    public <T> T get(Object request, Class<T> responseType, Supplier<T> loader) {
+        return SingleFlight.get(cache, key(request), responseType, loader);
+    }
+
+    /**
+     * Get the cached response of the request, or load it asynchronously.
+     *
+     * @param request the request
+     * @param responseType the response type
+     * @param loader the upstream call
+     * @param <T> the response type
+     * @return {@link CompletableFuture} of the response
+     */
+    public <T> CompletableFuture<T> getAsync(
+            Object request, Class<T> responseType, Supplier<CompletableFuture<T>> loader) {
+        return SingleFlight.getAsync(cache, key(request), responseType, loader);
+    }
+
+    @SneakyThrows
+    private static String key(Object request) {
+        byte[] json = JsonUtils.toCanonicalJsonBytes(request);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+        return request.getClass().getSimpleName() + ':' + new BigInteger(1, digest).toString(16);
+    }
+}
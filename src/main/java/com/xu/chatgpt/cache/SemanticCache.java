@@ -0,0 +1,282 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.cache;
+
+import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.properties.OpenAiSemanticCache;
+import com.xu.chatgpt.utils.JsonUtils;
+import com.xu.chatgpt.vector.FlatVectorIndex;
+import com.xu.chatgpt.vector.HnswVectorIndex;
+import com.xu.chatgpt.vector.VectorIndex;
+import com.xu.chatgpt.vector.VectorMatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * A semantic cache of chat completions in front of {@link ChatClient#chatCompletions}.
+ *
+ * <p>The last user message is embedded by {@link ChatClient#embeddings} and searched in an in-process
+ * {@link VectorIndex} of previous prompts. A cached response is returned when the cosine similarity reaches
+ * {@link OpenAiSemanticCache#getThreshold()} and the rest of the request (model, parameters and earlier messages)
+ * is identical. The prompt is only embedded before the upstream call when a cached response shares its context,
+ * and the index search skips the other contexts instead of filtering its results. The cache keeps two generations
+ * of half the maximum size each; when the current one is full, the previous one is dropped, and a generation whose
+ * responses have all expired is dropped with its contexts.
+ *
+ * <p>The cache never fails a request: when the prompt cannot be embedded or cached, the failure is logged, counted as
+ * a miss, and the upstream response is returned.
+ */
+@Slf4j
+public class SemanticCache {
+
+    private static final String USER = "user";
+    private static final String MESSAGES = "messages";
+    private static final int CANDIDATES = 4;
+
+    private final ChatClient chatClient;
+    private final OpenAiSemanticCache properties;
+    private final IntFunction<VectorIndex> indexFactory;
+    private final int generationSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Counter hits = Metrics.counter("gpt.semantic.cache", "result", "hit");
+    private final Counter misses = Metrics.counter("gpt.semantic.cache", "result", "miss");
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    public SemanticCache(ChatClient chatClient, OpenAiSemanticCache properties) {
+        this(chatClient, properties, dimensions -> properties.getIndex() == OpenAiSemanticCache.IndexType.FLAT
+                ? new FlatVectorIndex(dimensions, properties.getMaximumSize() / 2)
+                : new HnswVectorIndex(
+                        dimensions, properties.getMaximumSize() / 2, 16, 200, properties.getEfSearch()));
+    }
+
+    /**
+     * Create a semantic cache.
+     *
+     * @param chatClient {@link ChatClient}
+     * @param properties {@link OpenAiSemanticCache}
+     * @param indexFactory create an index of half the maximum size for the given dimensions
+     */
+    public SemanticCache(
+            ChatClient chatClient, OpenAiSemanticCache properties, IntFunction<VectorIndex> indexFactory) {
+        this.chatClient = chatClient;
+        this.properties = properties;
+        this.indexFactory = indexFactory;
+        this.generationSize = Math.max(1, properties.getMaximumSize() / 2);
+    }
+
+    /**
+     * Get a cached response of a similar request, or call upstream and cache the response.
+     *
+     * @param request {@link ChatCompletionRequest}, not streamed
+     * @return {@link ChatCompletionResponse}, shared with other callers on a hit
+     */
+    public ChatCompletionResponse chatCompletions(ChatCompletionRequest request) {
+        String prompt = lastUserMessage(request);
+        if (prompt == null || !isCacheable(request)) {
+            return chatClient.chatCompletions(request);
+        }
+
+        long context = context(request);
+        long now = System.nanoTime();
+        if (!hasContext(current, context, now) && !hasContext(previous, context, now)) {
+            // Nothing can match, so only embed the prompt once the response is there to cache.
+            misses.increment();
+            ChatCompletionResponse response = chatClient.chatCompletions(request);
+            float[] embedding = embed(prompt);
+            if (embedding != null) {
+                put(embedding, context, System.nanoTime() + properties.getTtl().toNanos(), response);
+            }
+            return response;
+        }
+
+        float[] embedding = embed(prompt);
+        if (embedding == null) {
+            misses.increment();
+            return chatClient.chatCompletions(request);
+        }
+        ChatCompletionResponse cached = find(current, embedding, context, now);
+        if (cached == null) {
+            cached = find(previous, embedding, context, now);
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        ChatCompletionResponse response = chatClient.chatCompletions(request);
+        put(embedding, context, now + properties.getTtl().toNanos(), response);
+        return response;
+    }
+
+    private static boolean hasContext(Generation generation, long context, long now) {
+        if (generation == null) {
+            return false;
+        }
+        Long expiresAt = generation.contextExpiresAt.get(context);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (expiresAt - now > 0) {
+            return true;
+        }
+        generation.contextExpiresAt.remove(context, expiresAt);
+        return false;
+    }
+
+    private boolean isCacheable(ChatCompletionRequest request) {
+        return !Boolean.TRUE.equals(request.getStream())
+                && (!properties.isDeterministicOnly()
+                        || (request.getTemperature() != null
+                                && request.getTemperature().doubleValue() == 0));
+    }
+
+    private ChatCompletionResponse find(Generation generation, float[] embedding, long context, long now) {
+        if (generation == null || generation.index.dimensions() != embedding.length) {
+            return null;
+        }
+        List<VectorMatch> matches = generation.index.search(
+                embedding, CANDIDATES, id -> generation.contexts[id] == context && generation.expiresAt[id] - now > 0);
+        for (VectorMatch match : matches) {
+            if (match.getScore() >= properties.getThreshold()) {
+                return generation.responses.get(match.getId());
+            }
+        }
+        return null;
+    }
+
+    private void put(float[] embedding, long context, long expiresAt, ChatCompletionResponse response) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (isExpired(previous, now)) {
+                previous = null;
+            }
+            Generation generation = current;
+            if (isExpired(generation, now)) {
+                current = null;
+                generation = null;
+            }
+            if (generation == null
+                    || generation.index.size() >= generationSize
+                    || generation.index.dimensions() != embedding.length) {
+                if (generation != null) {
+                    previous = generation;
+                }
+                generation = new Generation(indexFactory.apply(embedding.length), generationSize);
+                current = generation;
+            }
+            // The id is published by the index, after the entry is written.
+            int id = generation.index.size();
+            generation.contexts[id] = context;
+            generation.expiresAt[id] = expiresAt;
+            generation.responses.set(id, response);
+            generation.contextExpiresAt.merge(context, expiresAt, SemanticCache::later);
+            generation.expiresAtLatest = id == 0 ? expiresAt : later(generation.expiresAtLatest, expiresAt);
+            generation.index.add(embedding);
+        } catch (RuntimeException e) {
+            log.warn("Failed to cache the response: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isExpired(Generation generation, long now) {
+        return generation != null && generation.index.size() > 0 && generation.expiresAtLatest - now <= 0;
+    }
+
+    private static long later(long a, long b) {
+        return a - b >= 0 ? a : b;
+    }
+
+    /**
+     * Embed the prompt, or return null when the embedding call fails.
+     */
+    private float[] embed(String prompt) {
+        EmbeddingRequest embeddingRequest = EmbeddingRequest.builder()
+                .model(properties.getEmbeddingModel())
+                .input(Collections.singletonList(prompt))
+                .build();
+        try {
+            return chatClient.embeddings(embeddingRequest).getData().get(0).getVector();
+        } catch (RuntimeException e) {
+            log.warn("Failed to embed the prompt: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String lastUserMessage(ChatCompletionRequest request) {
+        List<ChatCompletionMessage> messages = request.getMessages();
+        if (CollectionUtils.isEmpty(messages)) {
+            return null;
+        }
+        ChatCompletionMessage last = messages.get(messages.size() - 1);
+        return USER.equals(last.getRole()) && StringUtils.hasText(last.getContent()) ? last.getContent() : null;
+    }
+
+    /**
+     * Hash everything but the last user message, which is compared by similarity instead.
+     */
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    private static long context(ChatCompletionRequest request) {
+        Map<String, Object> json = JsonUtils.convert(request, Map.class);
+        List<Object> messages = new ArrayList<>((List<Object>) json.get(MESSAGES));
+        messages.remove(messages.size() - 1);
+        json.put(MESSAGES, messages);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(JsonUtils.toCanonicalJsonBytes(json));
+        return ByteBuffer.wrap(digest).getLong();
+    }
+
+    private static final class Generation {
+
+        private final VectorIndex index;
+        private final long[] contexts;
+        private final Map<Long, Long> contextExpiresAt = new ConcurrentHashMap<>();
+        private final long[] expiresAt;
+        private long expiresAtLatest;
+        private final AtomicReferenceArray<ChatCompletionResponse> responses;
+
+        private Generation(VectorIndex index, int size) {
+            this.index = index;
+            this.contexts = new long[size];
+            this.expiresAt = new long[size];
+            this.responses = new AtomicReferenceArray<>(size);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import lombok.SneakyThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Loads a missing entry of an {@link AsyncCache} on the calling thread, while concurrent callers of the same key wait
+ * for it instead of loading it again.
+ *
+ * <p>Only a pending future is put into the cache under its lock; the loader always runs after the entry is mapped, so
+ * a slow loader, such as one which waits for a rate-limited api key, never holds the lock of the underlying map.
+ */
+final class SingleFlight {
+
+    private SingleFlight() {}
+
+    /**
+     * Get the cached value of {@code key}, or load it on the calling thread.
+     *
+     * <p>The pending entry is always completed, also when {@code loader} throws a checked exception, so a failed load
+     * is never cached and the waiting callers get its exception.
+     *
+     * @param cache the cache
+     * @param key the key
+     * @param responseType the value type
+     * @param loader the upstream call
+     * @param <K> the key type
+     * @param <T> the value type
+     * @return the value
+     */
+    @SneakyThrows
+    static <K, T> T get(AsyncCache<K, Object> cache, K key, Class<T> responseType, Supplier<T> loader) {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> future = cache.get(key, (k, executor) -> created);
+        if (future == created) {
+            try {
+                created.complete(loader.get());
+            } catch (Throwable e) {
+                created.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return responseType.cast(future.join());
+        } catch (CompletionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+    }
+
+    /**
+     * Get the cached value of {@code key}, or start loading it on the calling thread.
+     *
+     * <p>The pending entry is completed with the result of the future returned by {@code loader}, or with the exception
+     * {@code loader} throws, so a failed load is never cached and the waiting callers get its exception.
+     *
+     * @param cache the cache
+     * @param key the key
+     * @param responseType the value type
+     * @param loader the asynchronous upstream call
+     * @param <K> the key type
+     * @param <T> the value type
+     * @return {@link CompletableFuture} of the value
+     */
+    static <K, T> CompletableFuture<T> getAsync(
+            AsyncCache<K, Object> cache, K key, Class<T> responseType, Supplier<CompletableFuture<T>> loader) {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> future = cache.get(key, (k, executor) -> created);
+        if (future == created) {
+            try {
+                loader.get().whenComplete((value, e) -> {
+                    if (e == null) {
+                        created.complete(value);
+                    } else {
+                        created.completeExceptionally(e);
+                    }
+                });
+            } catch (Throwable e) {
+                created.completeExceptionally(e);
+            }
+        }
+        return future.thenApply(responseType::cast);
+    }
+}
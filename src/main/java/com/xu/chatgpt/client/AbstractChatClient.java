@@ -0,0 +1,284 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.io.file.FileNameUtil;
+import cn.hutool.extra.spring.SpringUtil;
+import cn.hutool.http.Header;
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import com.xu.chatgpt.cache.EndpointCache;
+import com.xu.chatgpt.cache.ResponseCache;
+import com.xu.chatgpt.constant.ChatConstant;
+import com.xu.chatgpt.entity.audio.CreateAudioRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.completions.CompletionRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.image.CreateImageRequest;
+import com.xu.chatgpt.entity.image.CreateImageVariationRequest;
+import com.xu.chatgpt.exception.NoAvailableKeyEvent;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiContextWindow;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import com.xu.chatgpt.properties.OpenAiUrl;
+import com.xu.chatgpt.utils.JsonUtils;
+import com.xu.chatgpt.utils.TokenCounter;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+import org.springframework.boot.context.properties.PropertyMapper;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriTemplateHandler;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * The request building and response reading shared by {@link DefaultChatClient} and {@link DefaultAsyncChatClient};
+ * the static helpers are shared with {@link DefaultReactiveChatClient} as well.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public abstract class AbstractChatClient {
+
+    private static final int DEFAULT_COMPLETION_MAX_TOKENS = 16;
+
+    protected final OkHttpClient okHttpClient;
+    protected final OpenAiProperties openAiProperties;
+    protected final OpenAiKeyWrapper openAiKeyWrapper;
+    protected final UriTemplateHandler uriTemplateHandler;
+
+    /**
+     * The exact-match response cache, null if disabled.
+     */
+    protected final ResponseCache responseCache;
+
+    /**
+     * The short-lived cache of GET endpoints, null if disabled.
+     */
+    protected final EndpointCache endpointCache;
+
+    protected boolean isCacheable(ChatCompletionRequest request) {
+        return responseCache != null && !Boolean.TRUE.equals(request.getStream()) && responseCache.isCacheable(request);
+    }
+
+    protected boolean isCacheable(CompletionRequest request) {
+        return responseCache != null && !Boolean.TRUE.equals(request.getStream()) && responseCache.isCacheable(request);
+    }
+
+    protected boolean isCacheable(OpenAiUrl openAiUrl) {
+        return endpointCache != null && endpointCache.isCacheable(openAiUrl);
+    }
+
+    /**
+     * Drop the cached responses of GET endpoints changed by a call.
+     */
+    protected void invalidate(OpenAiUrl... openAiUrls) {
+        if (endpointCache != null) {
+            endpointCache.invalidate(openAiUrls);
+        }
+    }
+
+    /**
+     * Drop the oldest messages which do not fit the context window, if enabled.
+     */
+    protected void truncate(ChatCompletionRequest request) {
+        truncate(request, openAiProperties);
+    }
+
+    protected String nextApiKey(LongSupplier tokens) {
+        return nextApiKey(this, openAiKeyWrapper, tokens);
+    }
+
+    protected Request createRequest(
+            String apiKey, OpenAiUrl openAiUrl, RequestBody requestBody, Object... uriVariables) {
+        URI requestURI = requestUri(openAiProperties, uriTemplateHandler, openAiUrl, uriVariables);
+        return new Request.Builder()
+                .url(Objects.requireNonNull(HttpUrl.get(requestURI)))
+                .headers(Headers.of(Header.AUTHORIZATION.name(), ChatConstant.BEARER.concat(apiKey), Header.CONTENT_TYPE.getValue(), ChatConstant.APPLICATION_JSON.toString()))
+                .method(openAiUrl.getMethod(), requestBody)
+                .build();
+    }
+
+    @SneakyThrows
+    protected <S> S readResponse(Request clientRequest, Response response, Class<S> responseType) {
+        ResponseBody responseBody = successBody(clientRequest, response);
+        return JsonUtils.parse(responseBody.byteStream(), responseType);
+    }
+
+    /**
+     * Get the body of a successful response.
+     *
+     * @throws OpenAiException with the error body if the response is not successful
+     */
+    @SneakyThrows
+    protected ResponseBody successBody(Request clientRequest, Response response) {
+        ResponseBody responseBody = response.body();
+        Assert.notNull(responseBody, "Resolve response responseBody failed.");
+
+        int code = response.code();
+        if (code < 200 || code >= 300) {
+            log.error("Response code: {}", code);
+            log.error("Request message: {}", clientRequest);
+            throw new OpenAiException(responseBody.string());
+        }
+        return responseBody;
+    }
+
+    /**
+     * Drop the oldest messages which do not fit the context window, if enabled.
+     */
+    static void truncate(ChatCompletionRequest request, OpenAiProperties openAiProperties) {
+        OpenAiContextWindow contextWindow = openAiProperties.getContextWindow();
+        if (contextWindow.isEnabled()) {
+            ContextWindowTruncator.truncate(request, contextWindow);
+        }
+    }
+
+    /**
+     * Pick the api key of a request, which may wait for the rate limit.
+     *
+     * @param source the source of the {@link NoAvailableKeyEvent}
+     */
+    static String nextApiKey(Object source, OpenAiKeyWrapper openAiKeyWrapper, LongSupplier tokens) {
+        String apiKey = openAiKeyWrapper.next(tokens);
+        if (!StringUtils.hasText(apiKey)) {
+            List<String> invalidedKeys = openAiKeyWrapper.getInvalidKeys();
+            SpringUtil.publishEvent(new NoAvailableKeyEvent(source, invalidedKeys));
+            throw new OpenAiException("No available api key.");
+        }
+        return apiKey;
+    }
+
+    /**
+     * The configured url of {@code openAiUrl}, or the one on the configured domain, with the uri variables expanded.
+     */
+    static URI requestUri(
+            OpenAiProperties openAiProperties,
+            UriTemplateHandler uriTemplateHandler,
+            OpenAiUrl openAiUrl,
+            Object... uriVariables) {
+        String requestUrl = openAiProperties.getUrls().get(openAiUrl);
+        if (!StringUtils.hasText(requestUrl)) {
+            requestUrl = openAiProperties.getDomain() + openAiUrl.getSuffix();
+        }
+        return uriTemplateHandler.expand(requestUrl, uriVariables);
+    }
+
+    /**
+     * Count the tokens to reserve from the tpm budget, unknown models are counted as gpt-3.5-turbo.
+     */
+    protected static long tokens(ChatCompletionRequest request) {
+        TokenCounter counter = TokenCounter.of(request.getModel(), ModelType.GPT_3_5_TURBO);
+        return counter.count(request.getMessages()) + Optional.ofNullable(request.getMaxTokens()).orElse(0);
+    }
+
+    protected static long tokens(CompletionRequest request) {
+        TokenCounter counter = TokenCounter.of(request.getModel(), ModelType.GPT_3_5_TURBO);
+        return counter.count(request.getPrompt())
+                + Optional.ofNullable(request.getMaxTokens()).orElse(DEFAULT_COMPLETION_MAX_TOKENS);
+    }
+
+    protected static long tokens(EmbeddingRequest request) {
+        return TokenCounter.of(request.getModel(), ModelType.GPT_3_5_TURBO).countAll(request.getInput());
+    }
+
+    protected RequestBody createRequestBody(Object request) {
+        return openAiProperties.isStreamRequestBody()
+                ? JsonRequestBody.streaming(request)
+                : JsonRequestBody.buffered(request);
+    }
+
+    @SneakyThrows
+    protected RequestBody createResourceBody(Resource resource) {
+        return RequestBody.create(IoUtil.readBytes(resource.getInputStream()), ChatConstant.IMAGE_PNG);
+    }
+
+    @SneakyThrows
+    protected MultipartBody createUploadFileBody(Resource fileResource, String purpose) {
+        byte[] bytes = IoUtil.readBytes(fileResource.getInputStream());
+        return new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("purpose", purpose)
+                .addFormDataPart("file", fileResource.getFilename(), RequestBody.create(bytes, ChatConstant.IMAGE_PNG))
+                .build();
+    }
+
+    protected MultipartBody createAudioBody(Resource fileResource, CreateAudioRequest request) {
+        MultipartBody.Builder builder = new MultipartBody.Builder();
+        builder.setType(MultipartBody.FORM);
+        builder.addFormDataPart("file", fileResource.getFilename(), createResourceBody(fileResource));
+
+        PropertyMapper mapper = PropertyMapper.get().alwaysApplyingWhenNonNull();
+        mapper.from(request.getModel()).to(model -> builder.addFormDataPart("model", model));
+        mapper.from(request.getPrompt()).to(prompt -> builder.addFormDataPart("prompt", prompt));
+        mapper.from(request.getResponseFormat()).to(format -> builder.addFormDataPart("response_format", format));
+        mapper.from(request.getTemperature()).to(obj -> builder.addFormDataPart("temperature", obj.toString()));
+        mapper.from(request.getLanguage()).to(language -> builder.addFormDataPart("language", language));
+        return builder.build();
+    }
+
+    @SneakyThrows
+    protected MultipartBody createImageEditBody(Resource image, Resource mask, CreateImageRequest request) {
+        boolean imageIsPng = FileNameUtil.isType(image.getFilename(), ChatConstant.EXPECTED_IMAGE_TYPE);
+        boolean maskIsPng = FileNameUtil.isType(mask.getFilename(), ChatConstant.EXPECTED_IMAGE_TYPE);
+        Assert.isTrue(imageIsPng, "The image must png type.");
+        Assert.isTrue(maskIsPng, "The mask must png type.");
+
+        Assert.isTrue(image.contentLength() < ChatConstant.MAX_IMAGE_SIZE, "The image must less than 4MB.");
+        Assert.isTrue(mask.contentLength() < ChatConstant.MAX_IMAGE_SIZE, "The mask must less than 4MB.");
+
+        MultipartBody.Builder builder = new MultipartBody.Builder();
+        builder.setType(MultipartBody.FORM);
+        builder.addFormDataPart("image", image.getFilename(), createResourceBody(image));
+        builder.addFormDataPart("mask", mask.getFilename(), createResourceBody(mask));
+
+        PropertyMapper mapper = buildImageForm(request, builder);
+        mapper.from(request.getPrompt()).to(prompt -> builder.addFormDataPart("prompt", prompt));
+        return builder.build();
+    }
+
+    @SneakyThrows
+    protected MultipartBody createImageVariationBody(Resource image, CreateImageVariationRequest request) {
+        boolean imageIsPng = FileNameUtil.isType(image.getFilename(), ChatConstant.EXPECTED_IMAGE_TYPE);
+        Assert.isTrue(imageIsPng, "The image must png type.");
+        Assert.isTrue(image.contentLength() < ChatConstant.MAX_IMAGE_SIZE, "The image must less than 4MB.");
+
+        MultipartBody.Builder builder = new MultipartBody.Builder();
+        builder.setType(MultipartBody.FORM);
+        builder.addFormDataPart("image", image.getFilename(), createResourceBody(image));
+
+        buildImageForm(request, builder);
+        return builder.build();
+    }
+
+    private PropertyMapper buildImageForm(CreateImageVariationRequest request, MultipartBody.Builder builder) {
+        PropertyMapper mapper = PropertyMapper.get().alwaysApplyingWhenNonNull();
+        mapper.from(request.getN()).to(n -> builder.addFormDataPart("n", n.toString()));
+        mapper.from(request.getSize()).to(size -> builder.addFormDataPart("size", size.getValue()));
+        mapper.from(request.getResponseFormat()).to(obj -> builder.addFormDataPart("response_format", obj.getValue()));
+        mapper.from(request.getUser()).to(user -> builder.addFormDataPart("user", user));
+        return mapper;
+    }
+}
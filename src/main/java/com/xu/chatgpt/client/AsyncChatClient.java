@@ -0,0 +1,272 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.entity.audio.CreateAudioRequest;
+import com.xu.chatgpt.entity.audio.CreateAudioResponse;
+import com.xu.chatgpt.entity.billing.CreditGrantsResponse;
+import com.xu.chatgpt.entity.billing.SubscriptionResponse;
+import com.xu.chatgpt.entity.billing.UsageResponse;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.entity.completions.CompletionRequest;
+import com.xu.chatgpt.entity.completions.CompletionResponse;
+import com.xu.chatgpt.entity.edit.EditRequest;
+import com.xu.chatgpt.entity.edit.EditResponse;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+import com.xu.chatgpt.entity.files.DeleteFileResponse;
+import com.xu.chatgpt.entity.files.ListFileResponse;
+import com.xu.chatgpt.entity.files.RetrieveFileResponse;
+import com.xu.chatgpt.entity.files.UploadFileResponse;
+import com.xu.chatgpt.entity.finetunes.*;
+import com.xu.chatgpt.entity.image.CreateImageRequest;
+import com.xu.chatgpt.entity.image.CreateImageResponse;
+import com.xu.chatgpt.entity.image.CreateImageVariationRequest;
+import com.xu.chatgpt.entity.model.ListModelsResponse;
+import com.xu.chatgpt.entity.model.RetrieveModelResponse;
+import com.xu.chatgpt.entity.moderations.ModerationRequest;
+import com.xu.chatgpt.entity.moderations.ModerationResponse;
+import com.xu.chatgpt.entity.users.UserResponse;
+import org.springframework.core.io.Resource;
+
+import java.util.concurrent.CompletableFuture;
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+/**
+ * The asynchronous {@link ChatClient}, each request is sent by {@link okhttp3.Call#enqueue} and completes
+ * the returned {@link CompletableFuture} without holding the caller thread.
+ */
+public interface AsyncChatClient {
+
+    /**
+     * Create moderation.
+     *
+     * @param request {@link ModerationRequest}
+     * @return {@link CompletableFuture} of {@link ModerationResponse}
+     */
+    CompletableFuture<ModerationResponse> moderations(@Valid ModerationRequest request);
+
+    /**
+     * Create completion.
+     *
+     * @param request {@link CompletionRequest}
+     * @return {@link CompletableFuture} of {@link CompletionResponse}
+     */
+    @Deprecated
+    CompletableFuture<CompletionResponse> completions(@Valid CompletionRequest request);
+
+    /**
+     * Create edit.
+     *
+     * @param request {@link EditRequest}
+     * @return {@link CompletableFuture} of {@link EditResponse}
+     */
+    CompletableFuture<EditResponse> edits(@Valid EditRequest request);
+
+    /**
+     * Create chat completion.
+     *
+     * @param request {@link ChatCompletionRequest}
+     * @return {@link CompletableFuture} of {@link ChatCompletionResponse}
+     */
+    CompletableFuture<ChatCompletionResponse> chatCompletions(@Valid ChatCompletionRequest request);
+
+    /**
+     * List models.
+     *
+     * @return {@link CompletableFuture} of {@link ListModelsResponse}
+     */
+    CompletableFuture<ListModelsResponse> models();
+
+    /**
+     * Retrieve model by {@code modelId}.
+     *
+     * @param modelId modelId
+     * @return {@link CompletableFuture} of {@link RetrieveModelResponse}
+     */
+    CompletableFuture<RetrieveModelResponse> retrieveModel(@NotBlank String modelId);
+
+    /**
+     * Create embeddings.
+     *
+     * @param request {@link EmbeddingRequest}
+     * @return {@link CompletableFuture} of {@link EmbeddingResponse}
+     */
+    CompletableFuture<EmbeddingResponse> embeddings(@Valid EmbeddingRequest request);
+
+    /**
+     * List files.
+     *
+     * @return {@link CompletableFuture} of {@link ListFileResponse}
+     */
+    CompletableFuture<ListFileResponse> listFiles();
+
+    /**
+     * Upload file.
+     *
+     * @param fileResource {@link Resource}
+     * @param purpose      purpose
+     * @return {@link CompletableFuture} of {@link UploadFileResponse}
+     */
+    CompletableFuture<UploadFileResponse> uploadFile(@NotNull Resource fileResource, @NotBlank String purpose);
+
+    /**
+     * Delete file by {@code fileId}.
+     *
+     * @param fileId fileId
+     * @return {@link CompletableFuture} of {@link DeleteFileResponse}
+     */
+    CompletableFuture<DeleteFileResponse> deleteFile(@NotBlank String fileId);
+
+    /**
+     * Retrieve file by {@code fileId}
+     *
+     * @param fileId fileId
+     * @return {@link CompletableFuture} of {@link RetrieveFileResponse}
+     */
+    CompletableFuture<RetrieveFileResponse> retrieveFile(@NotBlank String fileId);
+
+    /**
+     * Create fine-tune.
+     *
+     * @param request {@link CreateFineTuneRequest}
+     * @return {@link CompletableFuture} of {@link CreateFineTuneResponse}
+     */
+    CompletableFuture<CreateFineTuneResponse> createFineTune(@Valid CreateFineTuneRequest request);
+
+    /**
+     * List fine-tunes.
+     *
+     * @return {@link CompletableFuture} of {@link ListFineTuneResponse}
+     */
+    CompletableFuture<ListFineTuneResponse> listFineTunes();
+
+    /**
+     * Retrieve fine-tune.
+     *
+     * @param fineTuneId fineTuneId
+     * @return {@link CompletableFuture} of {@link RetrieveFineTuneResponse}
+     */
+    CompletableFuture<RetrieveFineTuneResponse> retrieveFineTunes(@NotBlank String fineTuneId);
+
+    /**
+     * Cancel fine-tune by {@code fineTuneId}.
+     *
+     * @param fineTuneId fineTuneId
+     * @return {@link CompletableFuture} of {@link CancelFineTuneResponse}
+     */
+    CompletableFuture<CancelFineTuneResponse> cancelFineTune(@NotBlank String fineTuneId);
+
+    /**
+     * List fine-tune events.
+     *
+     * @param fineTuneId fineTuneId
+     * @return {@link CompletableFuture} of {@link ListFineTuneEventResponse}
+     */
+    CompletableFuture<ListFineTuneEventResponse> listFineTuneEvents(@NotBlank String fineTuneId);
+
+    /**
+     * Delete fine-tune model.
+     *
+     * @param model model
+     * @return {@link CompletableFuture} of {@link DeleteFineTuneModelResponse}
+     */
+    CompletableFuture<DeleteFineTuneModelResponse> deleteFineTuneModel(@NotBlank String model);
+
+    /**
+     * Create transcription.
+     *
+     * @param fileResource The audio file to transcribe, in one of these formats: mp3, mp4, mpeg, mpga, m4a, wav, or webm.
+     * @param request      {@link CreateAudioRequest}
+     * @return {@link CompletableFuture} of {@link CreateAudioResponse}
+     */
+    CompletableFuture<CreateAudioResponse> createTranscription(
+            @NotNull Resource fileResource, @Valid CreateAudioRequest request);
+
+    /**
+     * Create translation.
+     *
+     * @param fileResource The audio file to translate, in one of these formats: mp3, mp4, mpeg, mpga, m4a, wav, or webm.
+     * @param request      {@link CreateAudioRequest}
+     * @return {@link CompletableFuture} of {@link CreateAudioResponse}
+     */
+    CompletableFuture<CreateAudioResponse> createTranslation(
+            @NotNull Resource fileResource, @Valid CreateAudioRequest request);
+
+    /**
+     * Create image.
+     *
+     * @param request {@link CreateImageRequest}
+     * @return {@link CompletableFuture} of {@link CreateImageResponse}
+     */
+    CompletableFuture<CreateImageResponse> createImage(@Valid CreateImageRequest request);
+
+    /**
+     * Create image edit.
+     *
+     * @param image   {@link Resource}
+     * @param mask    {@link Resource}
+     * @param request {@link CreateImageRequest}
+     * @return {@link CompletableFuture} of {@link CreateImageResponse}
+     */
+    CompletableFuture<CreateImageResponse> createImageEdit(
+            @NotNull Resource image, @NotNull Resource mask, @Valid CreateImageRequest request);
+
+    /**
+     * Create image variation.
+     *
+     * @param image   {@link Resource}
+     * @param request {@link CreateImageRequest}
+     * @return {@link CompletableFuture} of {@link CreateImageResponse}
+     */
+    CompletableFuture<CreateImageResponse> createImageVariation(
+            @NotNull Resource image, @Valid CreateImageVariationRequest request);
+
+    /**
+     * Query billing credit grants.
+     *
+     * @return {@link CompletableFuture} of {@link CreditGrantsResponse}
+     */
+    CompletableFuture<CreditGrantsResponse> billingCreditGrants();
+
+    /**
+     * Get users.
+     *
+     * @param organizationId organizationId
+     * @return {@link CompletableFuture} of {@link UserResponse}
+     */
+    CompletableFuture<UserResponse> users(@NotBlank String organizationId);
+
+    /**
+     * Query billing subscription.
+     *
+     * @return {@link CompletableFuture} of {@link SubscriptionResponse}
+     */
+    CompletableFuture<SubscriptionResponse> billingSubscription();
+
+    /**
+     * Query billing usage.
+     *
+     * @param startDate startDate
+     * @param endDate   endDate
+     * @return {@link CompletableFuture} of {@link UsageResponse}
+     */
+    CompletableFuture<UsageResponse> billingUsage(@NotBlank String startDate, @NotBlank String endDate);
+}
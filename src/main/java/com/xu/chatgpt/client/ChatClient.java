@@ -42,9 +42,12 @@ import com.xu.chatgpt.entity.model.RetrieveModelResponse;
 import com.xu.chatgpt.entity.moderations.ModerationRequest;
 import com.xu.chatgpt.entity.moderations.ModerationResponse;
 import com.xu.chatgpt.entity.users.UserResponse;
+import okhttp3.sse.EventSource;
 import okhttp3.sse.EventSourceListener;
 import org.springframework.core.io.Resource;
 
+import java.io.OutputStream;
+
 import javax.validation.Valid;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
@@ -67,9 +70,11 @@ public interface ChatClient {
 
     /**
      * Create stream completion.
+     *
+     * @return {@link EventSource} of the stream, to cancel it
      */
     @Deprecated
-    void streamCompletions(@Valid CompletionRequest request, @NotNull EventSourceListener listener);
+    EventSource streamCompletions(@Valid CompletionRequest request, @NotNull EventSourceListener listener);
 
     /**
      * Create edit.
@@ -83,8 +88,19 @@ public interface ChatClient {
 
     /**
      * Create stream chat completion.
+     *
+     * @return {@link EventSource} of the stream, to cancel it, such as when the downstream client disconnects
+     */
+    EventSource streamChatCompletions(@Valid ChatCompletionRequest request, @NotNull EventSourceListener listener);
+
+    /**
+     * Create stream chat completion, copying the raw Server-Sent Events of upstream to {@code outputStream}
+     * without decoding them. Blocks until the stream ends.
+     *
+     * @param request the request
+     * @param outputStream the output stream, flushed whenever upstream has no more bytes at hand
      */
-    void streamChatCompletions(@Valid ChatCompletionRequest request, @NotNull EventSourceListener listener);
+    void relayChatCompletions(@Valid ChatCompletionRequest request, @NotNull OutputStream outputStream);
 
     /**
      * List models.
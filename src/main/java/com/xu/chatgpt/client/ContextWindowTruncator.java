@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiContextWindow;
+import com.xu.chatgpt.utils.TokenCounter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drops the oldest messages of a chat conversation until the prompt fits the context window of the model minus the
+ * completion tokens, so requests which are bound to fail are not sent.
+ *
+ * <p>System messages, the function definitions and the last message are always kept. Function results are dropped or
+ * kept together with the assistant message which called the function, so a kept result always follows its call.
+ * Every message is counted once, with the cached counts of {@link TokenCounter}, including its function call.
+ */
+@Slf4j
+@UtilityClass
+public class ContextWindowTruncator {
+
+    private static final String SYSTEM = "system";
+    private static final String FUNCTION = "function";
+    private static final Counter TRUNCATED = Metrics.counter("gpt.context.truncated");
+
+    /**
+     * Replace the messages of the request with the newest ones which fit.
+     *
+     * @param request the request, changed in place
+     * @param properties the context window properties
+     * @throws OpenAiException if the function definitions, the system messages and the last message, with the call it
+     *     answers, do not fit
+     */
+    public static void truncate(ChatCompletionRequest request, OpenAiContextWindow properties) {
+        List<ChatCompletionMessage> messages = request.getMessages();
+        int window = window(request.getModel(), properties);
+        if (window <= 0 || messages == null || messages.isEmpty()) {
+            return;
+        }
+        Integer maxTokens = request.getMaxTokens();
+        long budget = window - (maxTokens != null ? maxTokens : properties.getReserveTokens());
+        TokenCounter counter = TokenCounter.of(request.getModel(), ModelType.GPT_3_5_TURBO);
+
+        int size = messages.size();
+        int[] tokens = new int[size];
+        long total = TokenCounter.REPLY_PRIMED_NUM + counter.countFunctions(request.getFunctions());
+        for (int i = 0; i < size; i++) {
+            tokens[i] = counter.count(messages.get(i));
+            total += tokens[i];
+        }
+        if (total <= budget) {
+            return;
+        }
+
+        boolean[] dropped = new boolean[size];
+        int droppedCount = 0;
+        int last = size - 1;
+        for (int i = 0; i < last && total > budget; i++) {
+            if (SYSTEM.equals(messages.get(i).getRole())) {
+                continue;
+            }
+            int end = i;
+            while (end < last && FUNCTION.equals(messages.get(end + 1).getRole())) {
+                end++;
+            }
+            if (end == last) {
+                // The last message is a result of this call, so both are kept.
+                break;
+            }
+            for (int j = i; j <= end; j++) {
+                dropped[j] = true;
+                droppedCount++;
+                total -= tokens[j];
+            }
+            i = end;
+        }
+        if (total > budget) {
+            throw new OpenAiException(String.format(
+                    "The prompt needs %d tokens, but model %s only has %d of its %d tokens context window left.",
+                    total, request.getModel(), budget, window));
+        }
+
+        List<ChatCompletionMessage> kept = new ArrayList<>(size - droppedCount);
+        for (int i = 0; i < size; i++) {
+            if (!dropped[i]) {
+                kept.add(messages.get(i));
+            }
+        }
+        request.setMessages(kept);
+        TRUNCATED.increment();
+        log.debug("Dropped {} of {} messages to fit the context window of {}.", droppedCount, size, request.getModel());
+    }
+
+    private static int window(String model, OpenAiContextWindow properties) {
+        Integer window = model == null ? null : properties.getWindows().get(model);
+        if (window != null) {
+            return window;
+        }
+        return ModelType.fromName(model).map(ModelType::getMaxContextLength).orElse(0);
+    }
+}
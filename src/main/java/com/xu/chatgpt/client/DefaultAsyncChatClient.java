@@ -0,0 +1,419 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.apikey.OpenAiKeyStats;
+import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import com.xu.chatgpt.cache.EndpointCache;
+import com.xu.chatgpt.cache.ResponseCache;
+import com.xu.chatgpt.entity.audio.CreateAudioRequest;
+import com.xu.chatgpt.entity.audio.CreateAudioResponse;
+import com.xu.chatgpt.entity.billing.CreditGrantsResponse;
+import com.xu.chatgpt.entity.billing.SubscriptionResponse;
+import com.xu.chatgpt.entity.billing.UsageResponse;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.entity.completions.CompletionRequest;
+import com.xu.chatgpt.entity.completions.CompletionResponse;
+import com.xu.chatgpt.entity.edit.EditRequest;
+import com.xu.chatgpt.entity.edit.EditResponse;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+import com.xu.chatgpt.entity.files.DeleteFileResponse;
+import com.xu.chatgpt.entity.files.ListFileResponse;
+import com.xu.chatgpt.entity.files.RetrieveFileResponse;
+import com.xu.chatgpt.entity.files.UploadFileResponse;
+import com.xu.chatgpt.entity.finetunes.*;
+import com.xu.chatgpt.entity.image.CreateImageRequest;
+import com.xu.chatgpt.entity.image.CreateImageResponse;
+import com.xu.chatgpt.entity.image.CreateImageVariationRequest;
+import com.xu.chatgpt.entity.model.ListModelsResponse;
+import com.xu.chatgpt.entity.model.RetrieveModelResponse;
+import com.xu.chatgpt.entity.moderations.ModerationRequest;
+import com.xu.chatgpt.entity.moderations.ModerationResponse;
+import com.xu.chatgpt.entity.users.UserResponse;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import com.xu.chatgpt.properties.OpenAiUrl;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.Resource;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.util.UriTemplateHandler;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * {@link AsyncChatClient} on top of {@link Call#enqueue}.
+ *
+ * <p>The request is serialized and its api key picked on {@code executor}, where waiting for the rate limit
+ * does not block the caller. The response body is buffered on the OkHttp dispatcher thread, then parsed on
+ * {@code executor}, so the dispatcher threads only wait on the network.
+ */
+@Slf4j
+@Validated
+@SuppressWarnings({"squid:S6539"})
+public class DefaultAsyncChatClient extends AbstractChatClient implements AsyncChatClient, DisposableBean {
+
+    private final ExecutorService executor;
+
+    public DefaultAsyncChatClient(
+            OkHttpClient okHttpClient,
+            OpenAiProperties openAiProperties,
+            OpenAiKeyWrapper openAiKeyWrapper,
+            UriTemplateHandler uriTemplateHandler,
+            ExecutorService executor) {
+        this(okHttpClient, openAiProperties, openAiKeyWrapper, uriTemplateHandler, executor, null, null);
+    }
+
+    public DefaultAsyncChatClient(
+            OkHttpClient okHttpClient,
+            OpenAiProperties openAiProperties,
+            OpenAiKeyWrapper openAiKeyWrapper,
+            UriTemplateHandler uriTemplateHandler,
+            ExecutorService executor,
+            ResponseCache responseCache,
+            EndpointCache endpointCache) {
+        super(okHttpClient, openAiProperties, openAiKeyWrapper, uriTemplateHandler, responseCache, endpointCache);
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<ModerationResponse> moderations(ModerationRequest request) {
+        return execute(OpenAiUrl.MODERATIONS, () -> createRequestBody(request), ModerationResponse.class);
+    }
+
+    @Override
+    @Deprecated
+    public CompletableFuture<CompletionResponse> completions(CompletionRequest request) {
+        return async(() -> {
+            if (isCacheable(request)) {
+                return responseCache.getAsync(request, CompletionResponse.class, () -> doCompletions(request));
+            }
+            return doCompletions(request);
+        });
+    }
+
+    private CompletableFuture<CompletionResponse> doCompletions(CompletionRequest request) {
+        return send(OpenAiUrl.COMPLETIONS, createRequestBody(request), () -> tokens(request), CompletionResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<EditResponse> edits(EditRequest request) {
+        return execute(OpenAiUrl.EDITS, () -> createRequestBody(request), EditResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResponse> chatCompletions(ChatCompletionRequest request) {
+        return async(() -> {
+            truncate(request);
+            if (isCacheable(request)) {
+                return responseCache.getAsync(request, ChatCompletionResponse.class, () -> doChatCompletions(request));
+            }
+            return doChatCompletions(request);
+        });
+    }
+
+    private CompletableFuture<ChatCompletionResponse> doChatCompletions(ChatCompletionRequest request) {
+        return send(
+                OpenAiUrl.CHAT_COMPLETIONS,
+                createRequestBody(request),
+                () -> tokens(request),
+                ChatCompletionResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<ListModelsResponse> models() {
+        return execute(OpenAiUrl.LIST_MODELS, null, ListModelsResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<RetrieveModelResponse> retrieveModel(String modelId) {
+        return execute(OpenAiUrl.RETRIEVE_MODEL, null, RetrieveModelResponse.class, modelId);
+    }
+
+    @Override
+    public CompletableFuture<EmbeddingResponse> embeddings(EmbeddingRequest request) {
+        return async(() -> send(
+                OpenAiUrl.EMBEDDINGS, createRequestBody(request), () -> tokens(request), EmbeddingResponse.class));
+    }
+
+    @Override
+    public CompletableFuture<ListFileResponse> listFiles() {
+        return execute(OpenAiUrl.LIST_FILES, null, ListFileResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<UploadFileResponse> uploadFile(Resource fileResource, String purpose) {
+        return invalidating(
+                execute(
+                        OpenAiUrl.UPLOAD_FILE,
+                        () -> createUploadFileBody(fileResource, purpose),
+                        UploadFileResponse.class),
+                OpenAiUrl.LIST_FILES);
+    }
+
+    @Override
+    public CompletableFuture<DeleteFileResponse> deleteFile(String fileId) {
+        return invalidating(
+                execute(OpenAiUrl.DELETE_FILE, null, DeleteFileResponse.class, fileId),
+                OpenAiUrl.LIST_FILES,
+                OpenAiUrl.RETRIEVE_FILE);
+    }
+
+    @Override
+    public CompletableFuture<RetrieveFileResponse> retrieveFile(String fileId) {
+        return execute(OpenAiUrl.RETRIEVE_FILE, null, RetrieveFileResponse.class, fileId);
+    }
+
+    @Override
+    public CompletableFuture<CreateFineTuneResponse> createFineTune(CreateFineTuneRequest request) {
+        return invalidating(
+                execute(OpenAiUrl.CREATE_FINE_TUNE, () -> createRequestBody(request), CreateFineTuneResponse.class),
+                OpenAiUrl.LIST_FINE_TUNE);
+    }
+
+    @Override
+    public CompletableFuture<ListFineTuneResponse> listFineTunes() {
+        return execute(OpenAiUrl.LIST_FINE_TUNE, null, ListFineTuneResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<RetrieveFineTuneResponse> retrieveFineTunes(String fineTuneId) {
+        return execute(OpenAiUrl.RETRIEVE_FINE_TUNE, null, RetrieveFineTuneResponse.class, fineTuneId);
+    }
+
+    @Override
+    public CompletableFuture<CancelFineTuneResponse> cancelFineTune(String fineTuneId) {
+        return invalidating(
+                execute(
+                        OpenAiUrl.CANCEL_FINE_TUNE,
+                        () -> RequestBody.create("", null),
+                        CancelFineTuneResponse.class,
+                        fineTuneId),
+                OpenAiUrl.LIST_FINE_TUNE);
+    }
+
+    @Override
+    public CompletableFuture<ListFineTuneEventResponse> listFineTuneEvents(String fineTuneId) {
+        return execute(OpenAiUrl.LIST_FINE_TUNE_EVENTS, null, ListFineTuneEventResponse.class, fineTuneId);
+    }
+
+    @Override
+    public CompletableFuture<DeleteFineTuneModelResponse> deleteFineTuneModel(String model) {
+        return invalidating(
+                execute(OpenAiUrl.DELETE_FINE_TUNE_EVENTS, null, DeleteFineTuneModelResponse.class, model),
+                OpenAiUrl.LIST_MODELS,
+                OpenAiUrl.RETRIEVE_MODEL);
+    }
+
+    @Override
+    public CompletableFuture<CreateAudioResponse> createTranscription(Resource fileResource, CreateAudioRequest request) {
+        return execute(
+                OpenAiUrl.CREATE_TRANSCRIPTION,
+                () -> createAudioBody(fileResource, request),
+                CreateAudioResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<CreateAudioResponse> createTranslation(Resource fileResource, CreateAudioRequest request) {
+        return execute(
+                OpenAiUrl.CREATE_TRANSLATION, () -> createAudioBody(fileResource, request), CreateAudioResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<CreateImageResponse> createImage(CreateImageRequest request) {
+        return execute(OpenAiUrl.CREATE_IMAGE, () -> createRequestBody(request), CreateImageResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<CreateImageResponse> createImageEdit(Resource image, Resource mask, CreateImageRequest request) {
+        return execute(
+                OpenAiUrl.CREATE_IMAGE_EDIT,
+                () -> createImageEditBody(image, mask, request),
+                CreateImageResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<CreateImageResponse> createImageVariation(Resource image, CreateImageVariationRequest request) {
+        return execute(
+                OpenAiUrl.CREATE_IMAGE_VARIATION,
+                () -> createImageVariationBody(image, request),
+                CreateImageResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<CreditGrantsResponse> billingCreditGrants() {
+        return execute(OpenAiUrl.BILLING_CREDIT_GRANTS, null, CreditGrantsResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<UserResponse> users(String organizationId) {
+        return execute(OpenAiUrl.USERS, null, UserResponse.class, organizationId);
+    }
+
+    @Override
+    public CompletableFuture<SubscriptionResponse> billingSubscription() {
+        return execute(OpenAiUrl.BILLING_SUBSCRIPTION, null, SubscriptionResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<UsageResponse> billingUsage(String startDate, String endDate) {
+        return execute(OpenAiUrl.BILLING_USAGE, null, UsageResponse.class, startDate, endDate);
+    }
+
+    private <S> CompletableFuture<S> execute(
+            OpenAiUrl openAiUrl, Supplier<RequestBody> requestBody, Class<S> responseType, Object... uriVariables) {
+        return async(() -> {
+            RequestBody body = requestBody == null ? null : requestBody.get();
+            if (isCacheable(openAiUrl)) {
+                return endpointCache.getAsync(
+                        openAiUrl,
+                        uriVariables,
+                        responseType,
+                        () -> send(openAiUrl, body, () -> 0, responseType, uriVariables));
+            }
+            return send(openAiUrl, body, () -> 0, responseType, uriVariables);
+        });
+    }
+
+    /**
+     * Run {@code task} on {@code executor}, as it may serialize the request, count its tokens and wait for an api key
+     * under the rate limit. The caller never blocks, and cancelling the returned future cancels the call.
+     */
+    private <S> CompletableFuture<S> async(Supplier<CompletableFuture<S>> task) {
+        CompletableFuture<S> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                CompletableFuture<S> result;
+                try {
+                    result = task.get();
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                result.whenComplete((value, e) -> {
+                    if (e == null) {
+                        future.complete(value);
+                    } else {
+                        future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                    }
+                });
+                future.whenComplete((value, e) -> {
+                    if (future.isCancelled()) {
+                        result.cancel(false);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new OpenAiException(e));
+        }
+        return future;
+    }
+
+    /**
+     * Drop the cached responses of GET endpoints once the call which changes them completes.
+     */
+    private <S> CompletableFuture<S> invalidating(CompletableFuture<S> future, OpenAiUrl... openAiUrls) {
+        future.whenComplete((result, e) -> invalidate(openAiUrls));
+        return future;
+    }
+
+    /**
+     * Send the request with the next api key. Must run on {@code executor}, see {@link #async}.
+     */
+    private <S> CompletableFuture<S> send(
+            OpenAiUrl openAiUrl,
+            RequestBody requestBody,
+            LongSupplier tokens,
+            Class<S> responseType,
+            Object... uriVariables) {
+        CompletableFuture<S> future = new CompletableFuture<>();
+        String apiKey;
+        Request clientRequest;
+        try {
+            apiKey = nextApiKey(tokens);
+            clientRequest = createRequest(apiKey, openAiUrl, requestBody, uriVariables);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        OpenAiKeyStats keyStats = openAiKeyWrapper.stats(apiKey);
+        long startNanos = keyStats.acquire();
+        Call call = okHttpClient.newCall(clientRequest);
+        call.enqueue(new Callback() {
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                keyStats.record(startNanos, 0);
+                keyStats.release();
+                future.completeExceptionally(new OpenAiException(e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    ResponseBody responseBody = response.body();
+                    if (responseBody != null) {
+                        // Read the whole body here, where blocking on the network is expected: the few executor
+                        // threads only parse, and a slow body would stall every other response behind it. These
+                        // are complete json responses, not streams, so the buffer is bounded by the response size.
+                        responseBody.source().request(Long.MAX_VALUE);
+                    }
+                    executor.execute(() -> complete(future, clientRequest, response, responseType));
+                } catch (IOException | RejectedExecutionException e) {
+                    response.close();
+                    future.completeExceptionally(new OpenAiException(e));
+                } finally {
+                    keyStats.record(startNanos, response.code());
+                    keyStats.release();
+                }
+            }
+        });
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    private <S> void complete(
+            CompletableFuture<S> future, Request clientRequest, Response response, Class<S> responseType) {
+        try (Response closeable = response) {
+            future.complete(readResponse(clientRequest, closeable, responseType));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -1,13 +1,10 @@
 
 package com.xu.chatgpt.client;
 
-import cn.hutool.core.io.IoUtil;
-import cn.hutool.core.io.file.FileNameUtil;
-import cn.hutool.core.lang.WeightRandom;
-import cn.hutool.extra.spring.SpringUtil;
-import cn.hutool.http.Header;
+import com.xu.chatgpt.apikey.OpenAiKeyStats;
 import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
-import com.xu.chatgpt.constant.ChatConstant;
+import com.xu.chatgpt.cache.EndpointCache;
+import com.xu.chatgpt.cache.ResponseCache;
 import com.xu.chatgpt.entity.audio.CreateAudioRequest;
 import com.xu.chatgpt.entity.audio.CreateAudioResponse;
 import com.xu.chatgpt.entity.billing.CreditGrantsResponse;
@@ -34,40 +31,49 @@ import com.xu.chatgpt.entity.model.RetrieveModelResponse;
 import com.xu.chatgpt.entity.moderations.ModerationRequest;
 import com.xu.chatgpt.entity.moderations.ModerationResponse;
 import com.xu.chatgpt.entity.users.UserResponse;
-import com.xu.chatgpt.exception.NoAvailableKeyEvent;
-import com.xu.chatgpt.exception.OpenAiException;
 import com.xu.chatgpt.properties.OpenAiProperties;
 import com.xu.chatgpt.properties.OpenAiUrl;
-import com.xu.chatgpt.utils.JsonUtils;
 import lombok.Cleanup;
-import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import okhttp3.internal.sse.RealEventSource;
+import okhttp3.sse.EventSource;
 import okhttp3.sse.EventSourceListener;
-import org.springframework.boot.context.properties.PropertyMapper;
+import okio.Buffer;
+import okio.BufferedSource;
 import org.springframework.core.io.Resource;
-import org.springframework.util.Assert;
-import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.util.UriTemplateHandler;
 
-import java.net.URI;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.LongSupplier;
 
 @Slf4j
 @Validated
-@RequiredArgsConstructor
 @SuppressWarnings({"squid:S6539"})
-public class DefaultChatClient implements ChatClient {
+public class DefaultChatClient extends AbstractChatClient implements ChatClient {
 
-    private final OkHttpClient okHttpClient;
-    private final OpenAiProperties openAiProperties;
-    private final OpenAiKeyWrapper openAiKeyWrapper;
-    private final UriTemplateHandler uriTemplateHandler;
+    private static final long RELAY_READ_SIZE = 8192;
+
+    public DefaultChatClient(
+            OkHttpClient okHttpClient,
+            OpenAiProperties openAiProperties,
+            OpenAiKeyWrapper openAiKeyWrapper,
+            UriTemplateHandler uriTemplateHandler) {
+        this(okHttpClient, openAiProperties, openAiKeyWrapper, uriTemplateHandler, null, null);
+    }
+
+    public DefaultChatClient(
+            OkHttpClient okHttpClient,
+            OpenAiProperties openAiProperties,
+            OpenAiKeyWrapper openAiKeyWrapper,
+            UriTemplateHandler uriTemplateHandler,
+            ResponseCache responseCache,
+            EndpointCache endpointCache) {
+        super(okHttpClient, openAiProperties, openAiKeyWrapper, uriTemplateHandler, responseCache, endpointCache);
+    }
 
     @Override
     public ModerationResponse moderations(ModerationRequest request) {
@@ -76,15 +82,21 @@ public class DefaultChatClient implements ChatClient {
 
     @Override
     public CompletionResponse completions(CompletionRequest request) {
-        return execute(OpenAiUrl.COMPLETIONS, createRequestBody(request), CompletionResponse.class);
+        if (isCacheable(request)) {
+            return responseCache.get(request, CompletionResponse.class, () -> doCompletions(request));
+        }
+        return doCompletions(request);
+    }
+
+    private CompletionResponse doCompletions(CompletionRequest request) {
+        return execute(
+                OpenAiUrl.COMPLETIONS, createRequestBody(request), () -> tokens(request), CompletionResponse.class);
     }
 
     @Override
-    public void streamCompletions(CompletionRequest request, EventSourceListener listener) {
+    public EventSource streamCompletions(CompletionRequest request, EventSourceListener listener) {
         request.setStream(true);
-        Request clientRequest = createRequest(OpenAiUrl.COMPLETIONS, createRequestBody(request));
-        RealEventSource realEventSource = new RealEventSource(clientRequest, listener);
-        realEventSource.connect(okHttpClient);
+        return stream(OpenAiUrl.COMPLETIONS, createRequestBody(request), () -> tokens(request), listener);
     }
 
     @Override
@@ -94,15 +106,67 @@ public class DefaultChatClient implements ChatClient {
 
     @Override
     public ChatCompletionResponse chatCompletions(ChatCompletionRequest request) {
-        return execute(OpenAiUrl.CHAT_COMPLETIONS, createRequestBody(request), ChatCompletionResponse.class);
+        truncate(request);
+        if (isCacheable(request)) {
+            return responseCache.get(request, ChatCompletionResponse.class, () -> doChatCompletions(request));
+        }
+        return doChatCompletions(request);
+    }
+
+    private ChatCompletionResponse doChatCompletions(ChatCompletionRequest request) {
+        return execute(
+                OpenAiUrl.CHAT_COMPLETIONS,
+                createRequestBody(request),
+                () -> tokens(request),
+                ChatCompletionResponse.class);
     }
 
     @Override
-    public void streamChatCompletions(ChatCompletionRequest request, EventSourceListener listener) {
+    public EventSource streamChatCompletions(ChatCompletionRequest request, EventSourceListener listener) {
         request.setStream(true);
-        Request clientRequest = createRequest(OpenAiUrl.CHAT_COMPLETIONS, createRequestBody(request));
-        RealEventSource realEventSource = new RealEventSource(clientRequest, listener);
-        realEventSource.connect(okHttpClient);
+        truncate(request);
+        return stream(OpenAiUrl.CHAT_COMPLETIONS, createRequestBody(request), () -> tokens(request), listener);
+    }
+
+    @Override
+    @SneakyThrows
+    public void relayChatCompletions(ChatCompletionRequest request, OutputStream outputStream) {
+        request.setStream(true);
+        truncate(request);
+        String apiKey = nextApiKey(() -> tokens(request));
+        Request clientRequest = createRequest(apiKey, OpenAiUrl.CHAT_COMPLETIONS, createRequestBody(request));
+        OpenAiKeyStats keyStats = openAiKeyWrapper.stats(apiKey);
+        long startNanos = keyStats.acquire();
+        try {
+            Response response;
+            try {
+                response = okHttpClient.newCall(clientRequest).execute();
+            } catch (IOException e) {
+                keyStats.record(startNanos, 0);
+                throw e;
+            }
+            keyStats.record(startNanos, response.code());
+            try (Response closeable = response) {
+                relay(successBody(clientRequest, closeable).source(), outputStream);
+            }
+        } finally {
+            keyStats.release();
+        }
+    }
+
+    /**
+     * Move the upstream segments to the output stream as they arrive, the segments return to the okio pool once
+     * written, and flush only when upstream has nothing more buffered.
+     */
+    private static void relay(BufferedSource source, OutputStream outputStream) throws IOException {
+        Buffer buffer = new Buffer();
+        while (source.read(buffer, RELAY_READ_SIZE) != -1) {
+            buffer.writeTo(outputStream);
+            if (source.getBuffer().size() == 0) {
+                outputStream.flush();
+            }
+        }
+        outputStream.flush();
     }
 
     @Override
@@ -117,7 +181,8 @@ public class DefaultChatClient implements ChatClient {
 
     @Override
     public EmbeddingResponse embeddings(EmbeddingRequest request) {
-        return execute(OpenAiUrl.EMBEDDINGS, createRequestBody(request), EmbeddingResponse.class);
+        return execute(
+                OpenAiUrl.EMBEDDINGS, createRequestBody(request), () -> tokens(request), EmbeddingResponse.class);
     }
 
     @Override
@@ -126,20 +191,18 @@ public class DefaultChatClient implements ChatClient {
     }
 
     @Override
-    @SneakyThrows
     public UploadFileResponse uploadFile(Resource fileResource, String purpose) {
-        byte[] bytes = IoUtil.readBytes(fileResource.getInputStream());
-        MultipartBody multipartBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("purpose", purpose)
-                .addFormDataPart("file", fileResource.getFilename(), RequestBody.create(bytes, ChatConstant.IMAGE_PNG))
-                .build();
-        return execute(OpenAiUrl.UPLOAD_FILE, multipartBody, UploadFileResponse.class);
+        UploadFileResponse response =
+                execute(OpenAiUrl.UPLOAD_FILE, createUploadFileBody(fileResource, purpose), UploadFileResponse.class);
+        invalidate(OpenAiUrl.LIST_FILES);
+        return response;
     }
 
     @Override
     public DeleteFileResponse deleteFile(String fileId) {
-        return execute(OpenAiUrl.DELETE_FILE, null, DeleteFileResponse.class, fileId);
+        DeleteFileResponse response = execute(OpenAiUrl.DELETE_FILE, null, DeleteFileResponse.class, fileId);
+        invalidate(OpenAiUrl.LIST_FILES, OpenAiUrl.RETRIEVE_FILE);
+        return response;
     }
 
     @Override
@@ -149,7 +212,10 @@ public class DefaultChatClient implements ChatClient {
 
     @Override
     public CreateFineTuneResponse createFineTune(CreateFineTuneRequest request) {
-        return execute(OpenAiUrl.CREATE_FINE_TUNE, createRequestBody(request), CreateFineTuneResponse.class);
+        CreateFineTuneResponse response =
+                execute(OpenAiUrl.CREATE_FINE_TUNE, createRequestBody(request), CreateFineTuneResponse.class);
+        invalidate(OpenAiUrl.LIST_FINE_TUNE);
+        return response;
     }
 
     @Override
@@ -164,7 +230,10 @@ public class DefaultChatClient implements ChatClient {
 
     @Override
     public CancelFineTuneResponse cancelFineTune(String fineTuneId) {
-        return execute(OpenAiUrl.CANCEL_FINE_TUNE, RequestBody.create("", null), CancelFineTuneResponse.class, fineTuneId);
+        CancelFineTuneResponse response = execute(
+                OpenAiUrl.CANCEL_FINE_TUNE, RequestBody.create("", null), CancelFineTuneResponse.class, fineTuneId);
+        invalidate(OpenAiUrl.LIST_FINE_TUNE);
+        return response;
     }
 
     @Override
@@ -174,7 +243,10 @@ public class DefaultChatClient implements ChatClient {
 
     @Override
     public DeleteFineTuneModelResponse deleteFineTuneModel(String model) {
-        return execute(OpenAiUrl.DELETE_FINE_TUNE_EVENTS, null, DeleteFineTuneModelResponse.class, model);
+        DeleteFineTuneModelResponse response =
+                execute(OpenAiUrl.DELETE_FINE_TUNE_EVENTS, null, DeleteFineTuneModelResponse.class, model);
+        invalidate(OpenAiUrl.LIST_MODELS, OpenAiUrl.RETRIEVE_MODEL);
+        return response;
     }
 
     @Override
@@ -195,39 +267,15 @@ public class DefaultChatClient implements ChatClient {
     }
 
     @Override
-    @SneakyThrows
     public CreateImageResponse createImageEdit(Resource image, Resource mask, CreateImageRequest request) {
-        boolean imageIsPng = FileNameUtil.isType(image.getFilename(), ChatConstant.EXPECTED_IMAGE_TYPE);
-        boolean maskIsPng = FileNameUtil.isType(mask.getFilename(), ChatConstant.EXPECTED_IMAGE_TYPE);
-        Assert.isTrue(imageIsPng, "The image must png type.");
-        Assert.isTrue(maskIsPng, "The mask must png type.");
-
-        Assert.isTrue(image.contentLength() < ChatConstant.MAX_IMAGE_SIZE, "The image must less than 4MB.");
-        Assert.isTrue(mask.contentLength() < ChatConstant.MAX_IMAGE_SIZE, "The mask must less than 4MB.");
-
-        MultipartBody.Builder builder = new MultipartBody.Builder();
-        builder.setType(MultipartBody.FORM);
-        builder.addFormDataPart("image", image.getFilename(), createResourceBody(image));
-        builder.addFormDataPart("mask", mask.getFilename(), createResourceBody(mask));
-
-        PropertyMapper mapper = buildImageForm(request, builder);
-        mapper.from(request.getPrompt()).to(prompt -> builder.addFormDataPart("prompt", prompt));
-        return execute(OpenAiUrl.CREATE_IMAGE_EDIT, builder.build(), CreateImageResponse.class);
+        MultipartBody multipartBody = createImageEditBody(image, mask, request);
+        return execute(OpenAiUrl.CREATE_IMAGE_EDIT, multipartBody, CreateImageResponse.class);
     }
 
     @Override
-    @SneakyThrows
     public CreateImageResponse createImageVariation(Resource image, CreateImageVariationRequest request) {
-        boolean imageIsPng = FileNameUtil.isType(image.getFilename(), ChatConstant.EXPECTED_IMAGE_TYPE);
-        Assert.isTrue(imageIsPng, "The image must png type.");
-        Assert.isTrue(image.contentLength() < ChatConstant.MAX_IMAGE_SIZE, "The image must less than 4MB.");
-
-        MultipartBody.Builder builder = new MultipartBody.Builder();
-        builder.setType(MultipartBody.FORM);
-        builder.addFormDataPart("image", image.getFilename(), createResourceBody(image));
-
-        buildImageForm(request, builder);
-        return execute(OpenAiUrl.CREATE_IMAGE_VARIATION, builder.build(), CreateImageResponse.class);
+        MultipartBody multipartBody = createImageVariationBody(image, request);
+        return execute(OpenAiUrl.CREATE_IMAGE_VARIATION, multipartBody, CreateImageResponse.class);
     }
 
     @Override
@@ -250,76 +298,47 @@ public class DefaultChatClient implements ChatClient {
         return execute(OpenAiUrl.BILLING_USAGE, null, UsageResponse.class, startDate, endDate);
     }
 
-    @SneakyThrows
     private <S> S execute(OpenAiUrl openAiUrl, RequestBody requestBody, Class<S> responseType, Object... uriVariables) {
-        Request clientRequest = createRequest(openAiUrl, requestBody, uriVariables);
-        @Cleanup Response response = okHttpClient.newCall(clientRequest).execute();
-
-        ResponseBody responseBody = response.body();
-        Assert.notNull(responseBody, "Resolve response responseBody failed.");
-        String responseBodyStr = responseBody.string();
-
-        int code = response.code();
-        Assert.isTrue(code >= 200 && code < 300, () -> {
-            log.error("Response code: {}", code);
-            log.error("Request message: {}", clientRequest);
-            throw new OpenAiException(responseBodyStr);
-        });
-
-        return JsonUtils.parse(responseBodyStr, responseType);
-    }
-
-    private Request createRequest(OpenAiUrl openAiUrl, RequestBody requestBody, Object... uriVariables) {
-        WeightRandom<String> weightRandom = openAiKeyWrapper.wrap();
-        String apiKey = weightRandom.next();
-        if (!StringUtils.hasText(apiKey)) {
-            List<String> invalidedKeys = openAiKeyWrapper.getInvalidKeys();
-            SpringUtil.publishEvent(new NoAvailableKeyEvent(this, invalidedKeys));
-            throw new OpenAiException("No available api key.");
-        }
-
-        Map<OpenAiUrl, String> configUrls = openAiProperties.getUrls();
-        String requestUrl = configUrls.get(openAiUrl);
-        if (!StringUtils.hasText(requestUrl)) {
-            requestUrl = openAiProperties.getDomain() + openAiUrl.getSuffix();
+        if (isCacheable(openAiUrl)) {
+            return endpointCache.get(
+                    openAiUrl,
+                    uriVariables,
+                    responseType,
+                    () -> execute(openAiUrl, requestBody, () -> 0, responseType, uriVariables));
         }
-        URI requestURI = uriTemplateHandler.expand(requestUrl, uriVariables);
-        return new Request.Builder()
-                .url(Objects.requireNonNull(HttpUrl.get(requestURI)))
-                .headers(Headers.of(Header.AUTHORIZATION.name(), ChatConstant.BEARER.concat(apiKey), Header.CONTENT_TYPE.getValue(), ChatConstant.APPLICATION_JSON.toString()))
-                .method(openAiUrl.getMethod(), requestBody)
-                .build();
+        return execute(openAiUrl, requestBody, () -> 0, responseType, uriVariables);
     }
 
-    private RequestBody createRequestBody(Object request) {
-        return RequestBody.create(JsonUtils.toJsonString(request), ChatConstant.APPLICATION_JSON);
+    @SneakyThrows
+    private <S> S execute(
+            OpenAiUrl openAiUrl,
+            RequestBody requestBody,
+            LongSupplier tokens,
+            Class<S> responseType,
+            Object... uriVariables) {
+        String apiKey = nextApiKey(tokens);
+        Request clientRequest = createRequest(apiKey, openAiUrl, requestBody, uriVariables);
+        OpenAiKeyStats keyStats = openAiKeyWrapper.stats(apiKey);
+        long startNanos = keyStats.acquire();
+        int status = 0;
+        try {
+            @Cleanup Response response = okHttpClient.newCall(clientRequest).execute();
+            status = response.code();
+            return readResponse(clientRequest, response, responseType);
+        } finally {
+            keyStats.record(startNanos, status);
+            keyStats.release();
+        }
     }
 
-    @SneakyThrows
-    private RequestBody createResourceBody(Resource resource) {
-        return RequestBody.create(IoUtil.readBytes(resource.getInputStream()), ChatConstant.IMAGE_PNG);
-    }
-
-    private MultipartBody createAudioBody(Resource fileResource, CreateAudioRequest request) {
-        MultipartBody.Builder builder = new MultipartBody.Builder();
-        builder.setType(MultipartBody.FORM);
-        builder.addFormDataPart("file", fileResource.getFilename(), createResourceBody(fileResource));
-
-        PropertyMapper mapper = PropertyMapper.get().alwaysApplyingWhenNonNull();
-        mapper.from(request.getModel()).to(model -> builder.addFormDataPart("model", model));
-        mapper.from(request.getPrompt()).to(prompt -> builder.addFormDataPart("prompt", prompt));
-        mapper.from(request.getResponseFormat()).to(format -> builder.addFormDataPart("response_format", format));
-        mapper.from(request.getTemperature()).to(obj -> builder.addFormDataPart("temperature", obj.toString()));
-        mapper.from(request.getLanguage()).to(language -> builder.addFormDataPart("language", language));
-        return builder.build();
-    }
-
-    private PropertyMapper buildImageForm(CreateImageVariationRequest request, MultipartBody.Builder builder) {
-        PropertyMapper mapper = PropertyMapper.get().alwaysApplyingWhenNonNull();
-        mapper.from(request.getN()).to(n -> builder.addFormDataPart("n", n.toString()));
-        mapper.from(request.getSize()).to(size -> builder.addFormDataPart("size", size.getValue()));
-        mapper.from(request.getResponseFormat()).to(obj -> builder.addFormDataPart("response_format", obj.getValue()));
-        mapper.from(request.getUser()).to(user -> builder.addFormDataPart("user", user));
-        return mapper;
+    private EventSource stream(
+            OpenAiUrl openAiUrl, RequestBody requestBody, LongSupplier tokens, EventSourceListener listener) {
+        String apiKey = nextApiKey(tokens);
+        Request clientRequest = createRequest(apiKey, openAiUrl, requestBody);
+        EventSourceListener statsListener =
+                new KeyStatsEventSourceListener(openAiKeyWrapper.stats(apiKey), listener);
+        RealEventSource realEventSource = new RealEventSource(clientRequest, statsListener);
+        realEventSource.connect(okHttpClient);
+        return realEventSource;
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.apikey.OpenAiKeyStats;
+import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import com.xu.chatgpt.constant.ChatConstant;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.exception.OpenAiErrorInterceptor;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import com.xu.chatgpt.properties.OpenAiUrl;
+import com.xu.chatgpt.utils.JsonUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriTemplateHandler;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuples;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * {@link ReactiveChatClient} on a {@link WebClient}, sharing the api keys, key stats and context window truncation of
+ * {@link DefaultChatClient}.
+ *
+ * <p>Error responses quarantine their key by the rules of {@link OpenAiErrorInterceptor} and fail with
+ * {@link OpenAiException}.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class DefaultReactiveChatClient implements ReactiveChatClient {
+
+    private static final String DONE = "[DONE]";
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> EVENT_TYPE =
+            new ParameterizedTypeReference<ServerSentEvent<String>>() {};
+
+    private final WebClient webClient;
+    private final OpenAiProperties openAiProperties;
+    private final OpenAiKeyWrapper openAiKeyWrapper;
+    private final UriTemplateHandler uriTemplateHandler;
+    private final OpenAiErrorInterceptor openAiErrorInterceptor;
+
+    @Override
+    public Mono<ChatCompletionResponse> chatCompletions(ChatCompletionRequest request) {
+        return exchange(
+                        OpenAiUrl.CHAT_COMPLETIONS,
+                        request,
+                        response -> response.bodyToMono(String.class)
+                                .map(body -> JsonUtils.parse(body, ChatCompletionResponse.class))
+                                .flux())
+                .next();
+    }
+
+    @Override
+    public Flux<ChatCompletionResponse> streamChatCompletions(ChatCompletionRequest request) {
+        return streamChatCompletionEvents(request).map(data -> JsonUtils.parse(data, ChatCompletionResponse.class));
+    }
+
+    @Override
+    public Flux<String> streamChatCompletionEvents(ChatCompletionRequest request) {
+        request.setStream(true);
+        return exchange(
+                OpenAiUrl.CHAT_COMPLETIONS,
+                request,
+                response -> response.bodyToFlux(EVENT_TYPE)
+                        .map(event -> event.data() == null ? "" : event.data())
+                        .filter(StringUtils::hasText)
+                        .takeWhile(data -> !DONE.equals(data)));
+    }
+
+    /**
+     * Truncate the request, pick the next api key and serialize the request on {@link Schedulers#boundedElastic()},
+     * as counting tokens takes a while and waiting for the rate limit blocks, then send it on the event loop.
+     */
+    private <T> Flux<T> exchange(
+            OpenAiUrl openAiUrl, ChatCompletionRequest request, Function<ClientResponse, Flux<T>> reader) {
+        return Mono.fromCallable(() -> {
+                    AbstractChatClient.truncate(request, openAiProperties);
+                    long tokens = AbstractChatClient.tokens(request);
+                    String apiKey = AbstractChatClient.nextApiKey(this, openAiKeyWrapper, () -> tokens);
+                    return Tuples.of(apiKey, JsonUtils.toJsonString(request));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(prepared -> send(openAiUrl, prepared.getT1(), prepared.getT2(), reader));
+    }
+
+    /**
+     * Send a request with {@code apiKey}, reading the successful response with {@code reader}. The key is in flight
+     * until the returned {@link Flux} terminates or is cancelled.
+     */
+    private <T> Flux<T> send(
+            OpenAiUrl openAiUrl, String apiKey, String body, Function<ClientResponse, Flux<T>> reader) {
+        OpenAiKeyStats keyStats = openAiKeyWrapper.stats(apiKey);
+        long startNanos = keyStats.acquire();
+        AtomicBoolean recorded = new AtomicBoolean();
+        return webClient
+                .method(HttpMethod.valueOf(openAiUrl.getMethod()))
+                .uri(AbstractChatClient.requestUri(openAiProperties, uriTemplateHandler, openAiUrl))
+                .header(HttpHeaders.AUTHORIZATION, ChatConstant.BEARER.concat(apiKey))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .exchangeToFlux(response -> {
+                    int code = response.rawStatusCode();
+                    if (recorded.compareAndSet(false, true)) {
+                        keyStats.record(startNanos, code);
+                    }
+                    if (code < 200 || code >= 300) {
+                        return response.bodyToMono(String.class).defaultIfEmpty("").flatMapMany(error -> {
+                            log.error("Response code: {}", code);
+                            openAiErrorInterceptor.rotateKey(apiKey, code, error);
+                            return Flux.error(new OpenAiException(error));
+                        });
+                    }
+                    return reader.apply(response);
+                })
+                .doOnError(e -> {
+                    if (recorded.compareAndSet(false, true)) {
+                        keyStats.record(startNanos, 0);
+                    }
+                })
+                .doFinally(signal -> keyStats.release());
+    }
+
+}
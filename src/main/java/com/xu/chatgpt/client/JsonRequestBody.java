@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.constant.ChatConstant;
+import com.xu.chatgpt.utils.JsonUtils;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * A json {@link RequestBody} which serializes the value straight into the {@link BufferedSink},
+ * without an intermediate json string.
+ *
+ * <p>A {@link #streaming} body serializes the value again on every write, so the value must not be modified until
+ * the call completes. A {@link #buffered} body serializes it once, when it is created.
+ */
+public final class JsonRequestBody extends RequestBody {
+
+    private final Object value;
+    private final Buffer buffer;
+
+    private JsonRequestBody(Object value, Buffer buffer) {
+        this.value = value;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Create a body which is serialized while sending, with chunked transfer encoding.
+     *
+     * @param value the value to serialize
+     * @return {@link JsonRequestBody}
+     */
+    public static JsonRequestBody streaming(Object value) {
+        return new JsonRequestBody(value, null);
+    }
+
+    /**
+     * Create a body which is serialized once into okio segments, so it has a content length
+     * and is replayed without serializing again on retries.
+     *
+     * @param value the value to serialize
+     * @return {@link JsonRequestBody}
+     */
+    public static JsonRequestBody buffered(Object value) {
+        Buffer buffer = new Buffer();
+        JsonUtils.write(buffer.outputStream(), value);
+        return new JsonRequestBody(value, buffer);
+    }
+
+    @Override
+    public MediaType contentType() {
+        return ChatConstant.APPLICATION_JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return buffer == null ? -1 : buffer.size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        if (buffer == null) {
+            JsonUtils.write(sink.outputStream(), value);
+        } else {
+            sink.write(buffer.clone(), buffer.size());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.apikey.OpenAiKeyStats;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.Response;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+
+/**
+ * Feed the stream lifecycle back to {@link OpenAiKeyStats}, then delegate to the user listener.
+ *
+ * <p>The latency of a stream is the time to open it, and it stays in flight until closed or failed.
+ */
+class KeyStatsEventSourceListener extends EventSourceListener {
+
+    private final OpenAiKeyStats keyStats;
+    private final EventSourceListener delegate;
+    private final long startNanos;
+    private final AtomicBoolean opened = new AtomicBoolean();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    KeyStatsEventSourceListener(OpenAiKeyStats keyStats, EventSourceListener delegate) {
+        this.keyStats = keyStats;
+        this.delegate = delegate;
+        this.startNanos = keyStats.acquire();
+    }
+
+    @Override
+    public void onOpen(EventSource eventSource, Response response) {
+        if (opened.compareAndSet(false, true)) {
+            keyStats.record(startNanos, response.code());
+        }
+        delegate.onOpen(eventSource, response);
+    }
+
+    @Override
+    public void onEvent(EventSource eventSource, String id, String type, String data) {
+        delegate.onEvent(eventSource, id, type, data);
+    }
+
+    @Override
+    public void onClosed(EventSource eventSource) {
+        release();
+        delegate.onClosed(eventSource);
+    }
+
+    @Override
+    public void onFailure(EventSource eventSource, Throwable t, Response response) {
+        if (opened.compareAndSet(false, true)) {
+            keyStats.record(startNanos, response == null ? 0 : response.code());
+        }
+        release();
+        delegate.onFailure(eventSource, t, response);
+    }
+
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            keyStats.release();
+        }
+    }
+}
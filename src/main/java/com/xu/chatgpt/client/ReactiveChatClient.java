@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking chat completions on Reactor Netty.
+ *
+ * <p>Streams are read as the subscriber requests events, so a slow subscriber stops reading from upstream instead of
+ * buffering, and cancelling the subscription closes the upstream connection.
+ */
+public interface ReactiveChatClient {
+
+    /**
+     * Create chat completion.
+     *
+     * @param request the request
+     * @return {@link Mono} of {@link ChatCompletionResponse}
+     */
+    Mono<ChatCompletionResponse> chatCompletions(ChatCompletionRequest request);
+
+    /**
+     * Create stream chat completion.
+     *
+     * @param request the request
+     * @return {@link Flux} of the chunks, completed after {@code [DONE]}
+     */
+    Flux<ChatCompletionResponse> streamChatCompletions(ChatCompletionRequest request);
+
+    /**
+     * Create stream chat completion, without decoding the events.
+     *
+     * @param request the request
+     * @return {@link Flux} of the raw data of each event, completed after {@code [DONE]}, which is not included
+     */
+    Flux<String> streamChatCompletionEvents(ChatCompletionRequest request);
+}
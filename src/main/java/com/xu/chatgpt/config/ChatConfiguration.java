@@ -3,26 +3,42 @@ package com.xu.chatgpt.config;
 import cn.hutool.core.util.StrUtil;
 import com.xu.chatgpt.apikey.OpenAiKeyProvider;
 import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import com.xu.chatgpt.cache.EndpointCache;
+import com.xu.chatgpt.cache.ResponseCache;
+import com.xu.chatgpt.cache.SemanticCache;
+import com.xu.chatgpt.client.AsyncChatClient;
+import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.client.DefaultAsyncChatClient;
 import com.xu.chatgpt.client.DefaultChatClient;
+import com.xu.chatgpt.embedding.EmbeddingBatcher;
+import com.xu.chatgpt.embedding.EmbeddingCache;
 import com.xu.chatgpt.exception.OpenAiErrorInterceptor;
 import com.xu.chatgpt.properties.OpenAiProperties;
+import com.xu.chatgpt.utils.VirtualThreadUtils;
 import lombok.RequiredArgsConstructor;
 import okhttp3.Credentials;
+import okhttp3.Dispatcher;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.context.properties.PropertyMapper;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 import org.springframework.web.util.UriTemplateHandler;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 @Configuration
 @RequiredArgsConstructor
@@ -37,6 +53,12 @@ public class ChatConfiguration {
         OkHttpClient.Builder builder = new OkHttpClient.Builder();
         PropertyMapper mapper = PropertyMapper.get().alwaysApplyingWhenNonNull();
         mapper.from(interceptors).to(x -> builder.interceptors().addAll(x));
+        Dispatcher dispatcher = VirtualThreadUtils.isEnabled(openAiProperties.isVirtualThreads())
+                ? new Dispatcher(VirtualThreadUtils.newVirtualThreadPerTaskExecutor("okhttp-"))
+                : new Dispatcher();
+        mapper.from(openAiProperties::getMaxRequests).to(dispatcher::setMaxRequests);
+        mapper.from(openAiProperties::getMaxRequestsPerHost).to(dispatcher::setMaxRequestsPerHost);
+        builder.dispatcher(dispatcher);
         mapper.from(openAiProperties::getReadTimeout).to(builder::readTimeout);
         mapper.from(openAiProperties::getWriteTimeout).to(builder::writeTimeout);
         mapper.from(openAiProperties::getConnectTimeout).to(builder::connectTimeout);
@@ -61,20 +83,87 @@ public class ChatConfiguration {
     public DefaultChatClient chatClient(
             OkHttpClient okHttpClient,
             OpenAiKeyWrapper openAiKeyWrapper,
-            ObjectProvider<UriTemplateHandler> uriTemplateHandlerObjectProvider) {
+            ObjectProvider<UriTemplateHandler> uriTemplateHandlerObjectProvider,
+            ObjectProvider<ResponseCache> responseCacheObjectProvider,
+            ObjectProvider<EndpointCache> endpointCacheObjectProvider) {
+        UriTemplateHandler uriTplHandler = uriTemplateHandler(uriTemplateHandlerObjectProvider);
+        return new DefaultChatClient(
+                okHttpClient,
+                openAiProperties,
+                openAiKeyWrapper,
+                uriTplHandler,
+                responseCacheObjectProvider.getIfAvailable(),
+                endpointCacheObjectProvider.getIfAvailable());
+    }
 
-        UriTemplateHandler uriTplHandler = uriTemplateHandlerObjectProvider.getIfAvailable(() -> {
-            DefaultUriBuilderFactory uriBuilderFactory = new DefaultUriBuilderFactory();
-            uriBuilderFactory.setEncodingMode(DefaultUriBuilderFactory.EncodingMode.URI_COMPONENT);
-            return uriBuilderFactory;
-        });
-        return new DefaultChatClient(okHttpClient, openAiProperties, openAiKeyWrapper, uriTplHandler);
+    @Bean
+    @ConditionalOnMissingBean
+    public DefaultAsyncChatClient asyncChatClient(
+            OkHttpClient okHttpClient,
+            OpenAiKeyWrapper openAiKeyWrapper,
+            ObjectProvider<UriTemplateHandler> uriTemplateHandlerObjectProvider,
+            ObjectProvider<ResponseCache> responseCacheObjectProvider,
+            ObjectProvider<EndpointCache> endpointCacheObjectProvider) {
+        UriTemplateHandler uriTplHandler = uriTemplateHandler(uriTemplateHandlerObjectProvider);
+        ExecutorService executor = VirtualThreadUtils.isEnabled(openAiProperties.isVirtualThreads())
+                ? VirtualThreadUtils.newVirtualThreadPerTaskExecutor("chat-async-")
+                : Executors.newFixedThreadPool(
+                        openAiProperties.getAsyncThreads(), new CustomizableThreadFactory("chat-async-"));
+        return new DefaultAsyncChatClient(
+                okHttpClient,
+                openAiProperties,
+                openAiKeyWrapper,
+                uriTplHandler,
+                executor,
+                responseCacheObjectProvider.getIfAvailable(),
+                endpointCacheObjectProvider.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "gpt.response-cache", name = "enabled", havingValue = "true")
+    public ResponseCache responseCache() {
+        return new ResponseCache(openAiProperties.getResponseCache());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "gpt.endpoint-cache", name = "enabled", havingValue = "true")
+    public EndpointCache endpointCache() {
+        return new EndpointCache(openAiProperties.getEndpointCache());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "gpt.embedding-batch", name = "enabled", havingValue = "true")
+    public EmbeddingBatcher embeddingBatcher(AsyncChatClient asyncChatClient) {
+        ScheduledThreadPoolExecutor scheduler =
+                new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("embedding-batch-"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        ExecutorService executor = VirtualThreadUtils.isEnabled(openAiProperties.isVirtualThreads())
+                ? VirtualThreadUtils.newVirtualThreadPerTaskExecutor("embedding-send-")
+                : Executors.newCachedThreadPool(new CustomizableThreadFactory("embedding-send-"));
+        return new EmbeddingBatcher(asyncChatClient, openAiProperties.getEmbeddingBatch(), scheduler, executor);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "gpt.embedding-cache", name = "enabled", havingValue = "true")
+    public EmbeddingCache embeddingCache(ChatClient chatClient) {
+        return new EmbeddingCache(chatClient, Paths.get(openAiProperties.getEmbeddingCache().getDirectory()));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "gpt.semantic-cache", name = "enabled", havingValue = "true")
+    public SemanticCache semanticCache(ChatClient chatClient) {
+        return new SemanticCache(chatClient, openAiProperties.getSemanticCache());
     }
 
     @Bean
     @ConditionalOnMissingBean
     public OpenAiKeyWrapper openAiKeyWrapper(OpenAiKeyProvider openAiKeyProvider) {
-        return new OpenAiKeyWrapper(openAiKeyProvider);
+        return new OpenAiKeyWrapper(openAiKeyProvider, openAiProperties);
     }
 
     @Bean
@@ -87,4 +176,12 @@ public class ChatConfiguration {
     public OpenAiErrorInterceptor openAiErrorInterceptor(OpenAiKeyWrapper openAiKeyWrapper) {
         return new OpenAiErrorInterceptor(openAiKeyWrapper);
     }
+
+    static UriTemplateHandler uriTemplateHandler(ObjectProvider<UriTemplateHandler> uriTemplateHandlerObjectProvider) {
+        return uriTemplateHandlerObjectProvider.getIfAvailable(() -> {
+            DefaultUriBuilderFactory uriBuilderFactory = new DefaultUriBuilderFactory();
+            uriBuilderFactory.setEncodingMode(DefaultUriBuilderFactory.EncodingMode.URI_COMPONENT);
+            return uriBuilderFactory;
+        });
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.config;
+
+import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import com.xu.chatgpt.client.DefaultReactiveChatClient;
+import com.xu.chatgpt.exception.OpenAiErrorInterceptor;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import io.netty.channel.ChannelOption;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.web.reactive.server.ReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriTemplateHandler;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.transport.ProxyProvider;
+
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * The {@link DefaultReactiveChatClient} on Reactor Netty, with the timeouts, proxy and request limit of the OkHttp
+ * client, and the Reactor Netty server of the reactive web application.
+ */
+@Configuration
+@RequiredArgsConstructor
+@ConditionalOnClass({WebClient.class, HttpClient.class})
+public class ReactiveConfiguration {
+
+    private final OpenAiProperties openAiProperties;
+
+    @Bean
+    @ConditionalOnMissingBean
+    public DefaultReactiveChatClient reactiveChatClient(
+            OpenAiKeyWrapper openAiKeyWrapper,
+            OpenAiErrorInterceptor openAiErrorInterceptor,
+            ObjectProvider<WebClient.Builder> webClientBuilderObjectProvider,
+            ObjectProvider<UriTemplateHandler> uriTemplateHandlerObjectProvider) {
+        WebClient webClient = webClientBuilderObjectProvider
+                .getIfAvailable(WebClient::builder)
+                .clientConnector(new ReactorClientHttpConnector(httpClient()))
+                .build();
+        return new DefaultReactiveChatClient(
+                webClient,
+                openAiProperties,
+                openAiKeyWrapper,
+                ChatConfiguration.uriTemplateHandler(uriTemplateHandlerObjectProvider),
+                openAiErrorInterceptor);
+    }
+
+    /**
+     * Tomcat is on the classpath for the servlet application, and Spring Boot would prefer it over Reactor Netty.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    @ConditionalOnMissingBean(ReactiveWebServerFactory.class)
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * The read timeout applies between the reads of a response, so a stream only times out while upstream is silent.
+     */
+    private HttpClient httpClient() {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("gpt")
+                .maxConnections(Optional.ofNullable(openAiProperties.getMaxRequests())
+                        .orElse(ConnectionProvider.DEFAULT_POOL_MAX_CONNECTIONS))
+                .pendingAcquireMaxCount(-1)
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider);
+        Duration connectTimeout = openAiProperties.getConnectTimeout();
+        if (connectTimeout != null) {
+            httpClient = httpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis());
+        }
+        Duration readTimeout = openAiProperties.getReadTimeout();
+        if (readTimeout != null) {
+            httpClient = httpClient.responseTimeout(readTimeout);
+        }
+        if (openAiProperties.getProxy() != null) {
+            httpClient = httpClient.proxy(spec -> {
+                ProxyProvider.Builder builder = spec
+                        .type(openAiProperties.getProxy().getType() == Proxy.Type.SOCKS
+                                ? ProxyProvider.Proxy.SOCKS5
+                                : ProxyProvider.Proxy.HTTP)
+                        .host(openAiProperties.getProxy().getHost())
+                        .port(openAiProperties.getProxy().getPort());
+                String username = openAiProperties.getProxy().getUsername();
+                String password = openAiProperties.getProxy().getPassword();
+                if (StringUtils.hasText(username) && StringUtils.hasText(password)) {
+                    builder.username(username).password(name -> password);
+                }
+            });
+        }
+        return httpClient;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.config;
+
+import com.xu.chatgpt.utils.VirtualThreadUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Run Tomcat request handling on virtual threads when {@code gpt.virtual-threads} is enabled,
+ * so the blocking {@link com.xu.chatgpt.client.DefaultChatClient} no longer ties up a platform thread per request.
+ *
+ * <p>Before JDK 21, Tomcat keeps its own platform thread pool.
+ */
+@Configuration
+@ConditionalOnClass(name = "org.apache.catalina.startup.Tomcat")
+@ConditionalOnProperty(prefix = "gpt", name = "virtual-threads", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        if (!VirtualThreadUtils.isEnabled(true)) {
+            return protocolHandler -> {};
+        }
+        return protocolHandler ->
+                protocolHandler.setExecutor(VirtualThreadUtils.newVirtualThreadPerTaskExecutor("tomcat-handler-"));
+    }
+}
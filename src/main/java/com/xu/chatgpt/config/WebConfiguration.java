@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.config;
+
+import com.xu.chatgpt.properties.OpenAiProperties;
+import com.xu.chatgpt.sse.SseWriterFactory;
+import com.xu.chatgpt.utils.VirtualThreadUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@RequiredArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class WebConfiguration implements WebMvcConfigurer {
+
+    private final OpenAiProperties openAiProperties;
+
+    /**
+     * The async requests wait on the upstream api, so they time out with it rather than with the container default.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        Duration timeout = Optional.ofNullable(openAiProperties.getAsyncTimeout())
+                .orElseGet(() -> openAiProperties.getConnectTimeout().plus(openAiProperties.getReadTimeout()));
+        configurer.setDefaultTimeout(timeout.toMillis());
+        if (openAiProperties.getStream().isRelay()) {
+            configurer.setTaskExecutor(relayTaskExecutor());
+        }
+    }
+
+    /**
+     * Relayed streams block a thread each until the stream ends, rather than queueing behind the few threads of the
+     * default {@code applicationTaskExecutor}.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "gpt.stream", name = "relay", havingValue = "true")
+    public AsyncTaskExecutor relayTaskExecutor() {
+        if (VirtualThreadUtils.isEnabled(openAiProperties.isVirtualThreads())) {
+            return new TaskExecutorAdapter(VirtualThreadUtils.newVirtualThreadPerTaskExecutor("sse-relay-"));
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(openAiProperties.getStream().getRelayThreads());
+        executor.setMaxPoolSize(openAiProperties.getStream().getRelayThreads());
+        executor.setQueueCapacity(0);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("sse-relay-");
+        return executor;
+    }
+
+    /**
+     * The flushes which do not run on the upstream reader thread block on slow clients, so they get a thread each like
+     * the readers, rather than a few shared ones. Without virtual threads the flush threads are bounded, and a
+     * rejected flush runs on the upstream reader thread instead.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "gpt.stream", name = "relay", havingValue = "false", matchIfMissing = true)
+    public SseWriterFactory sseWriterFactory() {
+        if (VirtualThreadUtils.isEnabled(openAiProperties.isVirtualThreads())) {
+            return new SseWriterFactory(
+                    openAiProperties.getStream(), VirtualThreadUtils.newVirtualThreadPerTaskExecutor("sse-flush-"));
+        }
+        int flushThreads = openAiProperties.getStream().getFlushThreads();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                flushThreads,
+                flushThreads,
+                60,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new CustomizableThreadFactory("sse-flush-"));
+        executor.allowCoreThreadTimeOut(true);
+        return new SseWriterFactory(openAiProperties.getStream(), executor);
+    }
+}
@@ -1,34 +1,41 @@
 package com.xu.chatgpt.controller;
 
-import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.client.AsyncChatClient;
 import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
 import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
-import com.xu.chatgpt.sse.SseEventSourceListener;
 import lombok.AllArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by CharleyXu on 2024/1/23
  */
 @RestController
 @AllArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ChatController {
 
-    private final ChatClient chatClient;
+    private final AsyncChatClient asyncChatClient;
 
     @PostMapping(value = "/v0/chat/completions")
-    public ChatCompletionResponse chatCompletions(@RequestBody ChatCompletionRequest request) {
-        return chatClient.chatCompletions(request);
-    }
-
-    @PostMapping("/v1/chat/completions")
-    public SseEmitter sseChatCompletions(@RequestBody ChatCompletionRequest request) {
-        SseEmitter sseEmitter = new SseEmitter();
-        chatClient.streamChatCompletions(request, new SseEventSourceListener(sseEmitter));
-        return sseEmitter;
+    public DeferredResult<ChatCompletionResponse> chatCompletions(@RequestBody ChatCompletionRequest request) {
+        DeferredResult<ChatCompletionResponse> deferredResult = new DeferredResult<>();
+        CompletableFuture<ChatCompletionResponse> future = asyncChatClient.chatCompletions(request);
+        deferredResult.onTimeout(() -> future.cancel(true));
+        future.whenComplete((response, e) -> {
+            if (e == null) {
+                deferredResult.setResult(response);
+            } else {
+                deferredResult.setErrorResult(e instanceof CompletionException ? e.getCause() : e);
+            }
+        });
+        return deferredResult;
     }
 
 }
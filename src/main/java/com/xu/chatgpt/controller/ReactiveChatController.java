@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.controller;
+
+import com.xu.chatgpt.client.ReactiveChatClient;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.AllArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Serves chat completions on WebFlux when {@code spring.main.web-application-type} is {@code reactive}, without a
+ * thread per request. Events are written as the client reads them, and upstream is cancelled when the client
+ * disconnects or {@code gpt.stream.timeout} elapses; a timed-out stream still ends with {@code [DONE]}.
+ */
+@RestController
+@AllArgsConstructor
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveChatController {
+
+    private static final ServerSentEvent<String> DONE = ServerSentEvent.builder("[DONE]").build();
+    private static final Counter DISCONNECTED = Metrics.counter("gpt.stream.aborted", "reason", "disconnect");
+    private static final Counter TIMED_OUT = Metrics.counter("gpt.stream.aborted", "reason", "timeout");
+
+    private final ReactiveChatClient reactiveChatClient;
+    private final OpenAiProperties openAiProperties;
+
+    @PostMapping(value = "/v0/chat/completions")
+    public Mono<ChatCompletionResponse> chatCompletions(@RequestBody ChatCompletionRequest request) {
+        return reactiveChatClient.chatCompletions(request);
+    }
+
+    @PostMapping(value = "/v1/chat/completions", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamChatCompletions(@RequestBody ChatCompletionRequest request) {
+        Flux<ServerSentEvent<String>> events = reactiveChatClient
+                .streamChatCompletionEvents(request)
+                .map(data -> ServerSentEvent.builder(data).build());
+        Duration timeout = openAiProperties.getStream().getTimeout();
+        if (timeout != null) {
+            events = events.takeUntilOther(Mono.delay(timeout).doOnNext(tick -> TIMED_OUT.increment()));
+        }
+        return events.concatWithValues(DONE).doOnCancel(DISCONNECTED::increment);
+    }
+}
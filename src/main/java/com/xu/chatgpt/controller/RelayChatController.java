@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.controller;
+
+import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import lombok.AllArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Streams chat completions by copying the raw upstream events to the response, when {@code gpt.stream.relay} is
+ * enabled. No event is decoded, so no {@link com.xu.chatgpt.sse.StreamUsageEvent} is published.
+ */
+@RestController
+@AllArgsConstructor
+@ConditionalOnProperty(prefix = "gpt.stream", name = "relay", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RelayChatController {
+
+    private final ChatClient chatClient;
+
+    @PostMapping("/v1/chat/completions")
+    public ResponseEntity<StreamingResponseBody> relayChatCompletions(@RequestBody ChatCompletionRequest request) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .header("Cache-Control", "no-cache")
+                .body(outputStream -> chatClient.relayChatCompletions(request, outputStream));
+    }
+}
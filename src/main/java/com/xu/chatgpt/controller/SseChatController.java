@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.controller;
+
+import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import com.xu.chatgpt.sse.SseEventSourceListener;
+import com.xu.chatgpt.sse.SseWriterFactory;
+import com.xu.chatgpt.sse.UsageEventSourceListener;
+import lombok.AllArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+
+/**
+ * Streams chat completions event by event through an {@link SseEmitter}, the default unless
+ * {@code gpt.stream.relay} is enabled. Events are coalesced as configured by {@code gpt.stream.flush-interval},
+ * and upstream is cancelled when the client disconnects or {@code gpt.stream.timeout} elapses.
+ */
+@RestController
+@AllArgsConstructor
+@ConditionalOnProperty(prefix = "gpt.stream", name = "relay", havingValue = "false", matchIfMissing = true)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class SseChatController {
+
+    private final ChatClient chatClient;
+    private final SseWriterFactory sseWriterFactory;
+    private final OpenAiProperties openAiProperties;
+
+    @PostMapping("/v1/chat/completions")
+    public SseEmitter sseChatCompletions(@RequestBody ChatCompletionRequest request) {
+        Duration timeout = openAiProperties.getStream().getTimeout();
+        SseEmitter sseEmitter = new SseEmitter(timeout == null ? null : timeout.toMillis());
+        SseEventSourceListener listener = new SseEventSourceListener(sseWriterFactory.create(sseEmitter));
+        UsageEventSourceListener usage = new UsageEventSourceListener(request, listener);
+        listener.cancelOnDisconnect(chatClient.streamChatCompletions(request, usage), usage);
+        return sseEmitter;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.embedding;
+
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.client.AsyncChatClient;
+import com.xu.chatgpt.entity.embeddings.EmbeddingData;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiEmbeddingBatch;
+import com.xu.chatgpt.utils.TokenCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesce concurrent single-input embedding calls into one upstream {@link AsyncChatClient#embeddings} request.
+ *
+ * <p>A batch is sent when its window elapses, or as soon as it reaches {@link OpenAiEmbeddingBatch#getMaxSize()}
+ * inputs or {@link OpenAiEmbeddingBatch#getMaxTokens()} tokens. Each caller gets its own vector back
+ * by {@link EmbeddingData#getIndex()}.
+ */
+@Slf4j
+public class EmbeddingBatcher implements DisposableBean {
+
+    private final AsyncChatClient asyncChatClient;
+    private final OpenAiEmbeddingBatch properties;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /**
+     * Create a batcher.
+     *
+     * @param asyncChatClient the client which sends the batches
+     * @param properties the window and limits of a batch
+     * @param scheduler the scheduler of the batch windows, which should remove cancelled windows
+     * @param executor the executor which sends the batches, as picking an api key may wait for the rate limit
+     */
+    public EmbeddingBatcher(
+            AsyncChatClient asyncChatClient,
+            OpenAiEmbeddingBatch properties,
+            ScheduledExecutorService scheduler,
+            ExecutorService executor) {
+        this.asyncChatClient = asyncChatClient;
+        this.properties = properties;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Get the embedding of a single input, sent together with the other inputs of the same model.
+     *
+     * @param model the embedding model
+     * @param input the input text
+     * @return {@link CompletableFuture} of the embedding vector
+     */
+    public CompletableFuture<float[]> embed(String model, String input) {
+        long tokens = TokenCounter.of(model, ModelType.TEXT_EMBEDDING_ADA_002).count(input);
+        CompletableFuture<float[]> future = new CompletableFuture<>();
+        Batch full = null;
+        Batch overflow = null;
+        lock.lock();
+        try {
+            Batch batch = batches.get(model);
+            if (batch != null && batch.tokens + tokens > properties.getMaxTokens()) {
+                batches.remove(model);
+                batch.window.cancel(false);
+                overflow = batch;
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(model);
+                batches.put(model, batch);
+                Batch scheduled = batch;
+                batch.window = scheduler.schedule(
+                        () -> flush(scheduled), properties.getWindow().toNanos(), TimeUnit.NANOSECONDS);
+            }
+            batch.add(input, tokens, future);
+            if (batch.size() >= properties.getMaxSize() || batch.tokens >= properties.getMaxTokens()) {
+                batches.remove(model);
+                batch.window.cancel(false);
+                full = batch;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (overflow != null) {
+            send(overflow);
+        }
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Get the embedding of a single input, blocking until its batch completes.
+     *
+     * @param model the embedding model
+     * @param input the input text
+     * @return the embedding vector
+     */
+    public float[] embedding(String model, String input) {
+        return embed(model, input).join();
+    }
+
+    private void flush(Batch batch) {
+        lock.lock();
+        try {
+            if (!batches.remove(batch.model, batch)) {
+                // Already sent because it was full.
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        try {
+            executor.execute(() -> doSend(batch));
+        } catch (RejectedExecutionException e) {
+            fail(batch, new OpenAiException(e));
+        }
+    }
+
+    private void doSend(Batch batch) {
+        EmbeddingRequest request = EmbeddingRequest.builder()
+                .model(batch.model)
+                .input(batch.inputs)
+                .build();
+        log.debug("Send {} embedding inputs of model {} in one request.", batch.size(), batch.model);
+        try {
+            asyncChatClient.embeddings(request).whenComplete((response, e) -> {
+                if (e != null) {
+                    fail(batch, e);
+                } else {
+                    complete(batch, response);
+                }
+            });
+        } catch (Throwable e) {
+            fail(batch, e);
+        }
+    }
+
+    private static void fail(Batch batch, Throwable e) {
+        batch.futures.forEach(future -> future.completeExceptionally(e));
+    }
+
+    private static void complete(Batch batch, EmbeddingResponse response) {
+        float[][] embeddings = new float[batch.size()][];
+        if (response.getData() != null) {
+            for (EmbeddingData data : response.getData()) {
+                int index = data.getIndex() == null ? -1 : data.getIndex().intValue();
+                if (index >= 0 && index < embeddings.length) {
+                    embeddings[index] = data.getVector();
+                }
+            }
+        }
+        for (int i = 0; i < embeddings.length; i++) {
+            if (embeddings[i] == null) {
+                batch.futures.get(i).completeExceptionally(new OpenAiException("Missing embedding of input " + i));
+            } else {
+                batch.futures.get(i).complete(embeddings[i]);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdown();
+        executor.shutdown();
+    }
+
+    private static final class Batch {
+
+        private final String model;
+        private final List<String> inputs = new ArrayList<>();
+        private final List<CompletableFuture<float[]>> futures = new ArrayList<>();
+        private long tokens;
+
+        /**
+         * The scheduled flush, cancelled when the batch is sent before its window elapses.
+         */
+        private ScheduledFuture<?> window;
+
+        private Batch(String model) {
+            this.model = model;
+        }
+
+        private void add(String input, long inputTokens, CompletableFuture<float[]> future) {
+            inputs.add(input);
+            futures.add(future);
+            tokens += inputTokens;
+        }
+
+        private int size() {
+            return inputs.size();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.embedding;
+
+import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.entity.embeddings.EmbeddingData;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+import com.xu.chatgpt.exception.OpenAiException;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A persistent, content-addressed cache in front of {@link ChatClient#embeddings}.
+ *
+ * <p>Vectors are keyed by model and the SHA-256 of the input text, and stored in one memory-mapped
+ * {@link EmbeddingStore} file per model under {@code directory}, so they survive restarts.
+ * Only the inputs which miss the cache are sent upstream, in a single request.
+ */
+@Slf4j
+public class EmbeddingCache implements DisposableBean {
+
+    private static final String EMBEDDING = "embedding";
+
+    private final ChatClient chatClient;
+    private final Path directory;
+    private final ConcurrentMap<String, EmbeddingStore> stores = new ConcurrentHashMap<>();
+
+    @SneakyThrows
+    public EmbeddingCache(ChatClient chatClient, Path directory) {
+        this.chatClient = chatClient;
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Get the embeddings of the inputs, from the cache where possible.
+     *
+     * @param request {@link EmbeddingRequest}
+     * @return {@link EmbeddingResponse}, whose usage only covers the inputs sent upstream
+     * @throws OpenAiException if the upstream response misses the embedding of any input
+     */
+    public EmbeddingResponse embeddings(EmbeddingRequest request) {
+        String model = request.getModel();
+        List<String> inputs = request.getInput();
+        float[][] vectors = new float[inputs.size()][];
+        long[][] digests = new long[inputs.size()][];
+        List<String> missInputs = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+
+        EmbeddingStore store = store(model);
+        for (int i = 0; i < inputs.size(); i++) {
+            digests[i] = digest(inputs.get(i));
+            vectors[i] = store == null ? null : store.get(digests[i][0], digests[i][1]);
+            if (vectors[i] == null) {
+                missInputs.add(inputs.get(i));
+                missIndexes.add(i);
+            }
+        }
+
+        EmbeddingResponse upstream = null;
+        if (!missInputs.isEmpty()) {
+            upstream = chatClient.embeddings(EmbeddingRequest.builder()
+                    .model(model)
+                    .input(missInputs)
+                    .user(request.getUser())
+                    .encodingFormat(request.getEncodingFormat())
+                    .build());
+            List<EmbeddingData> upstreamData =
+                    upstream.getData() == null ? Collections.emptyList() : upstream.getData();
+            for (int i = 0; i < upstreamData.size(); i++) {
+                EmbeddingData data = upstreamData.get(i);
+                // Compatible servers may leave out the index, their data is then in input order.
+                int miss = data.getIndex() == null ? i : data.getIndex().intValue();
+                if (miss >= 0 && miss < missIndexes.size()) {
+                    int index = missIndexes.get(miss);
+                    vectors[index] = data.getVector();
+                    put(model, digests[index], data.getVector());
+                }
+            }
+            for (int index : missIndexes) {
+                if (vectors[index] == null) {
+                    throw new OpenAiException("Missing embedding of input " + index);
+                }
+            }
+        }
+        log.debug("Embedding cache hits: {}/{}.", inputs.size() - missInputs.size(), inputs.size());
+
+        List<EmbeddingData> data = new ArrayList<>(inputs.size());
+        for (int i = 0; i < vectors.length; i++) {
+            EmbeddingData embeddingData = new EmbeddingData();
+            embeddingData.setObject(EMBEDDING);
+            embeddingData.setVector(vectors[i]);
+            embeddingData.setIndex((long) i);
+            data.add(embeddingData);
+        }
+        EmbeddingResponse response = new EmbeddingResponse();
+        response.setObject("list");
+        response.setModel(upstream == null ? model : upstream.getModel());
+        response.setUsage(upstream == null ? null : upstream.getUsage());
+        response.setData(data);
+        return response;
+    }
+
+    private EmbeddingStore store(String model) {
+        EmbeddingStore store = stores.get(model);
+        if (store != null) {
+            return store;
+        }
+        return stores.computeIfAbsent(model, key -> {
+            try {
+                return EmbeddingStore.open(file(key));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void put(String model, long[] digest, float[] vector) {
+        if (vector == null) {
+            return;
+        }
+        try {
+            EmbeddingStore store = stores.computeIfAbsent(model, key -> {
+                try {
+                    return EmbeddingStore.create(file(key), vector.length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (vector.length != store.getDimensions()) {
+                log.warn("Skip caching an embedding of {} dimensions for model {}.", vector.length, model);
+                return;
+            }
+            store.put(digest[0], digest[1], vector);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Failed to cache an embedding for model {}.", model, e);
+        }
+    }
+
+    private Path file(String model) {
+        return directory.resolve(model.replaceAll("[^A-Za-z0-9._-]", "_") + ".emb");
+    }
+
+    @SneakyThrows
+    private static long[] digest(String input) {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.wrap(hash);
+        return new long[] {buffer.getLong(), buffer.getLong()};
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (EmbeddingStore store : stores.values()) {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.embedding;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An append-only, memory-mapped file of fixed-width embedding records of one model.
+ *
+ * <p>The file starts with a header of magic, dimensions and record count, followed by records of a 128-bit
+ * content digest and {@code dimensions} floats. The vectors stay in the page cache; the heap only holds
+ * an open-addressing index from digest to record number, rebuilt by scanning the digests on open.
+ */
+@Slf4j
+final class EmbeddingStore implements Closeable {
+
+    private static final int MAGIC = 0x454d4231;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int DIGEST_SIZE = 16;
+    private static final long REGION_SIZE = 16L << 20;
+
+    private final FileChannel channel;
+    private final int dimensions;
+    private final int recordSize;
+    private final int recordsPerRegion;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] keys;
+    private int[] slots;
+    private int count;
+
+    private EmbeddingStore(FileChannel channel, int dimensions) throws IOException {
+        this.channel = channel;
+        this.dimensions = dimensions;
+        this.recordSize = DIGEST_SIZE + dimensions * Float.BYTES;
+        this.recordsPerRegion = (int) Math.max(1, REGION_SIZE / recordSize);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        this.keys = new long[16];
+        this.slots = new int[16];
+    }
+
+    /**
+     * Open an existing store file.
+     *
+     * @param file the store file
+     * @return {@link EmbeddingStore}, or null if the file does not exist
+     * @throws IOException if the file cannot be read or is not a store file
+     */
+    static EmbeddingStore open(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(buffer, 0);
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not an embedding store file: " + file);
+            }
+            EmbeddingStore store = new EmbeddingStore(channel, buffer.getInt());
+            store.load(buffer.getLong());
+            log.info("Loaded {} embeddings from {}.", store.count, file);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a new store file.
+     *
+     * @param file the store file
+     * @param dimensions the dimensions of every vector
+     * @return {@link EmbeddingStore}
+     * @throws IOException if the file cannot be created
+     */
+    static EmbeddingStore create(Path file, int dimensions) throws IOException {
+        FileChannel channel = FileChannel.open(
+                file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        EmbeddingStore store = new EmbeddingStore(channel, dimensions);
+        store.header.putInt(0, MAGIC);
+        store.header.putInt(4, dimensions);
+        store.header.putLong(COUNT_OFFSET, 0);
+        return store;
+    }
+
+    int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Get the vector of a digest.
+     *
+     * @param high the high 64 bits of the digest
+     * @param low the low 64 bits of the digest
+     * @return a copy of the vector, or null if absent
+     */
+    float[] get(long high, long low) {
+        lock.readLock().lock();
+        try {
+            int record = find(high, low);
+            if (record < 0) {
+                return null;
+            }
+            float[] vector = new float[dimensions];
+            ByteBuffer buffer = region(record);
+            buffer.position(offset(record) + DIGEST_SIZE);
+            buffer.asFloatBuffer().get(vector);
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Append the vector of a digest, unless it is already stored.
+     *
+     * @param high the high 64 bits of the digest
+     * @param low the low 64 bits of the digest
+     * @param vector the vector, with {@link #getDimensions()} floats
+     * @throws IOException if the file cannot grow
+     */
+    void put(long high, long low, float[] vector) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (find(high, low) >= 0) {
+                return;
+            }
+            int record = count;
+            if (record / recordsPerRegion == regions.size()) {
+                mapRegion(regions.size());
+            }
+            ByteBuffer buffer = region(record);
+            int offset = offset(record);
+            buffer.putLong(offset, high);
+            buffer.putLong(offset + 8, low);
+            buffer.position(offset + DIGEST_SIZE);
+            buffer.asFloatBuffer().put(vector);
+            // Publish the record only after its content is written.
+            count = record + 1;
+            header.putLong(COUNT_OFFSET, count);
+            index(high, record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            regions.forEach(MappedByteBuffer::force);
+            header.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load(long records) throws IOException {
+        int regionCount = (int) ((records + recordsPerRegion - 1) / recordsPerRegion);
+        for (int i = 0; i < regionCount; i++) {
+            mapRegion(i);
+        }
+        for (int record = 0; record < records; record++) {
+            count = record + 1;
+            index(region(record).getLong(offset(record)), record);
+        }
+    }
+
+    private void mapRegion(int region) throws IOException {
+        long position = HEADER_SIZE + (long) region * recordsPerRegion * recordSize;
+        regions.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) recordsPerRegion * recordSize));
+    }
+
+    private ByteBuffer region(int record) {
+        return regions.get(record / recordsPerRegion).duplicate();
+    }
+
+    private int offset(int record) {
+        return (record % recordsPerRegion) * recordSize;
+    }
+
+    private int find(long high, long low) {
+        int mask = slots.length - 1;
+        for (int i = mix(high) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int record = slots[i] - 1;
+            if (keys[i] == high && region(record).getLong(offset(record) + 8) == low) {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    private void index(long high, int record) {
+        if (count * 2 > slots.length) {
+            resize();
+        }
+        int mask = slots.length - 1;
+        int i = mix(high) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = high;
+        slots[i] = record + 1;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldSlots.length << 1];
+        slots = new int[oldSlots.length << 1];
+        int mask = slots.length - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            if (oldSlots[j] != 0) {
+                int i = mix(oldKeys[j]) & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                slots[i] = oldSlots[j];
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
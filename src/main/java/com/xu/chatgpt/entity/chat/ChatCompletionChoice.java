@@ -29,6 +29,11 @@ public class ChatCompletionChoice {
 
     private ChatCompletionMessage message;
 
+    /**
+     * The message fragment of a streamed chunk.
+     */
+    private ChatCompletionMessage delta;
+
     @JsonProperty("finish_reason")
     private String finishReason;
 }
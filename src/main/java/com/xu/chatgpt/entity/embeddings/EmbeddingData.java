@@ -16,7 +16,12 @@
 
 package com.xu.chatgpt.entity.embeddings;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import lombok.Data;
 
@@ -24,9 +29,51 @@ import lombok.Data;
  * @author lzhpo
  */
 @Data
+@JsonPropertyOrder({"object", "embedding", "index"})
 public class EmbeddingData {
 
     private String object;
-    private List<BigDecimal> embedding;
+
+    /**
+     * The embedding vector, decoded from a json array or a base64 string.
+     */
+    @JsonProperty("embedding")
+    @JsonDeserialize(using = EmbeddingDeserializer.class)
+    private float[] vector;
+
     private Long index;
+
+    /**
+     * Get a copy of the embedding vector as decimals, prefer {@link #getVector()} which does not box every dimension.
+     *
+     * @return the embedding vector, or null if absent
+     */
+    @JsonIgnore
+    public List<BigDecimal> getEmbedding() {
+        if (vector == null) {
+            return null;
+        }
+        List<BigDecimal> embedding = new ArrayList<>(vector.length);
+        for (float value : vector) {
+            embedding.add(new BigDecimal(Float.toString(value)));
+        }
+        return embedding;
+    }
+
+    /**
+     * Set the embedding vector from decimals, prefer {@link #setVector(float[])}.
+     *
+     * @param embedding the embedding vector, or null
+     */
+    @JsonIgnore
+    public void setEmbedding(List<BigDecimal> embedding) {
+        if (embedding == null) {
+            vector = null;
+            return;
+        }
+        vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = embedding.get(i).floatValue();
+        }
+    }
 }
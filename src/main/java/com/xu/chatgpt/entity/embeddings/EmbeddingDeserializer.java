@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.entity.embeddings;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Deserialize an embedding into a {@code float[]}, from either a json array of numbers
+ * or a base64 string of little-endian float32 values ({@code encoding_format=base64}).
+ */
+public class EmbeddingDeserializer extends StdDeserializer<float[]> {
+
+    private static final int INITIAL_CAPACITY = 1536;
+
+    public EmbeddingDeserializer() {
+        super(float[].class);
+    }
+
+    @Override
+    public float[] deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            byte[] bytes = parser.getBinaryValue(Base64Variants.MIME_NO_LINEFEEDS);
+            if (bytes.length % Float.BYTES != 0) {
+                return context.reportInputMismatch(
+                        this, "The base64 embedding has %d bytes, not a multiple of %d.", bytes.length, Float.BYTES);
+            }
+            float[] embedding = new float[bytes.length / Float.BYTES];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+            return embedding;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            return (float[]) context.handleUnexpectedToken(float[].class, parser);
+        }
+        float[] embedding = new float[INITIAL_CAPACITY];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == embedding.length) {
+                embedding = Arrays.copyOf(embedding, size << 1);
+            }
+            embedding[size++] = parser.getFloatValue();
+        }
+        return size == embedding.length ? embedding : Arrays.copyOf(embedding, size);
+    }
+}
@@ -17,6 +17,7 @@
 package com.xu.chatgpt.entity.embeddings;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
@@ -58,4 +59,11 @@ public class EmbeddingRequest {
      * <a href="https://platform.openai.com/docs/guides/safety-best-practices/end-user-ids">Learn more.</a>
      */
     private String user;
+
+    /**
+     * The format to return the embeddings in, can be either {@code float} or {@code base64}.
+     * {@code base64} is smaller on the wire and decoded straight into the float array.
+     */
+    @JsonProperty("encoding_format")
+    private String encodingFormat;
 }
@@ -32,8 +32,9 @@ public final class OpenAiErrorCode {
     public static final String ACCOUNT_DEACTIVATED = "account_deactivated";
     public static final String INSUFFICIENT_QUOTA = "insufficient_quota";
     public static final String ACCESS_TERMINATED = "access_terminated";
+    public static final String RATE_LIMIT_EXCEEDED = "rate_limit_exceeded";
 
     public static final List<Integer> ROTATION_HTTP_CODES = ListUtil.of(401, 429);
-    public static final List<String> ROTATION_ERROR_TYPES_OR_CODES =
-            ListUtil.of(INVALID_API_KEY, ACCOUNT_DEACTIVATED, INSUFFICIENT_QUOTA, ACCESS_TERMINATED);
+    public static final List<String> ROTATION_ERROR_TYPES_OR_CODES = ListUtil.of(
+            INVALID_API_KEY, ACCOUNT_DEACTIVATED, INSUFFICIENT_QUOTA, ACCESS_TERMINATED, RATE_LIMIT_EXCEEDED);
 }
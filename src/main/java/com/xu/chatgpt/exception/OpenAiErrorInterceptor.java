@@ -37,6 +37,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
 import static com.xu.chatgpt.constant.ChatConstant.BEARER;
+import static com.xu.chatgpt.exception.OpenAiErrorCode.RATE_LIMIT_EXCEEDED;
 import static com.xu.chatgpt.exception.OpenAiErrorCode.ROTATION_ERROR_TYPES_OR_CODES;
 import static com.xu.chatgpt.exception.OpenAiErrorCode.ROTATION_HTTP_CODES;
 
@@ -64,20 +65,38 @@ public class OpenAiErrorInterceptor implements Interceptor {
             responseBodySource.request(Long.MAX_VALUE);
             Buffer responseBodyBuffer = responseBodySource.getBuffer();
             String responseBodyStr = responseBodyBuffer.clone().readString(StandardCharsets.UTF_8);
-
-            OpenAiError openAiError = JsonUtils.parse(responseBodyStr, OpenAiError.class);
-            Optional.ofNullable(openAiError)
-                    .map(OpenAiError::getError)
-                    .filter(openAiErrorDetail -> {
-                        String errorType = openAiErrorDetail.getType();
-                        String errorCode = openAiErrorDetail.getCode();
-                        return ROTATION_ERROR_TYPES_OR_CODES.contains(errorType)
-                                || ROTATION_ERROR_TYPES_OR_CODES.contains(errorCode);
-                    })
-                    .ifPresent(errorCode -> openAiKeyWrapper.invalidKey(apiKey));
-            SpringUtil.publishEvent(new InvalidedKeyEvent(this, apiKey, responseBodyStr));
+            rotateKey(apiKey, code, responseBodyStr);
         }
 
         return response;
     }
+
+    /**
+     * Quarantine the api key of an error response if the error calls for another key, such as a rate limit or an
+     * exhausted quota. Used for the responses which do not pass this interceptor, such as those of the reactive client.
+     *
+     * @param apiKey the api key of the request
+     * @param code the response code
+     * @param responseBody the error body
+     */
+    public void rotateKey(String apiKey, int code, String responseBody) {
+        if (!ROTATION_HTTP_CODES.contains(code) || !StringUtils.hasText(apiKey)) {
+            return;
+        }
+        OpenAiError openAiError = JsonUtils.parse(responseBody, OpenAiError.class);
+        String reason = Optional.ofNullable(openAiError)
+                .map(OpenAiError::getError)
+                .map(openAiErrorDetail -> {
+                    String errorType = openAiErrorDetail.getType();
+                    String errorCode = openAiErrorDetail.getCode();
+                    return ROTATION_ERROR_TYPES_OR_CODES.contains(errorCode)
+                            ? errorCode
+                            : ROTATION_ERROR_TYPES_OR_CODES.contains(errorType) ? errorType : null;
+                })
+                .orElse(code == 429 ? RATE_LIMIT_EXCEEDED : null);
+        if (reason != null) {
+            openAiKeyWrapper.invalidKey(apiKey, reason);
+        }
+        SpringUtil.publishEvent(new InvalidedKeyEvent(this, apiKey, responseBody));
+    }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * Truncation of chat conversations which exceed the context window of the model.
+ */
+@Data
+public class OpenAiContextWindow {
+
+    /**
+     * Whether to drop the oldest messages of chat requests before sending, so they fit the context window.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The tokens to reserve for the completion when the request sets no {@code max_tokens}.
+     */
+    private int reserveTokens = 256;
+
+    /**
+     * The context window per model, for models unknown to the tokenizer or to override it. Requests of models
+     * neither known nor listed are sent as they are.
+     */
+    private Map<String, Integer> windows = new HashMap<>();
+}
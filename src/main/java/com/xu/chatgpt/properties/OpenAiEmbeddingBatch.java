@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import java.time.Duration;
+import lombok.Data;
+
+/**
+ * How concurrent single-input embedding calls are coalesced into one upstream request.
+ */
+@Data
+public class OpenAiEmbeddingBatch {
+
+    /**
+     * Whether to create the {@link com.xu.chatgpt.embedding.EmbeddingBatcher}.
+     */
+    private boolean enabled = false;
+
+    /**
+     * How long the first input of a batch waits for others.
+     */
+    private Duration window = Duration.ofMillis(10);
+
+    /**
+     * The maximum number of inputs per upstream request.
+     */
+    private int maxSize = 256;
+
+    /**
+     * The maximum number of input tokens per upstream request.
+     */
+    private long maxTokens = 100_000;
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import lombok.Data;
+
+/**
+ * The persistent embedding cache.
+ */
+@Data
+public class OpenAiEmbeddingCache {
+
+    /**
+     * Whether to create the {@link com.xu.chatgpt.embedding.EmbeddingCache}.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The directory of the memory-mapped cache files, one per model.
+     */
+    private String directory = "embedding-cache";
+}
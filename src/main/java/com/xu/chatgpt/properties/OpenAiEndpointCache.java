@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * The short-lived cache of idempotent GET endpoints, such as models and files.
+ */
+@Data
+public class OpenAiEndpointCache {
+
+    /**
+     * Whether to cache GET endpoints.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The maximum number of cached responses.
+     */
+    private long maximumSize = 1_000;
+
+    /**
+     * How long a response stays cached per GET endpoint, endpoints not listed or with a zero TTL are not cached.
+     */
+    private Map<OpenAiUrl, Duration> ttl = defaultTtl();
+
+    private static Map<OpenAiUrl, Duration> defaultTtl() {
+        Map<OpenAiUrl, Duration> ttl = new EnumMap<>(OpenAiUrl.class);
+        ttl.put(OpenAiUrl.LIST_MODELS, Duration.ofMinutes(1));
+        ttl.put(OpenAiUrl.RETRIEVE_MODEL, Duration.ofMinutes(1));
+        ttl.put(OpenAiUrl.LIST_FILES, Duration.ofSeconds(5));
+        ttl.put(OpenAiUrl.RETRIEVE_FILE, Duration.ofSeconds(5));
+        ttl.put(OpenAiUrl.LIST_FINE_TUNE, Duration.ofSeconds(5));
+        return ttl;
+    }
+}
@@ -17,6 +17,7 @@
 package com.xu.chatgpt.properties;
 
 import com.xu.chatgpt.apikey.OpenAiKey;
+import com.xu.chatgpt.apikey.OpenAiKeyBalance;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.NestedConfigurationProperty;
@@ -36,6 +37,16 @@ public class OpenAiProperties {
      */
     private List<OpenAiKey> keys = new ArrayList<>();
 
+    /**
+     * How to choose an api key for each request.
+     */
+    private OpenAiKeyBalance balance = OpenAiKeyBalance.WEIGHTED_RANDOM;
+
+    /**
+     * How long a request may wait when every api key exceeds its rpm or tpm.
+     */
+    private Duration rateLimitWait = Duration.ofSeconds(5);
+
     /**
      * The openAi endpoint configuration.
      */
@@ -47,6 +58,54 @@ public class OpenAiProperties {
     @NestedConfigurationProperty
     private OpenAiProxy proxy;
 
+    /**
+     * The api key quarantine after error responses.
+     */
+    @NestedConfigurationProperty
+    private OpenAiQuarantine quarantine = new OpenAiQuarantine();
+
+    /**
+     * The coalescing of concurrent single-input embedding calls.
+     */
+    @NestedConfigurationProperty
+    private OpenAiEmbeddingBatch embeddingBatch = new OpenAiEmbeddingBatch();
+
+    /**
+     * The persistent embedding cache.
+     */
+    @NestedConfigurationProperty
+    private OpenAiEmbeddingCache embeddingCache = new OpenAiEmbeddingCache();
+
+    /**
+     * The exact-match cache of chat and completion responses.
+     */
+    @NestedConfigurationProperty
+    private OpenAiResponseCache responseCache = new OpenAiResponseCache();
+
+    /**
+     * The semantic cache of chat completions.
+     */
+    @NestedConfigurationProperty
+    private OpenAiSemanticCache semanticCache = new OpenAiSemanticCache();
+
+    /**
+     * The short-lived cache of GET endpoints.
+     */
+    @NestedConfigurationProperty
+    private OpenAiEndpointCache endpointCache = new OpenAiEndpointCache();
+
+    /**
+     * Truncation of chat conversations to the context window.
+     */
+    @NestedConfigurationProperty
+    private OpenAiContextWindow contextWindow = new OpenAiContextWindow();
+
+    /**
+     * How streamed chat completions are sent to the client.
+     */
+    @NestedConfigurationProperty
+    private OpenAiStream stream = new OpenAiStream();
+
     /**
      * The openAi or proxy address.
      */
@@ -66,4 +125,36 @@ public class OpenAiProperties {
      * The write timeout.
      */
     private Duration writeTimeout = Duration.ofMinutes(1);
+
+    /**
+     * Whether to serialize request bodies while sending them with chunked transfer encoding,
+     * instead of serializing them up front to send a content length. The upstream must accept chunked requests.
+     */
+    private boolean streamRequestBody = false;
+
+    /**
+     * The timeout of async controller requests, defaults to connect timeout plus read timeout.
+     */
+    private Duration asyncTimeout;
+
+    /**
+     * The maximum number of concurrent requests, including streams, the OkHttp default of 64 if not set.
+     */
+    private Integer maxRequests;
+
+    /**
+     * The maximum number of concurrent requests per host, including streams, the OkHttp default of 5 if not set.
+     */
+    private Integer maxRequestsPerHost;
+
+    /**
+     * The number of threads which parse the responses of the async client.
+     */
+    private int asyncThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether to run Tomcat requests, the OkHttp dispatcher and the async client on virtual threads,
+     * falls back to platform threads before JDK 21.
+     */
+    private boolean virtualThreads = false;
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import java.time.Duration;
+import lombok.Data;
+
+/**
+ * How long an api key stays out of rotation after an error response.
+ */
+@Data
+public class OpenAiQuarantine {
+
+    /**
+     * The quarantine duration of rate limited api keys.
+     */
+    private Duration rateLimited = Duration.ofSeconds(20);
+
+    /**
+     * The quarantine duration of api keys which run out of quota, forever if not set.
+     */
+    private Duration insufficientQuota;
+}
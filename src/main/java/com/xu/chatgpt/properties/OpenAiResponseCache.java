@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import java.time.Duration;
+import lombok.Data;
+
+/**
+ * The exact-match cache of chat and completion responses.
+ */
+@Data
+public class OpenAiResponseCache {
+
+    /**
+     * Whether to cache responses.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Whether to only cache requests with temperature 0, whose responses are (nearly) deterministic.
+     */
+    private boolean deterministicOnly = true;
+
+    /**
+     * The maximum number of cached responses, evicted by W-TinyLFU.
+     */
+    private long maximumSize = 10_000;
+
+    /**
+     * How long a response stays cached.
+     */
+    private Duration ttl = Duration.ofMinutes(10);
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import java.time.Duration;
+import lombok.Data;
+
+/**
+ * The semantic cache of chat completions, matched by embedding similarity of the last user message.
+ */
+@Data
+public class OpenAiSemanticCache {
+
+    /**
+     * Whether to create the {@link com.xu.chatgpt.cache.SemanticCache}.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The model which embeds the last user message.
+     */
+    private String embeddingModel = "text-embedding-ada-002";
+
+    /**
+     * The minimum cosine similarity of a cache hit.
+     */
+    private double threshold = 0.95;
+
+    /**
+     * Whether to only cache requests with temperature 0.
+     */
+    private boolean deterministicOnly = true;
+
+    /**
+     * The maximum number of cached responses, the oldest half is dropped when reached.
+     */
+    private int maximumSize = 100_000;
+
+    /**
+     * How long a response stays cached.
+     */
+    private Duration ttl = Duration.ofHours(1);
+
+    /**
+     * The vector index of the cached messages.
+     */
+    private IndexType index = IndexType.HNSW;
+
+    /**
+     * The candidate list size of the HNSW search. Only responses of the same context match, so it is larger than
+     * for an unfiltered search to keep the recall.
+     */
+    private int efSearch = 200;
+
+    public enum IndexType {
+
+        /**
+         * Exact brute-force search, see {@link com.xu.chatgpt.vector.FlatVectorIndex}.
+         */
+        FLAT,
+
+        /**
+         * Approximate graph search, see {@link com.xu.chatgpt.vector.HnswVectorIndex}.
+         */
+        HNSW
+    }
+}
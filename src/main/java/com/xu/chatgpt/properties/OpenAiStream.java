@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.properties;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * How streamed chat completions are sent to the client.
+ */
+@Data
+public class OpenAiStream {
+
+    /**
+     * Whether {@code /v1/chat/completions} copies the raw upstream events to the response, instead of decoding each
+     * event and sending it again through an {@code SseEmitter}.
+     */
+    private boolean relay = false;
+
+    /**
+     * The maximum number of concurrently relayed streams, each holds a thread while relaying. Unused with virtual
+     * threads.
+     */
+    private int relayThreads = 200;
+
+    /**
+     * The timeout of a stream of {@code /v1/chat/completions}, after which upstream is cancelled. Null for the timeout
+     * of async requests.
+     */
+    private Duration timeout;
+
+    /**
+     * The longest time an event of {@code /v1/chat/completions} waits to be flushed together with the following
+     * ones. Zero flushes every event as it arrives.
+     */
+    private Duration flushInterval = Duration.ZERO;
+
+    /**
+     * The pending characters of a stream which are flushed without waiting for the flush interval.
+     */
+    private int flushSize = 4096;
+
+    /**
+     * Whether the first event of a stream is flushed without waiting for the flush interval.
+     */
+    private boolean flushFirstEvent = true;
+
+    /**
+     * The pending characters of a stream above which {@link #overflowPolicy} applies, which bounds the memory of each
+     * stream whose client reads slower than upstream writes.
+     */
+    private int highWaterMark = 16384;
+
+    /**
+     * What a stream does once its pending events reach {@link #highWaterMark}.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * The maximum number of concurrent flushes off the upstream reader threads, each holds a thread while its client
+     * reads. Above it, a stream flushes on its upstream reader thread as with {@link OverflowPolicy#BLOCK}. Unused with
+     * virtual threads.
+     */
+    private int flushThreads = 200;
+
+    public enum OverflowPolicy {
+
+        /**
+         * Stop reading from upstream until the client has read the pending events.
+         */
+        BLOCK,
+
+        /**
+         * Keep reading from upstream and merge consecutive content deltas into one event, so the client receives the
+         * same content in fewer and larger events.
+         */
+        MERGE
+    }
+}
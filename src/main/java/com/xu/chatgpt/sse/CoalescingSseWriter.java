@@ -0,0 +1,423 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.sse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.xu.chatgpt.properties.OpenAiStream;
+import com.xu.chatgpt.utils.JsonUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.util.Assert;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the events of one stream to an {@link SseEmitter}, coalescing the events which arrive within the flush
+ * interval into a single write and flush.
+ *
+ * <p>The pending events are flushed when the interval elapses or they reach the flush size, whichever comes first.
+ * The first event can be flushed at once, so coalescing does not delay the time to first token. With no flush
+ * interval every event is flushed as it arrives.
+ *
+ * <p>Writes to the client block while it is slow to read, so the pending events are bounded by the high-water mark.
+ * Above it, {@link OpenAiStream.OverflowPolicy#BLOCK} makes the upstream reader wait for the client, and
+ * {@link OpenAiStream.OverflowPolicy#MERGE} keeps reading but merges consecutive content deltas into one event.
+ * Only one thread writes to the client at a time; delayed flushes run on the flush executor, not on the scheduler.
+ * Once the flush executor rejects a flush, the stream falls back to {@link OpenAiStream.OverflowPolicy#BLOCK} and
+ * flushes every event on the upstream reader thread.
+ *
+ * <p>Each event is framed by {@link SseEmitter#event()}, and the frames of the coalesced events are sent as one
+ * pre-framed {@link SseEmitter.SseEventBuilder}, so they take one write and one flush.
+ */
+@Slf4j
+public class CoalescingSseWriter {
+
+    private static final MediaType TEXT_PLAIN = new MediaType("text", "plain", StandardCharsets.UTF_8);
+    private static final int FRAME_OVERHEAD = "data:\n\n".length();
+    private static final String DONE = "[DONE]";
+    private static final String CHOICES = "choices";
+    private static final String DELTA = "delta";
+    private static final String CONTENT = "content";
+    private static final Counter MERGED = Metrics.counter("gpt.stream.merged");
+    private static final Counter OVERLOADED = Metrics.counter("gpt.stream.overloaded");
+    private static final Timer BLOCKED = Timer.builder("gpt.stream.blocked")
+            .description("Time the upstream reader of a stream waits for a slow client")
+            .register(Metrics.globalRegistry);
+
+    @Getter
+    private final SseEmitter sseEmitter;
+
+    private final long flushIntervalNanos;
+    private final int flushSize;
+    private final boolean flushFirstEvent;
+    private final int highWaterMark;
+    private final OpenAiStream.OverflowPolicy overflowPolicy;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition taken = lock.newCondition();
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+    private int pendingChars;
+    private ObjectNode merging;
+    private StringBuilder mergedContent;
+    private int mergingChars;
+    private boolean first = true;
+    private boolean sending;
+    private boolean failed;
+    private boolean overloaded;
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * Create a writer which flushes every event as it arrives, on the thread which writes it.
+     *
+     * @param sseEmitter the emitter
+     */
+    public CoalescingSseWriter(SseEmitter sseEmitter) {
+        this(sseEmitter, new OpenAiStream(), null, null);
+    }
+
+    /**
+     * Create a writer.
+     *
+     * @param sseEmitter the emitter
+     * @param properties the flush interval, flush size, high-water mark and overflow policy
+     * @param scheduler the scheduler of the delayed flushes, unused without a flush interval
+     * @param executor the executor of the flushes which do not run on the writing thread, unused without a flush
+     *     interval and with {@link OpenAiStream.OverflowPolicy#BLOCK}; it may reject flushes when overloaded
+     */
+    public CoalescingSseWriter(
+            SseEmitter sseEmitter, OpenAiStream properties, ScheduledExecutorService scheduler, Executor executor) {
+        Assert.notNull(sseEmitter, "sseEmitter cannot null.");
+        this.sseEmitter = sseEmitter;
+        this.flushIntervalNanos = properties.getFlushInterval() == null ? 0 : properties.getFlushInterval().toNanos();
+        this.flushSize = properties.getFlushSize();
+        this.flushFirstEvent = properties.isFlushFirstEvent();
+        this.highWaterMark = properties.getHighWaterMark();
+        this.overflowPolicy = properties.getOverflowPolicy();
+        this.scheduler = scheduler;
+        this.executor = executor;
+        Assert.isTrue(flushIntervalNanos <= 0 || scheduler != null, "scheduler cannot null with a flush interval.");
+        Assert.isTrue(
+                executor != null || (flushIntervalNanos <= 0 && overflowPolicy == OpenAiStream.OverflowPolicy.BLOCK),
+                "executor cannot null with a flush interval or the MERGE policy.");
+    }
+
+    /**
+     * Write the data of one event, flushing it now or later.
+     *
+     * @param data the event data
+     */
+    public void write(String data) {
+        boolean due;
+        boolean block;
+        lock.lock();
+        try {
+            block = overflowPolicy == OpenAiStream.OverflowPolicy.BLOCK || overloaded;
+            if (block) {
+                awaitBelowHighWaterMark();
+            }
+            if (failed) {
+                return;
+            }
+            if (block || pendingChars < highWaterMark || !merge(data)) {
+                append(data);
+            }
+            due = overloaded
+                    || flushIntervalNanos <= 0
+                    || (first && flushFirstEvent)
+                    || pendingChars >= flushSize
+                    || pendingChars >= highWaterMark;
+            first = false;
+            if (!due && scheduled == null) {
+                scheduled = scheduler.schedule(this::drainLater, flushIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (due && (block || !drainLater())) {
+            drain();
+        }
+    }
+
+    /**
+     * Flush the pending events, such as when the stream ends. Failures are logged, as the client may be gone.
+     */
+    public void flush() {
+        drain(false);
+    }
+
+    /**
+     * Flush the pending events and complete the emitter, when the stream ends. Waits for a flush which is already
+     * sending, so no event is left behind.
+     */
+    public void complete() {
+        drain(true);
+        sseEmitter.complete();
+    }
+
+    /**
+     * Flush the pending events and complete the emitter with an error, when the stream fails. Waits for a flush which
+     * is already sending, so no event is left behind.
+     *
+     * @param e the error
+     */
+    public void completeWithError(Throwable e) {
+        drain(true);
+        sseEmitter.completeWithError(e);
+    }
+
+    private void awaitBelowHighWaterMark() {
+        if (pendingChars < highWaterMark || !sending || failed) {
+            return;
+        }
+        long start = System.nanoTime();
+        while (pendingChars >= highWaterMark && sending && !failed) {
+            taken.awaitUninterruptibly();
+        }
+        BLOCKED.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void append(String data) {
+        finishMerging();
+        pending.addLast(data);
+        pendingChars += data.length();
+    }
+
+    /**
+     * Merge a content delta into the previous event if both only carry the content of the same choice.
+     */
+    private boolean merge(String data) {
+        if (DONE.equals(data)) {
+            return false;
+        }
+        JsonNode event = JsonUtils.toJsonNode(data);
+        String content = content(event);
+        if (content == null) {
+            return false;
+        }
+        if (merging == null) {
+            String last = pending.peekLast();
+            JsonNode previous = last == null || DONE.equals(last) ? null : JsonUtils.toJsonNode(last);
+            String previousContent = content(previous);
+            if (previousContent == null) {
+                return false;
+            }
+            pending.pollLast();
+            merging = (ObjectNode) previous;
+            mergedContent = new StringBuilder(previousContent);
+            mergingChars = last.length();
+        }
+        if (!sameChoice(merging, event)) {
+            return false;
+        }
+        mergedContent.append(content);
+        mergingChars += content.length();
+        pendingChars += content.length();
+        MERGED.increment();
+        return true;
+    }
+
+    private void finishMerging() {
+        if (merging != null) {
+            ((ObjectNode) merging.get(CHOICES).get(0).get(DELTA)).put(CONTENT, mergedContent.toString());
+            String data = JsonUtils.toJsonString(merging);
+            pending.addLast(data);
+            pendingChars += data.length() - mergingChars;
+            merging = null;
+            mergedContent = null;
+        }
+    }
+
+    private static String content(JsonNode event) {
+        JsonNode choices = event instanceof ObjectNode ? event.get(CHOICES) : null;
+        if (choices == null || choices.size() != 1) {
+            return null;
+        }
+        JsonNode choice = choices.get(0);
+        JsonNode finishReason = choice.get("finish_reason");
+        JsonNode delta = choice.get(DELTA);
+        if ((finishReason != null && !finishReason.isNull()) || delta == null || delta.size() != 1) {
+            return null;
+        }
+        JsonNode content = delta.get(CONTENT);
+        return content != null && content.isTextual() ? content.asText() : null;
+    }
+
+    private static boolean sameChoice(JsonNode a, JsonNode b) {
+        return a.path("id").equals(b.path("id"))
+                && a.get(CHOICES).get(0).path("index").equals(b.get(CHOICES).get(0).path("index"));
+    }
+
+    private void drain() {
+        drain(false);
+    }
+
+    /**
+     * Drain on the flush executor. If it rejects the flush, fall back to {@link OpenAiStream.OverflowPolicy#BLOCK},
+     * so the next write or the end of the stream drains on the upstream reader thread.
+     *
+     * @return false if the flush executor rejected the flush
+     */
+    private boolean drainLater() {
+        try {
+            executor.execute(this::drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            lock.lock();
+            try {
+                if (!overloaded) {
+                    overloaded = true;
+                    OVERLOADED.increment();
+                    log.debug("The flush executor is overloaded, fall back to flushing on the upstream reader.");
+                }
+            } finally {
+                lock.unlock();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Send the pending events until there are none. If another thread is already sending them, return at once, or
+     * wait until it is done and send the rest.
+     */
+    private void drain(boolean await) {
+        lock.lock();
+        try {
+            while (sending) {
+                if (!await) {
+                    return;
+                }
+                taken.awaitUninterruptibly();
+            }
+            sending = true;
+            String frames;
+            while ((frames = take()) != null) {
+                lock.unlock();
+                boolean sent = send(frames);
+                lock.lock();
+                failed |= !sent;
+            }
+            sending = false;
+            taken.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send the frames of the coalesced events in one write.
+     */
+    private boolean send(String frames) {
+        try {
+            sseEmitter.send(new FramedEvents(frames));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to send the pending events: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private String take() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        finishMerging();
+        if (failed || pending.isEmpty()) {
+            pending.clear();
+            pendingChars = 0;
+            return null;
+        }
+        StringBuilder frames = new StringBuilder(pendingChars + pending.size() * FRAME_OVERHEAD);
+        for (String data : pending) {
+            for (ResponseBodyEmitter.DataWithMediaType part : SseEmitter.event().data(data, TEXT_PLAIN).build()) {
+                frames.append(part.getData());
+            }
+        }
+        pending.clear();
+        pendingChars = 0;
+        taken.signalAll();
+        return frames.toString();
+    }
+
+    /**
+     * Events which are already framed by {@link SseEmitter#event()}, sent as they are.
+     */
+    private static final class FramedEvents implements SseEmitter.SseEventBuilder {
+
+        private final String frames;
+
+        private FramedEvents(String frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder id(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder name(String eventName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder reconnectTime(long reconnectTimeMillis) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder comment(String comment) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder data(Object object) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SseEmitter.SseEventBuilder data(Object object, MediaType mediaType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<ResponseBodyEmitter.DataWithMediaType> build() {
+            return Collections.singleton(new ResponseBodyEmitter.DataWithMediaType(frames, TEXT_PLAIN));
+        }
+    }
+}
@@ -16,31 +16,119 @@
 
 package com.xu.chatgpt.sse;
 
-import lombok.SneakyThrows;
+import com.xu.chatgpt.exception.OpenAiException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Response;
 import okhttp3.sse.EventSource;
 import org.springframework.util.Assert;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * {@link SseEmitter} with <a href="https://www.w3.org/TR/eventsource/">Server-Sent Events</a>.
  *
+ * <p>The events are written through a {@link CoalescingSseWriter}. The time to the first event and between the
+ * following events are recorded as {@code gpt.stream.first.token} and {@code gpt.stream.inter.token}.
+ *
+ * <p>The emitter completes when upstream ends. See {@link #cancelOnDisconnect} to cancel upstream when the emitter
+ * ends first.
+ *
  * @author lzhpo
  */
 @Slf4j
 public class SseEventSourceListener extends AbstractEventSourceListener {
 
-    private final SseEmitter sseEmitter;
+    private static final String DONE = "[DONE]";
+    private static final Timer FIRST_TOKEN = Timer.builder("gpt.stream.first.token")
+            .description("Time from sending a stream request to its first event")
+            .register(Metrics.globalRegistry);
+    private static final Timer INTER_TOKEN = Timer.builder("gpt.stream.inter.token")
+            .description("Time between the events of a stream")
+            .register(Metrics.globalRegistry);
+    private static final Counter TOKENS_SAVED = Metrics.counter("gpt.stream.tokens.saved");
+
+    private final CoalescingSseWriter writer;
+    private final AtomicBoolean ended = new AtomicBoolean();
+    private final long startNanos = System.nanoTime();
+    private long lastNanos;
 
     public SseEventSourceListener(SseEmitter sseEmitter) {
-        Assert.notNull(sseEmitter, "sseEmitter cannot null.");
-        this.sseEmitter = sseEmitter;
+        this(new CoalescingSseWriter(sseEmitter));
+    }
+
+    public SseEventSourceListener(CoalescingSseWriter writer) {
+        Assert.notNull(writer, "writer cannot null.");
+        this.writer = writer;
+    }
+
+    /**
+     * Cancel upstream when the emitter times out, fails or completes before upstream ends, such as when the client
+     * disconnects, so the remaining tokens are neither generated nor billed. Counted as {@code gpt.stream.aborted}
+     * by reason.
+     *
+     * @param eventSource the upstream stream
+     * @param usage the usage of the stream, to count the completion tokens left of {@code max_tokens} as
+     *     {@code gpt.stream.tokens.saved}; may be null
+     */
+    public void cancelOnDisconnect(EventSource eventSource, UsageEventSourceListener usage) {
+        SseEmitter sseEmitter = writer.getSseEmitter();
+        sseEmitter.onTimeout(() -> abort(eventSource, usage, "timeout"));
+        sseEmitter.onError(e -> abort(eventSource, usage, "error"));
+        sseEmitter.onCompletion(() -> abort(eventSource, usage, "disconnect"));
+    }
+
+    private void abort(EventSource eventSource, UsageEventSourceListener usage, String reason) {
+        if (!ended.compareAndSet(false, true)) {
+            return;
+        }
+        log.debug("Cancel the upstream stream on {} of the emitter.", reason);
+        eventSource.cancel();
+        writer.getSseEmitter().complete();
+        Metrics.counter("gpt.stream.aborted", "reason", reason).increment();
+        if (usage != null) {
+            TOKENS_SAVED.increment(usage.getRemainingTokens());
+        }
     }
 
     @Override
-    @SneakyThrows
     public void onEvent(EventSource eventSource, String id, String type, String data) {
         super.onEvent(eventSource, id, type, data);
-        sseEmitter.send(data);
+        if (!DONE.equals(data)) {
+            long now = System.nanoTime();
+            if (lastNanos == 0) {
+                FIRST_TOKEN.record(now - startNanos, TimeUnit.NANOSECONDS);
+            } else {
+                INTER_TOKEN.record(now - lastNanos, TimeUnit.NANOSECONDS);
+            }
+            lastNanos = now;
+        }
+        writer.write(data);
+    }
+
+    @Override
+    public void onClosed(EventSource eventSource) {
+        super.onClosed(eventSource);
+        if (ended.compareAndSet(false, true)) {
+            writer.complete();
+        }
+    }
+
+    @Override
+    public void onFailure(EventSource eventSource, Throwable e, Response response) {
+        if (!ended.compareAndSet(false, true)) {
+            log.debug("The upstream stream was cancelled: {}", e == null ? null : e.getMessage());
+            return;
+        }
+        try {
+            super.onFailure(eventSource, e, response);
+        } catch (OpenAiException ex) {
+            writer.completeWithError(ex);
+            throw ex;
+        }
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.sse;
+
+import com.xu.chatgpt.properties.OpenAiStream;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Creates the {@link CoalescingSseWriter} of each stream, sharing one scheduler for the delayed flushes and one
+ * executor for the flushes which do not run on the upstream reader thread.
+ */
+public class SseWriterFactory implements DisposableBean {
+
+    private final OpenAiStream properties;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+
+    /**
+     * Create the factory.
+     *
+     * @param properties the stream properties
+     * @param executor the executor of the flushes, each may block on a slow client until it reads
+     */
+    public SseWriterFactory(OpenAiStream properties, ExecutorService executor) {
+        this.properties = properties;
+        this.executor = executor;
+        Duration flushInterval = properties.getFlushInterval();
+        this.scheduler = flushInterval != null && !flushInterval.isZero() && !flushInterval.isNegative()
+                ? Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("sse-flush-scheduler-"))
+                : null;
+    }
+
+    /**
+     * Create the writer of one stream.
+     *
+     * @param sseEmitter the emitter of the stream
+     * @return {@link CoalescingSseWriter}
+     */
+    public CoalescingSseWriter create(SseEmitter sseEmitter) {
+        return new CoalescingSseWriter(sseEmitter, properties, scheduler, executor);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        executor.shutdown();
+    }
+}
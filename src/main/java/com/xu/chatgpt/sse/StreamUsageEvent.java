@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.sse;
+
+import com.xu.chatgpt.entity.CommonUsage;
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when a streamed chat completion ends, with the tokens it used.
+ */
+@Getter
+public class StreamUsageEvent extends ApplicationEvent {
+
+    /**
+     * The requested model.
+     */
+    private final String model;
+
+    /**
+     * The usage, counted locally unless upstream sent it.
+     */
+    private final CommonUsage usage;
+
+    /**
+     * Whether the stream ended with {@code [DONE]}, false if it failed or was cancelled.
+     */
+    private final boolean completed;
+
+    public StreamUsageEvent(Object source, String model, CommonUsage usage, boolean completed) {
+        super(source);
+        this.model = model;
+        this.usage = usage;
+        this.completed = completed;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.sse;
+
+import cn.hutool.extra.spring.SpringUtil;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.entity.CommonUsage;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.utils.JsonUtils;
+import com.xu.chatgpt.utils.StreamingTokenCounter;
+import com.xu.chatgpt.utils.TokenCounter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Response;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the completion tokens of a streamed chat completion as the deltas arrive, then delegates to another listener.
+ *
+ * <p>Upstream usually sends no usage when streaming. The prompt tokens are counted as sent, the completion
+ * tokens incrementally per choice with {@link StreamingTokenCounter}, and a {@link StreamUsageEvent} is published
+ * once when the stream closes or fails.
+ *
+ * <p>Each chunk is read with a streaming {@link JsonParser}, only {@code usage} and the {@code content} and
+ * {@code function_call} of {@code choices[].delta} are read, everything else is skipped without binding it.
+ */
+@Slf4j
+public class UsageEventSourceListener extends EventSourceListener {
+
+    private static final String DONE = "[DONE]";
+
+    private final EventSourceListener delegate;
+    private final ChatCompletionRequest request;
+    private final String model;
+    private final TokenCounter tokenCounter;
+    private volatile long promptTokens = -1;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, StreamingTokenCounter> choices = new HashMap<>(2);
+    private final AtomicBoolean published = new AtomicBoolean();
+    private volatile CommonUsage upstreamUsage;
+    private volatile boolean done;
+
+    public UsageEventSourceListener(ChatCompletionRequest request, EventSourceListener delegate) {
+        Assert.notNull(delegate, "delegate cannot null.");
+        this.delegate = delegate;
+        this.request = request;
+        this.model = request.getModel();
+        this.tokenCounter = TokenCounter.of(model, ModelType.GPT_3_5_TURBO);
+    }
+
+    @Override
+    public void onOpen(EventSource eventSource, Response response) {
+        promptTokens();
+        delegate.onOpen(eventSource, response);
+    }
+
+    @Override
+    public void onEvent(EventSource eventSource, String id, String type, String data) {
+        if (DONE.equals(data)) {
+            done = true;
+        } else {
+            count(data);
+        }
+        delegate.onEvent(eventSource, id, type, data);
+    }
+
+    @Override
+    public void onClosed(EventSource eventSource) {
+        publish();
+        delegate.onClosed(eventSource);
+    }
+
+    @Override
+    public void onFailure(EventSource eventSource, Throwable t, Response response) {
+        publish();
+        delegate.onFailure(eventSource, t, response);
+    }
+
+    /**
+     * The usage so far, the tokens of a partial last word are included once the stream ends.
+     *
+     * @return {@link CommonUsage}
+     */
+    public CommonUsage getUsage() {
+        CommonUsage usage = upstreamUsage;
+        if (usage != null) {
+            return usage;
+        }
+        long completionTokens = 0;
+        lock.lock();
+        try {
+            for (StreamingTokenCounter counter : choices.values()) {
+                completionTokens += published.get() ? counter.finish() : counter.getTokens();
+            }
+        } finally {
+            lock.unlock();
+        }
+        long promptTokens = promptTokens();
+        usage = new CommonUsage();
+        usage.setPromptTokens(promptTokens);
+        usage.setCompletionTokens(completionTokens);
+        usage.setTotalTokens(promptTokens + completionTokens);
+        return usage;
+    }
+
+    /**
+     * The completion tokens left of {@code max_tokens}, the most the model would still generate if the stream went on.
+     *
+     * @return the tokens, 0 if the request has no {@code max_tokens}
+     */
+    public long getRemainingTokens() {
+        Integer maxTokens = request.getMaxTokens();
+        if (maxTokens == null) {
+            return 0;
+        }
+        Long completionTokens = getUsage().getCompletionTokens();
+        return Math.max(0, maxTokens - (completionTokens == null ? 0 : completionTokens));
+    }
+
+    /**
+     * Count the prompt once it is sent, after the client may have truncated the messages.
+     */
+    private long promptTokens() {
+        if (promptTokens < 0) {
+            promptTokens = tokenCounter.count(request.getMessages());
+        }
+        return promptTokens;
+    }
+
+    private void count(String data) {
+        try (JsonParser parser = JsonUtils.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("usage".equals(field) && token == JsonToken.START_OBJECT) {
+                    upstreamUsage = parser.readValueAs(CommonUsage.class);
+                } else if ("choices".equals(field) && token == JsonToken.START_ARRAY) {
+                    for (token = parser.nextToken();
+                            token != null && token != JsonToken.END_ARRAY;
+                            token = parser.nextToken()) {
+                        if (token == JsonToken.START_OBJECT) {
+                            countChoice(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Skip counting unparsable chunk: {}", data);
+        }
+    }
+
+    /**
+     * Count the delta of one choice, the parser is at its {@link JsonToken#START_OBJECT}.
+     */
+    private void countChoice(JsonParser parser) throws IOException {
+        long index = 0;
+        JsonNode delta = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("index".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                index = parser.getLongValue();
+            } else if ("delta".equals(field) && token == JsonToken.START_OBJECT) {
+                delta = parser.readValueAsTree();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (delta == null) {
+            return;
+        }
+        JsonNode functionCall = delta.path("function_call");
+        lock.lock();
+        try {
+            StreamingTokenCounter counter = choices.computeIfAbsent(index, key -> tokenCounter.streaming());
+            counter.append(delta.path("content").textValue());
+            counter.append(functionCall.path("name").textValue());
+            counter.append(functionCall.path("arguments").textValue());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish() {
+        if (published.compareAndSet(false, true)) {
+            CommonUsage usage = getUsage();
+            log.debug("Stream of {} used {}.", model, usage);
+            SpringUtil.publishEvent(new StreamUsageEvent(this, model, usage, done));
+        }
+    }
+}
@@ -16,12 +16,22 @@
 
 package com.xu.chatgpt.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 
@@ -31,12 +41,20 @@ import lombok.experimental.UtilityClass;
 @UtilityClass
 public class JsonUtils {
 
-    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectMapper mapper = new JsonMapper();
+
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+    private static ObjectWriter writer;
+
+    private static ObjectWriter canonicalWriter;
 
     static {
         mapper.registerModule(new JavaTimeModule());
         mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
         mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        writer = streamWriter(mapper);
+        canonicalWriter = canonicalWriter(mapper);
     }
 
     /**
@@ -46,6 +64,9 @@ public class JsonUtils {
      */
     public static void setMapper(ObjectMapper mapper) {
         JsonUtils.mapper = mapper;
+        JsonUtils.writer = streamWriter(mapper);
+        JsonUtils.canonicalWriter = canonicalWriter(mapper);
+        READERS.clear();
     }
 
     /**
@@ -59,6 +80,29 @@ public class JsonUtils {
         return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(obj);
     }
 
+    /**
+     * Serializes the specified object into the stream, without an intermediate json string.
+     *
+     * @param out the target stream, which is flushed but not closed
+     * @param object the object for which Json representation is to be created
+     */
+    @SneakyThrows
+    public static void write(OutputStream out, Object object) {
+        writer.writeValue(out, object);
+    }
+
+    /**
+     * Serializes the specified object to json bytes with sorted properties and map keys,
+     * so equal objects always give equal bytes.
+     *
+     * @param object the object for which Json representation is to be created
+     * @return the canonical json bytes of object.
+     */
+    @SneakyThrows
+    public static byte[] toCanonicalJsonBytes(Object object) {
+        return canonicalWriter.writeValueAsBytes(object);
+    }
+
     /**
      * Parses the specified JSON string to a JsonNode
      *
@@ -94,6 +138,18 @@ public class JsonUtils {
         return mapper.treeToValue(jsonNode, valueType);
     }
 
+    /**
+     * Convert the object into an object of the specified type, such as a {@link java.util.Map}.
+     *
+     * @param object the object to convert
+     * @param valueType the class of the desired object
+     * @param <T> the type of the desired object
+     * @return an object of type T
+     */
+    public static <T> T convert(Object object, Class<T> valueType) {
+        return mapper.convertValue(object, valueType);
+    }
+
     /**
      * Parse the json string into an object of the specified type.
      *
@@ -107,6 +163,31 @@ public class JsonUtils {
         return mapper.readValue(content, valueType);
     }
 
+    /**
+     * Create a streaming parser of the json string, which can still bind a sub-tree with
+     * {@link JsonParser#readValueAs(Class)}.
+     *
+     * @param content the json string
+     * @return {@link JsonParser}, to be closed by the caller
+     */
+    @SneakyThrows
+    public static JsonParser createParser(String content) {
+        return mapper.createParser(content);
+    }
+
+    /**
+     * Parse the json stream into an object of the specified type, without buffering it as a string.
+     *
+     * @param content the json stream, which is not closed
+     * @param valueType the class of the desired object
+     * @param <T> the type of the desired object
+     * @return an object of type T
+     */
+    @SneakyThrows
+    public static <T> T parse(InputStream content, Class<T> valueType) {
+        return READERS.computeIfAbsent(valueType, mapper::readerFor).readValue(content);
+    }
+
     /**
      * Convert json {@code content} into a collection of required objects
      *
@@ -119,4 +200,21 @@ public class JsonUtils {
     public static <T> List<T> parseArray(String content, Class<T> valueType) {
         return mapper.readValue(content, mapper.getTypeFactory().constructCollectionType(List.class, valueType));
     }
+
+    private static ObjectWriter streamWriter(ObjectMapper mapper) {
+        return mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    private static ObjectWriter canonicalWriter(ObjectMapper mapper) {
+        ObjectMapper sorted;
+        if (mapper instanceof JsonMapper) {
+            sorted = ((JsonMapper) mapper).rebuild()
+                    .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+                    .build();
+        } else {
+            sorted = mapper.copy();
+            sorted.setConfig(sorted.getSerializationConfig().with(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY));
+        }
+        return sorted.writer(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    }
 }
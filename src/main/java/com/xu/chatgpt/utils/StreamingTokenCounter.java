@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.utils;
+
+import com.knuddels.jtokkit.api.Encoding;
+
+/**
+ * Counts the tokens of text which arrives in fragments, without encoding any text twice.
+ *
+ * <p>BPE never merges across the pre-tokenizer pieces of the OpenAi encodings, so the text is counted up to the last
+ * piece boundary known to be stable: before a space which follows a non-space and precedes a letter, or after a single
+ * line break between two non-spaces. Only the text after it is kept until more fragments arrive. Not thread-safe.
+ */
+public class StreamingTokenCounter {
+
+    private final Encoding encoding;
+    private final StringBuilder pending = new StringBuilder();
+    private long tokens;
+
+    StreamingTokenCounter(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Append a fragment.
+     *
+     * @param fragment the fragment, ignored if null
+     */
+    public void append(String fragment) {
+        if (fragment == null || fragment.isEmpty()) {
+            return;
+        }
+        int scanned = pending.length();
+        pending.append(fragment);
+        for (int i = pending.length() - 1; i >= Math.max(1, scanned - 1); i--) {
+            if (isBoundary(i)) {
+                tokens += encoding.countTokens(pending.substring(0, i));
+                pending.delete(0, i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Count the pending text as complete.
+     *
+     * @return the tokens of all fragments
+     */
+    public long finish() {
+        if (pending.length() > 0) {
+            tokens += encoding.countTokens(pending.toString());
+            pending.setLength(0);
+        }
+        return tokens;
+    }
+
+    /**
+     * The tokens of all fragments so far, without the pending text.
+     *
+     * @return the tokens
+     */
+    public long getTokens() {
+        return tokens;
+    }
+
+    private boolean isBoundary(int i) {
+        char c = pending.charAt(i);
+        char previous = pending.charAt(i - 1);
+        if (previous == '\n') {
+            return i >= 2 && !Character.isWhitespace(pending.charAt(i - 2)) && !Character.isWhitespace(c);
+        }
+        return c == ' '
+                && i + 1 < pending.length()
+                && !Character.isWhitespace(previous)
+                && Character.isLetter(pending.charAt(i + 1));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.utils;
+
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.entity.chat.ChatCompletionFunction;
+import com.xu.chatgpt.entity.chat.ChatCompletionFunctionCall;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.exception.OpenAiException;
+import lombok.Getter;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counts the tokens of one model, with the {@link ModelType}, {@link Encoding} and per-message overhead resolved once.
+ *
+ * <p>Counters are cached per model and are thread-safe. See {@link TokenUtils} for the counting rules.
+ */
+public final class TokenCounter {
+
+    /**
+     * The tokens priming the reply of every conversation.
+     */
+    public static final int REPLY_PRIMED_NUM = 3;
+
+    /**
+     * The tokens wrapping the function definitions of a request, and each one of them.
+     */
+    private static final int FUNCTIONS_OVERHEAD = 12;
+    private static final int FUNCTION_OVERHEAD = 8;
+
+    /**
+     * The tokens wrapping the function call of a message.
+     */
+    private static final int FUNCTION_CALL_OVERHEAD = 4;
+
+    private static final ConcurrentMap<String, TokenCounter> COUNTERS = new ConcurrentHashMap<>();
+
+    @Getter
+    private final ModelType modelType;
+
+    private final Encoding encoding;
+    private final int tokensPerMessage;
+    private final int tokensPerName;
+
+    private TokenCounter(ModelType modelType, int tokensPerMessage, int tokensPerName) {
+        this.modelType = modelType;
+        this.encoding = TokenUtils.getEncoding(modelType);
+        this.tokensPerMessage = tokensPerMessage;
+        this.tokensPerName = tokensPerName;
+    }
+
+    /**
+     * Get the counter of the model.
+     *
+     * @param model the model name
+     * @return {@link TokenCounter}
+     * @throws OpenAiException if the model is unknown
+     */
+    public static TokenCounter of(String model) {
+        Assert.hasText(model, "model cannot empty.");
+        TokenCounter counter = COUNTERS.get(model);
+        return counter != null ? counter : COUNTERS.computeIfAbsent(model, TokenCounter::create);
+    }
+
+    /**
+     * Get the counter of the model, or of {@code fallback} if the model is unknown.
+     *
+     * @param model the model name
+     * @param fallback the model to count unknown models as
+     * @return {@link TokenCounter}
+     */
+    public static TokenCounter of(String model, ModelType fallback) {
+        TokenCounter counter = model == null ? null : COUNTERS.get(model);
+        if (counter != null) {
+            return counter;
+        }
+        return ModelType.fromName(model).isPresent() ? of(model) : of(fallback.getName());
+    }
+
+    private static TokenCounter create(String model) {
+        ModelType modelType =
+                ModelType.fromName(model).orElseThrow(() -> new OpenAiException("Unknown model " + model));
+        switch (model) {
+            case "gpt-3.5-turbo":
+            case "gpt-3.5-turbo-0301":
+                return new TokenCounter(modelType, 4, -1);
+            case "gpt-4":
+            case "gpt-4-0314":
+                return new TokenCounter(modelType, 3, 1);
+            default:
+                return new TokenCounter(modelType, 0, 0);
+        }
+    }
+
+    /**
+     * Count the tokens of {@code content}.
+     *
+     * @param content content
+     * @return the tokens, 0 if {@code content} is null or empty
+     */
+    public int count(String content) {
+        return content == null || content.isEmpty() ? 0 : TokenUtils.countTokens(encoding, content);
+    }
+
+    /**
+     * Count the tokens of one message, including the per-message overhead and its function call.
+     *
+     * @param message the message
+     * @return the tokens
+     */
+    public int count(ChatCompletionMessage message) {
+        String name = message.getName();
+        int tokens = tokensPerMessage + count(message.getRole()) + count(message.getContent()) + count(name);
+        ChatCompletionFunctionCall functionCall = message.getFunctionCall();
+        if (functionCall != null) {
+            tokens += FUNCTION_CALL_OVERHEAD + count(functionCall.getName()) + count(functionCall.getArguments());
+        }
+        return StringUtils.hasText(name) ? tokens + tokensPerName : tokens;
+    }
+
+    /**
+     * Count the tokens of the function definitions of a chat request.
+     *
+     * <p>The model reads the definitions in its own, more compact format, so counting their json overestimates them.
+     *
+     * @param functions the function definitions, null is counted as none
+     * @return the tokens
+     */
+    public long countFunctions(List<ChatCompletionFunction> functions) {
+        if (functions == null || functions.isEmpty()) {
+            return 0;
+        }
+        long tokens = FUNCTIONS_OVERHEAD;
+        for (int i = 0, size = functions.size(); i < size; i++) {
+            tokens += FUNCTION_OVERHEAD + count(JsonUtils.toJsonString(functions.get(i)));
+        }
+        return tokens;
+    }
+
+    /**
+     * Count the tokens of a conversation, including the tokens priming the reply.
+     *
+     * @param messages the messages, null is counted as none
+     * @return the tokens
+     */
+    public long count(List<ChatCompletionMessage> messages) {
+        long tokens = REPLY_PRIMED_NUM;
+        if (messages == null) {
+            return tokens;
+        }
+        for (int i = 0, size = messages.size(); i < size; i++) {
+            tokens += count(messages.get(i));
+        }
+        return tokens;
+    }
+
+    /**
+     * Start counting text which arrives in fragments, such as a streamed completion.
+     *
+     * @return {@link StreamingTokenCounter}
+     */
+    public StreamingTokenCounter streaming() {
+        return new StreamingTokenCounter(encoding);
+    }
+
+    /**
+     * Count the total tokens of several contents, such as embedding inputs.
+     *
+     * @param contents the contents, null is counted as none
+     * @return the tokens
+     */
+    public long countAll(Collection<String> contents) {
+        long tokens = 0;
+        if (contents == null) {
+            return tokens;
+        }
+        for (String content : contents) {
+            tokens += count(content);
+        }
+        return tokens;
+    }
+}
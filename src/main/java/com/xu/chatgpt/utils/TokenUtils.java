@@ -16,21 +16,24 @@
 
 package com.xu.chatgpt.utils;
 
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.knuddels.jtokkit.Encodings;
 import com.knuddels.jtokkit.api.Encoding;
 import com.knuddels.jtokkit.api.EncodingRegistry;
 import com.knuddels.jtokkit.api.ModelType;
 import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
-import com.xu.chatgpt.exception.OpenAiException;
-import java.util.HashMap;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import java.util.List;
 import java.util.Map;
-import java.util.function.ToIntFunction;
 
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.Assert;
-import org.springframework.util.StringUtils;
 
 /**
  * <a href="https://github.com/openai/openai-cookbook/blob/main/examples/How_to_count_tokens_with_tiktoken.ipynb">How_to_count_tokens_with_tiktoken</a>
@@ -76,15 +79,21 @@ import org.springframework.util.StringUtils;
 @UtilityClass
 public class TokenUtils {
 
-    private static final int REPLY_PRIMED_NUM = 3;
     private static final EncodingRegistry REGISTRY = Encodings.newDefaultEncodingRegistry();
-    private static final Map<String, ToIntFunction<String>> PER_MODEL_MAP = new HashMap<>(4);
+
+    /**
+     * Strings shorter than this are encoded directly, hashing them costs about as much as encoding.
+     */
+    private static final int MIN_CACHED_LENGTH = 32;
+
+    /**
+     * The token counts of recently seen strings, so only new messages of a conversation are encoded on each turn.
+     */
+    private static final Cache<TokenCountKey, Integer> TOKEN_COUNTS =
+            Caffeine.newBuilder().maximumSize(100_000).recordStats().build();
 
     static {
-        PER_MODEL_MAP.put("gpt-3.5-turbo", name -> 4 + (StringUtils.hasText(name) ? -1 : 0));
-        PER_MODEL_MAP.put("gpt-3.5-turbo-0301", name -> 4 + (StringUtils.hasText(name) ? -1 : 0));
-        PER_MODEL_MAP.put("gpt-4", name -> 3 + (StringUtils.hasText(name) ? 1 : 0));
-        PER_MODEL_MAP.put("gpt-4-0314", name -> 3 + (StringUtils.hasText(name) ? 1 : 0));
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, TOKEN_COUNTS, "gpt.tokens");
     }
 
     /**
@@ -111,11 +120,30 @@ public class TokenUtils {
      *
      * @param modelType {@link ModelType}
      * @param content content
-     * @return the tokens
+     * @return the tokens, 0 if {@code content} is null
      */
     public static Long tokens(ModelType modelType, String content) {
+        if (content == null) {
+            return 0L;
+        }
         Encoding encoding = getEncoding(modelType);
-        return (long) encoding.countTokens(content);
+        return (long) countTokens(encoding, content);
+    }
+
+    /**
+     * Count the tokens of {@code content}, cached by the encoding and the 128-bit hash of long content.
+     *
+     * @param encoding the encoding
+     * @param content content
+     * @return the tokens
+     */
+    public static int countTokens(Encoding encoding, String content) {
+        if (content.length() < MIN_CACHED_LENGTH) {
+            return encoding.countTokens(content);
+        }
+        long[] hash = MurmurHash.hash128(content);
+        TokenCountKey key = new TokenCountKey(encoding.getName(), content.length(), hash[0], hash[1]);
+        return TOKEN_COUNTS.get(key, k -> encoding.countTokens(content));
     }
 
     /**
@@ -126,9 +154,7 @@ public class TokenUtils {
      * @return the tokens
      */
     public static Long tokens(String modelTypeName, String content) {
-        ModelType modelType = ModelType.fromName(modelTypeName)
-                .orElseThrow(() -> new OpenAiException("Unknown model " + modelTypeName));
-        return tokens(modelType, content);
+        return (long) TokenCounter.of(modelTypeName).count(content);
     }
 
     /**
@@ -141,17 +167,16 @@ public class TokenUtils {
     public static Long tokens(String model, List<ChatCompletionMessage> messages) {
         Assert.hasText(model, "model cannot empty.");
         Assert.notEmpty(messages, "messages cannot empty.");
-        return REPLY_PRIMED_NUM
-                + messages.stream()
-                        .map(message -> {
-                            String name = message.getName();
-                            ToIntFunction<String> handler = PER_MODEL_MAP.getOrDefault(model, x -> 0);
-                            return handler.applyAsInt(name)
-                                    + tokens(model, name)
-                                    + tokens(model, message.getRole())
-                                    + tokens(model, message.getContent());
-                        })
-                        .mapToLong(Long::longValue)
-                        .sum();
+        return TokenCounter.of(model).count(messages);
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class TokenCountKey {
+
+        private final String encodingName;
+        private final int length;
+        private final long hash1;
+        private final long hash2;
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.utils;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual thread executors, resolved by reflection so the project still builds and runs on JDK 8.
+ */
+@Slf4j
+@UtilityClass
+public class VirtualThreadUtils {
+
+    /**
+     * Whether the running JDK supports virtual threads.
+     *
+     * @return true on JDK 21 or later
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether to run on virtual threads, falling back to platform threads with a warning
+     * if {@code virtualThreads} is requested on a JDK without virtual threads.
+     *
+     * @param virtualThreads whether virtual threads are requested, e.g. {@code gpt.virtual-threads}
+     * @return true if virtual threads are requested and supported
+     */
+    public static boolean isEnabled(boolean virtualThreads) {
+        if (virtualThreads && !isSupported()) {
+            log.warn("Virtual threads require JDK 21 or later, fall back to platform threads.");
+            return false;
+        }
+        return virtualThreads;
+    }
+
+    /**
+     * Create an executor which starts a new virtual thread for each task.
+     *
+     * @param prefix the thread name prefix, followed by a counter
+     * @return {@link ExecutorService}
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or later.", e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.vector;
+
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * An exact {@link VectorIndex}, which scans every vector on search.
+ *
+ * <p>Vectors are stored contiguously in primitive blocks of {@value #BLOCK_SIZE} vectors, so a scan is a
+ * sequential read with no object per vector. Searches do not lock; a vector becomes visible once
+ * the volatile size is published after it is written.
+ */
+public class FlatVectorIndex implements VectorIndex {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private final int dimensions;
+    private final int capacity;
+    private final float[][] blocks;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile int size;
+
+    /**
+     * Create an index.
+     *
+     * @param dimensions the dimensions of every vector
+     * @param capacity the maximum number of vectors
+     */
+    public FlatVectorIndex(int dimensions, int capacity) {
+        Assert.isTrue(dimensions > 0, "dimensions must be positive.");
+        Assert.isTrue(capacity > 0, "capacity must be positive.");
+        this.dimensions = dimensions;
+        this.capacity = capacity;
+        this.blocks = new float[(capacity + BLOCK_SIZE - 1) / BLOCK_SIZE][];
+    }
+
+    @Override
+    public int add(float[] vector) {
+        float[] normalized = VectorUtils.normalize(vector, dimensions);
+        lock.lock();
+        try {
+            int id = size;
+            Assert.state(id < capacity, "The index is full.");
+            int block = id / BLOCK_SIZE;
+            if (blocks[block] == null) {
+                blocks[block] = new float[BLOCK_SIZE * dimensions];
+            }
+            System.arraycopy(normalized, 0, blocks[block], (id % BLOCK_SIZE) * dimensions, dimensions);
+            size = id + 1;
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<VectorMatch> search(float[] query, int k, IntPredicate filter) {
+        float[] normalized = VectorUtils.normalize(query, dimensions);
+        PriorityQueue<VectorMatch> heap = VectorUtils.topK(k);
+        int count = size;
+        for (int id = 0; id < count; id++) {
+            if (filter.test(id)) {
+                float score = VectorUtils.dot(blocks[id / BLOCK_SIZE], (id % BLOCK_SIZE) * dimensions, normalized);
+                VectorUtils.offer(heap, k, id, score);
+            }
+        }
+        return VectorUtils.drain(heap);
+    }
+
+    /**
+     * Whether the index reached its capacity.
+     *
+     * @return true if full
+     */
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+}
@@ -0,0 +1,673 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.vector;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * An approximate {@link VectorIndex} on a Hierarchical Navigable Small World graph.
+ *
+ * <p>Vectors live in primitive blocks as in {@link FlatVectorIndex}; each node has a fixed-size neighbor array
+ * per level. Inserts run concurrently: a neighbor array is only read or written under the striped lock of its node,
+ * which also publishes the vectors of linked nodes to readers. The graph can be saved to and restored from a
+ * memory-mapped snapshot file.
+ */
+@Slf4j
+public class HnswVectorIndex implements VectorIndex {
+
+    private static final int MAGIC = 0x484e5357;
+    private static final int BLOCK_SIZE = 1024;
+    private static final int STRIPES = 1024;
+    private static final long WINDOW_SIZE = 256L << 20;
+
+    private final int dimensions;
+    private final int capacity;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final float[][] blocks;
+    private final int[][][] links;
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final ReentrantLock entryLock = new ReentrantLock();
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * The entry point, packed as {@code level << 32 | id}, or -1 if empty.
+     */
+    private volatile long entry = -1;
+
+    private volatile int efSearch;
+
+    /**
+     * Create an index.
+     *
+     * @param dimensions the dimensions of every vector
+     * @param capacity the maximum number of vectors
+     * @param m the number of neighbors per node and level, twice as many on level 0
+     * @param efConstruction the candidate list size while inserting
+     * @param efSearch the candidate list size while searching, at least {@code k}
+     */
+    public HnswVectorIndex(int dimensions, int capacity, int m, int efConstruction, int efSearch) {
+        Assert.isTrue(dimensions > 0, "dimensions must be positive.");
+        Assert.isTrue(capacity > 0, "capacity must be positive.");
+        Assert.isTrue(m > 1, "m must be greater than 1.");
+        this.dimensions = dimensions;
+        this.capacity = capacity;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.blocks = new float[(capacity + BLOCK_SIZE - 1) / BLOCK_SIZE][];
+        this.links = new int[capacity][][];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Create an index with {@code m = 16}, {@code efConstruction = 200} and {@code efSearch = 64}.
+     *
+     * @param dimensions the dimensions of every vector
+     * @param capacity the maximum number of vectors
+     */
+    public HnswVectorIndex(int dimensions, int capacity) {
+        this(dimensions, capacity, 16, 200, 64);
+    }
+
+    /**
+     * Change the candidate list size while searching, trading speed for recall.
+     *
+     * @param efSearch the candidate list size
+     */
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    @Override
+    public int add(float[] vector) {
+        float[] normalized = VectorUtils.normalize(vector, dimensions);
+        snapshotLock.readLock().lock();
+        try {
+            int id = nextId.getAndIncrement();
+            if (id >= capacity) {
+                nextId.decrementAndGet();
+                throw new IllegalStateException("The index is full.");
+            }
+            insert(id, normalized);
+            return id;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<VectorMatch> search(float[] query, int k, IntPredicate filter) {
+        float[] normalized = VectorUtils.normalize(query, dimensions);
+        long entryPoint = entry;
+        if (entryPoint < 0 || k <= 0) {
+            return new ArrayList<>();
+        }
+        int current = (int) entryPoint;
+        int[] buffer = new int[maxM0 + 1];
+        for (int level = (int) (entryPoint >>> 32); level > 0; level--) {
+            current = greedy(normalized, current, level, buffer);
+        }
+        LongHeap results = searchLayer(normalized, current, Math.max(efSearch, k), 0, filter, buffer);
+        while (results.size() > k) {
+            results.pop();
+        }
+        List<VectorMatch> matches = new ArrayList<>(results.size());
+        while (results.size() > 0) {
+            long key = results.pop();
+            matches.add(0, new VectorMatch(id(key), similarity(key)));
+        }
+        return matches;
+    }
+
+    @Override
+    public int size() {
+        return nextId.get();
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private void insert(int id, float[] vector) {
+        int block = id / BLOCK_SIZE;
+        if (blocks[block] == null) {
+            entryLock.lock();
+            try {
+                if (blocks[block] == null) {
+                    blocks[block] = new float[BLOCK_SIZE * dimensions];
+                }
+            } finally {
+                entryLock.unlock();
+            }
+        }
+        System.arraycopy(vector, 0, blocks[block], (id % BLOCK_SIZE) * dimensions, dimensions);
+
+        int nodeLevel = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        int[][] nodeLinks = new int[nodeLevel + 1][];
+        for (int level = 0; level <= nodeLevel; level++) {
+            nodeLinks[level] = new int[maxM(level) + 1];
+        }
+        links[id] = nodeLinks;
+
+        long entryPoint = entry;
+        if (entryPoint < 0) {
+            entryLock.lock();
+            try {
+                entryPoint = entry;
+                if (entryPoint < 0) {
+                    entry = pack(nodeLevel, id);
+                    return;
+                }
+            } finally {
+                entryLock.unlock();
+            }
+        }
+
+        int entryLevel = (int) (entryPoint >>> 32);
+        int current = (int) entryPoint;
+        int[] buffer = new int[maxM0 + 1];
+        for (int level = entryLevel; level > nodeLevel; level--) {
+            current = greedy(vector, current, level, buffer);
+        }
+        for (int level = Math.min(nodeLevel, entryLevel); level >= 0; level--) {
+            LongHeap candidates = searchLayer(vector, current, efConstruction, level, null, buffer);
+            long[] sorted = candidates.drainDescending();
+            current = id(sorted[0]);
+            for (int neighbor : selectNeighbors(sorted, m)) {
+                link(id, neighbor, level);
+                link(neighbor, id, level);
+            }
+        }
+
+        if (nodeLevel > entryLevel) {
+            entryLock.lock();
+            try {
+                if (nodeLevel > (int) (entry >>> 32)) {
+                    entry = pack(nodeLevel, id);
+                }
+            } finally {
+                entryLock.unlock();
+            }
+        }
+    }
+
+    private int greedy(float[] query, int start, int level, int[] buffer) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int count = neighbors(current, level, buffer);
+            for (int i = 1; i <= count; i++) {
+                float score = similarity(query, buffer[i]);
+                if (score > best) {
+                    best = score;
+                    current = buffer[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Search one level from {@code start}.
+     *
+     * @return a min-heap of at most {@code ef} packed matches, whose head is the least similar
+     */
+    private LongHeap searchLayer(float[] query, int start, int ef, int level, IntPredicate filter, int[] buffer) {
+        BitSet visited = new BitSet(nextId.get());
+        LongHeap candidates = new LongHeap(ef * 2);
+        LongHeap results = new LongHeap(ef + 1);
+        long startKey = pack(similarity(query, start), start);
+        visited.set(start);
+        candidates.push(-startKey);
+        if (filter == null || filter.test(start)) {
+            results.push(startKey);
+        }
+        while (candidates.size() > 0) {
+            long candidate = -candidates.pop();
+            if (results.size() >= ef && similarity(candidate) < similarity(results.peek())) {
+                break;
+            }
+            int count = neighbors(id(candidate), level, buffer);
+            for (int i = 1; i <= count; i++) {
+                int neighbor = buffer[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = similarity(query, neighbor);
+                if (results.size() < ef || score > similarity(results.peek())) {
+                    long key = pack(score, neighbor);
+                    candidates.push(-key);
+                    if (filter == null || filter.test(neighbor)) {
+                        results.push(key);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Pick up to {@code count} diverse neighbors: a candidate is skipped when it is closer to an already picked
+     * neighbor than to the new node, then the skipped ones fill the remaining slots.
+     */
+    private int[] selectNeighbors(long[] sortedCandidates, int count) {
+        int[] selected = new int[Math.min(count, sortedCandidates.length)];
+        boolean[] taken = new boolean[sortedCandidates.length];
+        int size = 0;
+        for (int i = 0; i < sortedCandidates.length && size < selected.length; i++) {
+            int candidate = id(sortedCandidates[i]);
+            float score = similarity(sortedCandidates[i]);
+            boolean diverse = true;
+            for (int j = 0; j < size && diverse; j++) {
+                diverse = similarity(candidate, selected[j]) <= score;
+            }
+            if (diverse) {
+                selected[size++] = candidate;
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < sortedCandidates.length && size < selected.length; i++) {
+            if (!taken[i]) {
+                selected[size++] = id(sortedCandidates[i]);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Add {@code target} to the neighbors of {@code node}, selecting them again when full.
+     */
+    private void link(int node, int target, int level) {
+        ReentrantLock lock = lock(node);
+        lock.lock();
+        try {
+            int[] neighbors = links[node][level];
+            int count = neighbors[0];
+            for (int i = 1; i <= count; i++) {
+                if (neighbors[i] == target) {
+                    return;
+                }
+            }
+            if (count < neighbors.length - 1) {
+                neighbors[count + 1] = target;
+                neighbors[0] = count + 1;
+                return;
+            }
+            LongHeap candidates = new LongHeap(count + 1);
+            candidates.push(pack(similarity(node, target), target));
+            for (int i = 1; i <= count; i++) {
+                candidates.push(pack(similarity(node, neighbors[i]), neighbors[i]));
+            }
+            int[] selected = selectNeighbors(candidates.drainDescending(), count);
+            System.arraycopy(selected, 0, neighbors, 1, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy the neighbors of {@code node} into {@code buffer} from index 1.
+     *
+     * @return the number of neighbors
+     */
+    private int neighbors(int node, int level, int[] buffer) {
+        int[][] nodeLinks = links[node];
+        if (level >= nodeLinks.length) {
+            return 0;
+        }
+        ReentrantLock lock = lock(node);
+        lock.lock();
+        try {
+            int[] neighbors = nodeLinks[level];
+            int count = neighbors[0];
+            System.arraycopy(neighbors, 1, buffer, 1, count);
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private float similarity(float[] query, int node) {
+        return VectorUtils.dot(blocks[node / BLOCK_SIZE], (node % BLOCK_SIZE) * dimensions, query, 0, dimensions);
+    }
+
+    private float similarity(int a, int b) {
+        return VectorUtils.dot(
+                blocks[a / BLOCK_SIZE],
+                (a % BLOCK_SIZE) * dimensions,
+                blocks[b / BLOCK_SIZE],
+                (b % BLOCK_SIZE) * dimensions,
+                dimensions);
+    }
+
+    private int maxM(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private ReentrantLock lock(int node) {
+        return locks[node & (STRIPES - 1)];
+    }
+
+    /**
+     * Save the index to a snapshot file, replaced atomically. Inserts wait until the snapshot is written.
+     *
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        snapshotLock.writeLock().lock();
+        try {
+            int size = nextId.get();
+            long length = 4L * 5 + 8 + (long) size * dimensions * Float.BYTES;
+            for (int id = 0; id < size; id++) {
+                length += 4;
+                for (int[] neighbors : links[id]) {
+                    length += 4L * (neighbors[0] + 1);
+                }
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(
+                    temp,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedCursor cursor = new MappedCursor(channel, FileChannel.MapMode.READ_WRITE, length);
+                cursor.putInt(MAGIC);
+                cursor.putInt(dimensions);
+                cursor.putInt(m);
+                cursor.putInt(efConstruction);
+                cursor.putInt(size);
+                cursor.putLong(entry);
+                for (int id = 0; id < size; id++) {
+                    cursor.putFloats(blocks[id / BLOCK_SIZE], (id % BLOCK_SIZE) * dimensions, dimensions);
+                }
+                for (int id = 0; id < size; id++) {
+                    cursor.putInt(links[id].length);
+                    for (int[] neighbors : links[id]) {
+                        cursor.putInts(neighbors, 0, neighbors[0] + 1);
+                    }
+                }
+                cursor.force();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Saved {} vectors to {}.", size, file);
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restore an index from a snapshot file written by {@link #save(Path)}.
+     *
+     * @param file the snapshot file
+     * @param capacity the maximum number of vectors, at least the number of saved vectors
+     * @param efSearch the candidate list size while searching
+     * @return {@link HnswVectorIndex}
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static HnswVectorIndex restore(Path file, int capacity, int efSearch) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedCursor cursor = new MappedCursor(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+            if (cursor.getInt() != MAGIC) {
+                throw new IOException("Not an hnsw snapshot file: " + file);
+            }
+            int dimensions = cursor.getInt();
+            int m = cursor.getInt();
+            int efConstruction = cursor.getInt();
+            int size = cursor.getInt();
+            long entry = cursor.getLong();
+            Assert.isTrue(capacity >= size, () -> "capacity must be at least " + size + ".");
+
+            HnswVectorIndex index = new HnswVectorIndex(dimensions, capacity, m, efConstruction, efSearch);
+            for (int id = 0; id < size; id++) {
+                int block = id / BLOCK_SIZE;
+                if (index.blocks[block] == null) {
+                    index.blocks[block] = new float[BLOCK_SIZE * dimensions];
+                }
+                cursor.getFloats(index.blocks[block], (id % BLOCK_SIZE) * dimensions, dimensions);
+            }
+            for (int id = 0; id < size; id++) {
+                int[][] nodeLinks = new int[cursor.getInt()][];
+                for (int level = 0; level < nodeLinks.length; level++) {
+                    nodeLinks[level] = new int[index.maxM(level) + 1];
+                    int count = cursor.getInt();
+                    nodeLinks[level][0] = count;
+                    cursor.getInts(nodeLinks[level], 1, count);
+                }
+                index.links[id] = nodeLinks;
+            }
+            index.nextId.set(size);
+            index.entry = entry;
+            log.info("Restored {} vectors from {}.", size, file);
+            return index;
+        }
+    }
+
+    private static long pack(int level, int id) {
+        return ((long) level << 32) | (id & 0xffffffffL);
+    }
+
+    /**
+     * Pack a similarity and an id into a long which sorts by similarity.
+     */
+    private static long pack(float similarity, int id) {
+        int bits = Float.floatToRawIntBits(similarity);
+        return ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | (id & 0xffffffffL);
+    }
+
+    private static float similarity(long key) {
+        int bits = (int) (key >> 32);
+        return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7fffffff));
+    }
+
+    private static int id(long key) {
+        return (int) key;
+    }
+
+    /**
+     * A binary min-heap of primitive longs.
+     */
+    private static final class LongHeap {
+
+        private long[] heap;
+        private int size;
+
+        private LongHeap(int capacity) {
+            this.heap = new long[Math.max(capacity, 4)];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private long peek() {
+            return heap[0];
+        }
+
+        private void push(long value) {
+            if (size == heap.length) {
+                heap = java.util.Arrays.copyOf(heap, size << 1);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+
+        private long pop() {
+            long top = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (last <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        /**
+         * Empty the heap, the largest first.
+         */
+        private long[] drainDescending() {
+            long[] values = new long[size];
+            for (int i = values.length - 1; i >= 0; i--) {
+                values[i] = pop();
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Sequential access to a file through memory-mapped windows, so files over 2GB are supported.
+     */
+    private static final class MappedCursor {
+
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long length;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        private MappedCursor(FileChannel channel, FileChannel.MapMode mode, long length) throws IOException {
+            this.channel = channel;
+            this.mode = mode;
+            this.length = length;
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            if (window != null && mode == FileChannel.MapMode.READ_WRITE) {
+                window.force();
+            }
+            windowStart = position;
+            window = channel.map(mode, position, Math.min(WINDOW_SIZE, length - position));
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                map(windowStart + window.position());
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            window.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            window.putLong(value);
+        }
+
+        private void putInts(int[] values, int offset, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                putInt(values[offset + i]);
+            }
+        }
+
+        private void putFloats(float[] values, int offset, int count) throws IOException {
+            while (count > 0) {
+                ensure(Float.BYTES);
+                int n = Math.min(count, window.remaining() / Float.BYTES);
+                window.asFloatBuffer().put(values, offset, n);
+                window.position(window.position() + n * Float.BYTES);
+                offset += n;
+                count -= n;
+            }
+        }
+
+        private int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        private long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        private void getInts(int[] values, int offset, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                values[offset + i] = getInt();
+            }
+        }
+
+        private void getFloats(float[] values, int offset, int count) throws IOException {
+            while (count > 0) {
+                ensure(Float.BYTES);
+                int n = Math.min(count, window.remaining() / Float.BYTES);
+                window.asFloatBuffer().get(values, offset, n);
+                window.position(window.position() + n * Float.BYTES);
+                offset += n;
+                count -= n;
+            }
+        }
+
+        private void force() {
+            window.force();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.vector;
+
+import com.xu.chatgpt.entity.embeddings.EmbeddingData;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * An append-only index of {@code float[]} vectors, searched by cosine similarity.
+ *
+ * <p>Vectors are identified by the sequential id returned from {@link #add(float[])}, starting at 0.
+ * Implementations are safe for concurrent adds and searches.
+ */
+public interface VectorIndex {
+
+    /**
+     * Add a vector, normalized to unit length by the index.
+     *
+     * @param vector the vector, with {@link #dimensions()} floats
+     * @return the id of the vector
+     */
+    int add(float[] vector);
+
+    /**
+     * Add the vectors of an embedding response.
+     *
+     * @param response {@link EmbeddingResponse}
+     * @return the ids of the vectors, in the order of {@link EmbeddingData#getIndex()}
+     */
+    default int[] addAll(EmbeddingResponse response) {
+        List<EmbeddingData> data = new ArrayList<>(response.getData());
+        data.sort(Comparator.comparing(EmbeddingData::getIndex));
+        int[] ids = new int[data.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = add(data.get(i).getVector());
+        }
+        return ids;
+    }
+
+    /**
+     * Find the {@code k} vectors most similar to {@code query}.
+     *
+     * @param query the query vector, with {@link #dimensions()} floats
+     * @param k the maximum number of matches
+     * @param filter the ids which may match
+     * @return the matches, the most similar first
+     */
+    List<VectorMatch> search(float[] query, int k, IntPredicate filter);
+
+    /**
+     * Find the {@code k} vectors most similar to {@code query}.
+     *
+     * @param query the query vector, with {@link #dimensions()} floats
+     * @param k the maximum number of matches
+     * @return the matches, the most similar first
+     */
+    default List<VectorMatch> search(float[] query, int k) {
+        return search(query, k, id -> true);
+    }
+
+    /**
+     * Get the number of vectors.
+     *
+     * @return the number of vectors
+     */
+    int size();
+
+    /**
+     * Get the dimensions of every vector.
+     *
+     * @return the dimensions
+     */
+    int dimensions();
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023 lzhpo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xu.chatgpt.vector;
+
+import lombok.experimental.UtilityClass;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Vector math for {@link VectorIndex} implementations.
+ */
+@UtilityClass
+public class VectorUtils {
+
+    static final Comparator<VectorMatch> BY_SCORE = Comparator.comparingDouble(VectorMatch::getScore);
+
+    /**
+     * Dot product of {@code a} at {@code offset} and {@code b}, over {@code b.length} floats.
+     *
+     * <p>Four independent accumulators break the add dependency chain, so the JIT can pipeline
+     * and vectorize the loop.
+     *
+     * @param a the first vector, or a block of vectors
+     * @param offset the offset of the first vector in {@code a}
+     * @param b the second vector
+     * @return the dot product
+     */
+    public static float dot(float[] a, int offset, float[] b) {
+        return dot(a, offset, b, 0, b.length);
+    }
+
+    /**
+     * Dot product of {@code length} floats of {@code a} at {@code aOffset} and {@code b} at {@code bOffset}.
+     *
+     * @param a the first vector, or a block of vectors
+     * @param aOffset the offset of the first vector in {@code a}
+     * @param b the second vector, or a block of vectors
+     * @param bOffset the offset of the second vector in {@code b}
+     * @param length the dimensions
+     * @return the dot product
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int bound = length & ~3;
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Copy the vector scaled to unit length, so cosine similarity becomes a dot product.
+     *
+     * @param vector the vector
+     * @param dimensions the expected dimensions
+     * @return the normalized copy
+     */
+    public static float[] normalize(float[] vector, int dimensions) {
+        Assert.isTrue(vector != null && vector.length == dimensions, () -> "Vector must have " + dimensions + " dimensions.");
+        float norm = (float) Math.sqrt(dot(vector, 0, vector));
+        float[] normalized = new float[dimensions];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < dimensions; i++) {
+            normalized[i] = vector[i] / norm;
+        }
+        return normalized;
+    }
+
+    /**
+     * Create a bounded min-heap of matches, whose head is the least similar.
+     */
+    static PriorityQueue<VectorMatch> topK(int k) {
+        return new PriorityQueue<>(k + 1, BY_SCORE);
+    }
+
+    /**
+     * Offer a match to a heap from {@link #topK(int)}, keeping the {@code k} most similar.
+     */
+    static void offer(PriorityQueue<VectorMatch> heap, int k, int id, float score) {
+        if (heap.size() < k) {
+            heap.add(new VectorMatch(id, score));
+        } else if (score > heap.peek().getScore()) {
+            heap.poll();
+            heap.add(new VectorMatch(id, score));
+        }
+    }
+
+    /**
+     * Drain a heap from {@link #topK(int)}, the most similar first.
+     */
+    static List<VectorMatch> drain(PriorityQueue<VectorMatch> heap) {
+        List<VectorMatch> matches = new ArrayList<>(heap);
+        matches.sort(Collections.reverseOrder(BY_SCORE));
+        return matches;
+    }
+}
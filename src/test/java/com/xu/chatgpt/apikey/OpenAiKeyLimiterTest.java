@@ -0,0 +1,119 @@
+package com.xu.chatgpt.apikey;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OpenAiKeyLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final OpenAiKeyLimiter limiter = new OpenAiKeyLimiter();
+    private final long now = System.nanoTime();
+
+    @Test
+    void fullBucketTakesOneMinuteOfRequests() {
+        for (int i = 0; i < 60; i++) {
+            assertThat(limiter.tryAcquire(60, 0, 0, now)).isTrue();
+        }
+        assertThat(limiter.tryAcquire(60, 0, 0, now)).isFalse();
+        assertThat(limiter.nanosUntilAvailable(60, 0, 0, now)).isEqualTo(SECOND);
+
+        // One request per second drips back in.
+        assertThat(limiter.tryAcquire(60, 0, 0, now + SECOND / 2)).isFalse();
+        assertThat(limiter.tryAcquire(60, 0, 0, now + SECOND)).isTrue();
+        assertThat(limiter.tryAcquire(60, 0, 0, now + SECOND)).isFalse();
+    }
+
+    @Test
+    void tokensAreReservedUpFront() {
+        assertThat(limiter.tryAcquire(0, 1000, 600, now)).isTrue();
+        assertThat(limiter.tryAcquire(0, 1000, 600, now)).isFalse();
+        assertThat(limiter.tryAcquire(0, 1000, 400, now)).isTrue();
+
+        assertThat(limiter.nanosUntilAvailable(0, 1000, 600, now)).isEqualTo(600 * (MINUTE / 1000));
+        assertThat(limiter.tryAcquire(0, 1000, 600, now + 600 * (MINUTE / 1000))).isTrue();
+    }
+
+    @Test
+    void deniedTokensRefundTheRequest() {
+        assertThat(limiter.tryAcquire(2, 100, 100, now)).isTrue();
+        // The request fits, but its tokens do not, so the request is given back.
+        assertThat(limiter.tryAcquire(2, 100, 1, now)).isFalse();
+
+        assertThat(limiter.tryAcquire(2, 0, 0, now)).isTrue();
+        assertThat(limiter.tryAcquire(2, 0, 0, now)).isFalse();
+    }
+
+    @Test
+    void requestLargerThanTheBudgetIsAllowedOnceFull() {
+        assertThat(limiter.nanosUntilAvailable(0, 100, 500, now)).isZero();
+        assertThat(limiter.tryAcquire(0, 100, 500, now)).isTrue();
+
+        assertThat(limiter.tryAcquire(0, 100, 1, now)).isFalse();
+        assertThat(limiter.nanosUntilAvailable(0, 100, 500, now)).isEqualTo(MINUTE);
+        assertThat(limiter.tryAcquire(0, 100, 500, now + MINUTE)).isTrue();
+    }
+
+    @Test
+    void unlimitedWithoutBudgets() {
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(limiter.tryAcquire(0, 0, 1_000_000, now)).isTrue();
+        }
+        assertThat(limiter.nanosUntilAvailable(0, 0, 1_000_000, now)).isZero();
+    }
+
+    @Test
+    void concurrentReservationsNeverExceedTheBudget() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                tasks.add(() -> {
+                    int acquired = 0;
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.tryAcquire(1000, 0, 0, now)) {
+                            acquired++;
+                        }
+                    }
+                    return acquired;
+                });
+            }
+            int acquired = 0;
+            for (Future<Integer> future : executor.invokeAll(tasks)) {
+                acquired += future.get();
+            }
+            assertThat(acquired).isEqualTo(1000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void selectorFallsBackToAKeyWithBudget() {
+        OpenAiKey limited = OpenAiKey.builder().key("limited").weight(1000).rpm(1).build();
+        OpenAiKey spare = OpenAiKey.builder().key("spare").weight(1).rpm(1).build();
+        OpenAiKeySelector selector = OpenAiKeySelector.of(
+                Arrays.asList(limited, spare),
+                apiKey -> false,
+                OpenAiKeyQuarantine.FOREVER,
+                OpenAiKeyBalance.WEIGHTED_RANDOM,
+                apiKey -> new OpenAiKeyStats());
+
+        List<String> picks = Arrays.asList(selector.next(), selector.next());
+        assertThat(picks).containsExactlyInAnyOrder("limited", "spare");
+        assertThat(selector.next()).isNull();
+        assertThat(selector.nanosUntilAvailable(0, System.nanoTime())).isPositive();
+    }
+}
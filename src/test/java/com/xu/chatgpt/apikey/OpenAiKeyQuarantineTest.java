@@ -0,0 +1,76 @@
+package com.xu.chatgpt.apikey;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OpenAiKeyQuarantineTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final OpenAiKeyQuarantine quarantine = new OpenAiKeyQuarantine();
+
+    @Test
+    void keyRejoinsAfterItsTtl() {
+        long now = System.nanoTime();
+        quarantine.add("a", Duration.ofSeconds(10));
+
+        assertThat(quarantine.contains("a", now)).isTrue();
+        assertThat(quarantine.keys()).containsExactly("a");
+        assertThat(quarantine.contains("a", now + 11 * SECOND)).isFalse();
+        // The expired entry is removed on lookup.
+        assertThat(quarantine.remove("a")).isFalse();
+        assertThat(quarantine.contains("b", now)).isFalse();
+    }
+
+    @Test
+    void keyWithoutTtlNeverRejoins() {
+        long now = System.nanoTime();
+        quarantine.add("a", null);
+
+        assertThat(quarantine.contains("a", now + TimeUnit.DAYS.toNanos(365 * 100))).isTrue();
+        assertThat(quarantine.nextExpiry(now)).isEqualTo(OpenAiKeyQuarantine.FOREVER);
+        assertThat(OpenAiKeyQuarantine.isExpired(OpenAiKeyQuarantine.FOREVER, Long.MAX_VALUE)).isFalse();
+        assertThat(OpenAiKeyQuarantine.isExpired(OpenAiKeyQuarantine.FOREVER, Long.MIN_VALUE)).isFalse();
+    }
+
+    @Test
+    void longerQuarantineIsKept() {
+        long now = System.nanoTime();
+        quarantine.add("a", Duration.ofSeconds(10));
+        quarantine.add("a", Duration.ofSeconds(1));
+        assertThat(quarantine.contains("a", now + 5 * SECOND)).isTrue();
+
+        quarantine.add("b", null);
+        quarantine.add("b", Duration.ofSeconds(1));
+        assertThat(quarantine.contains("b", now + 5 * SECOND)).isTrue();
+
+        quarantine.add("c", Duration.ofSeconds(1));
+        quarantine.add("c", null);
+        assertThat(quarantine.contains("c", now + 5 * SECOND)).isTrue();
+    }
+
+    @Test
+    void nextExpiryIsTheEarliestPendingDeadline() {
+        long now = System.nanoTime();
+        quarantine.add("forever", null);
+        quarantine.add("short", Duration.ofSeconds(1));
+        quarantine.add("long", Duration.ofSeconds(10));
+
+        assertThat(quarantine.nextExpiry(now)).isBetween(now + SECOND, now + 2 * SECOND);
+        assertThat(quarantine.nextExpiry(now + 5 * SECOND)).isBetween(now + 10 * SECOND, now + 11 * SECOND);
+        assertThat(quarantine.nextExpiry(now + 20 * SECOND)).isEqualTo(OpenAiKeyQuarantine.FOREVER);
+    }
+
+    @Test
+    void removedKeyRejoinsImmediately() {
+        quarantine.add("a", null);
+
+        assertThat(quarantine.remove("a")).isTrue();
+        assertThat(quarantine.contains("a", System.nanoTime())).isFalse();
+        assertThat(quarantine.remove("a")).isFalse();
+    }
+}
@@ -0,0 +1,209 @@
+package com.xu.chatgpt.apikey;
+
+import com.xu.chatgpt.properties.OpenAiProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class OpenAiKeySelectorTest {
+
+    private final Map<String, OpenAiKeyStats> stats = new ConcurrentHashMap<>();
+
+    @Test
+    void picksByWeight() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("a", 1), key("b", 2), key("c", 7), key("d", 0));
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.WEIGHTED_RANDOM);
+
+        Map<String, Integer> picks = pick(selector, 100_000);
+
+        assertThat(picks).doesNotContainKey("d");
+        assertThat(picks.get("a") / 100_000.0).isCloseTo(0.1, within(0.01));
+        assertThat(picks.get("b") / 100_000.0).isCloseTo(0.2, within(0.01));
+        assertThat(picks.get("c") / 100_000.0).isCloseTo(0.7, within(0.01));
+    }
+
+    @Test
+    void skipsDisabledAndExcludedKeys() {
+        OpenAiKey disabled = key("b", 1);
+        disabled.setEnabled(false);
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("a", 1), disabled, key("c", 1));
+        OpenAiKeySelector selector = OpenAiKeySelector.of(
+                openAiKeys,
+                "c"::equals,
+                OpenAiKeyQuarantine.FOREVER,
+                OpenAiKeyBalance.WEIGHTED_RANDOM,
+                apiKey -> stats.computeIfAbsent(apiKey, k -> new OpenAiKeyStats()));
+
+        assertThat(selector.size()).isEqualTo(1);
+        assertThat(pick(selector, 100)).containsOnlyKeys("a");
+    }
+
+    @Test
+    void staleOnlyWhenTheKeysChange() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("a", 1), key("b", 1));
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.WEIGHTED_RANDOM);
+
+        assertThat(selector.isStale(openAiKeys)).isFalse();
+        // A provider which loads the keys again returns an equal, new list.
+        assertThat(selector.isStale(Arrays.asList(key("a", 1), key("b", 1)))).isFalse();
+        assertThat(selector.isStale(Arrays.asList(key("a", 1)))).isTrue();
+        assertThat(selector.isStale(Arrays.asList(key("a", 1), key("c", 1)))).isTrue();
+        assertThat(selector.isStale(Arrays.asList(key("b", 1), key("a", 1)))).isTrue();
+        assertThat(OpenAiKeySelector.stale().isStale(openAiKeys)).isTrue();
+    }
+
+    @Test
+    void staleWhenTheKeysChangeInPlace() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("a", 1), key("b", 1));
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.WEIGHTED_RANDOM);
+
+        openAiKeys.get(1).setWeight(2);
+        assertThat(selector.isStale(openAiKeys)).isTrue();
+
+        selector = selector(openAiKeys, OpenAiKeyBalance.WEIGHTED_RANDOM);
+        openAiKeys.get(0).setEnabled(false);
+        assertThat(selector.isStale(openAiKeys)).isTrue();
+
+        selector = selector(openAiKeys, OpenAiKeyBalance.WEIGHTED_RANDOM);
+        openAiKeys.set(0, key("c", 1));
+        assertThat(selector.isStale(openAiKeys)).isTrue();
+    }
+
+    @Test
+    void wrapperKeepsTheSelectorOfAProviderReturningNewLists() {
+        OpenAiKeyWrapper wrapper = new OpenAiKeyWrapper(
+                () -> Arrays.asList(key("a", 1), key("b", 1)), new OpenAiProperties());
+
+        OpenAiKeySelector selector = wrapper.wrap();
+        assertThat(wrapper.wrap()).isSameAs(selector);
+
+        wrapper.refresh();
+        assertThat(wrapper.wrap()).isNotSameAs(selector);
+    }
+
+    @Test
+    void staleWhenAnExcludedKeyRejoins() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("a", 1), key("b", 1));
+        OpenAiKeySelector selector = OpenAiKeySelector.of(
+                openAiKeys,
+                "b"::equals,
+                System.nanoTime() - 1,
+                OpenAiKeyBalance.WEIGHTED_RANDOM,
+                apiKey -> stats.computeIfAbsent(apiKey, k -> new OpenAiKeyStats()));
+
+        assertThat(selector.isStale(openAiKeys)).isTrue();
+    }
+
+    @Test
+    void noAvailableKey() {
+        OpenAiKey disabled = key("a", 1);
+        disabled.setEnabled(false);
+        OpenAiKeySelector selector = selector(Arrays.asList(disabled), OpenAiKeyBalance.WEIGHTED_RANDOM);
+
+        assertThat(selector.size()).isZero();
+        assertThat(selector.next()).isNull();
+    }
+
+    @Test
+    void powerOfTwoChoicesAvoidsTheSlowKey() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("fast", 1), key("slow", 1));
+        record("fast", TimeUnit.MILLISECONDS.toNanos(50), 200);
+        record("slow", TimeUnit.SECONDS.toNanos(2), 200);
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.POWER_OF_TWO_CHOICES);
+
+        // The slow key is only used when both choices are the slow key.
+        Map<String, Integer> picks = pick(selector, 100_000);
+        assertThat(picks.get("slow") / 100_000.0).isCloseTo(0.25, within(0.01));
+    }
+
+    @Test
+    void powerOfTwoChoicesAvoidsTheRateLimitedKey() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("ok", 1), key("limited", 1));
+        record("ok", TimeUnit.MILLISECONDS.toNanos(100), 200);
+        record("limited", TimeUnit.MILLISECONDS.toNanos(50), 429);
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.POWER_OF_TWO_CHOICES);
+
+        Map<String, Integer> picks = pick(selector, 100_000);
+        assertThat(picks.get("limited") / 100_000.0).isCloseTo(0.25, within(0.01));
+    }
+
+    @Test
+    void powerOfTwoChoicesIsWeightedWithoutLatencyData() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("a", 1), key("b", 1));
+        record("a", TimeUnit.SECONDS.toNanos(2), 200);
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.POWER_OF_TWO_CHOICES);
+
+        Map<String, Integer> picks = pick(selector, 100_000);
+        assertThat(picks.get("a") / 100_000.0).isCloseTo(0.5, within(0.01));
+    }
+
+    @Test
+    void leastOutstandingPicksTheLeastLoadedKeyByWeight() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("busy", 1), key("idle", 1), key("large", 10));
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.LEAST_OUTSTANDING);
+        for (int i = 0; i < 5; i++) {
+            stats("busy").acquire();
+            stats("large").acquire();
+        }
+
+        // busy: 6 / 1, idle: 1 / 1, large: 6 / 10.
+        assertThat(pick(selector, 1000)).containsOnlyKeys("large");
+
+        for (int i = 0; i < 5; i++) {
+            stats("large").acquire();
+        }
+        // large: 11 / 10.
+        assertThat(pick(selector, 1000)).containsOnlyKeys("idle");
+    }
+
+    @Test
+    void leastOutstandingAvoidsTheRateLimitedKey() {
+        List<OpenAiKey> openAiKeys = Arrays.asList(key("ok", 1), key("limited", 1));
+        record("limited", TimeUnit.MILLISECONDS.toNanos(50), 429);
+        stats("ok").acquire();
+        OpenAiKeySelector selector = selector(openAiKeys, OpenAiKeyBalance.LEAST_OUTSTANDING);
+
+        // ok: 2 in flight, limited: 1 in flight penalized by its error rate.
+        assertThat(pick(selector, 1000)).containsOnlyKeys("ok");
+    }
+
+    private void record(String apiKey, long latencyNanos, int code) {
+        OpenAiKeyStats keyStats = stats(apiKey);
+        keyStats.acquire();
+        keyStats.record(System.nanoTime() - latencyNanos, code);
+        keyStats.release();
+    }
+
+    private OpenAiKeyStats stats(String apiKey) {
+        return stats.computeIfAbsent(apiKey, k -> new OpenAiKeyStats());
+    }
+
+    private OpenAiKeySelector selector(List<OpenAiKey> openAiKeys, OpenAiKeyBalance balance) {
+        return OpenAiKeySelector.of(
+                openAiKeys,
+                apiKey -> false,
+                OpenAiKeyQuarantine.FOREVER,
+                balance,
+                apiKey -> stats.computeIfAbsent(apiKey, k -> new OpenAiKeyStats()));
+    }
+
+    private static Map<String, Integer> pick(OpenAiKeySelector selector, int times) {
+        Map<String, Integer> picks = new HashMap<>();
+        for (int i = 0; i < times; i++) {
+            picks.merge(selector.next(), 1, Integer::sum);
+        }
+        return picks;
+    }
+
+    private static OpenAiKey key(String key, double weight) {
+        return OpenAiKey.builder().key(key).weight(weight).build();
+    }
+}
@@ -0,0 +1,67 @@
+package com.xu.chatgpt.apikey;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class OpenAiKeyStatsTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final OpenAiKeyStats stats = new OpenAiKeyStats();
+
+    @Test
+    void firstResponseSetsTheLatency() {
+        assertThat(stats.hasData()).isFalse();
+
+        stats.record(System.nanoTime() - 100 * MILLISECOND, 200);
+
+        assertThat(stats.hasData()).isTrue();
+        assertThat(stats.getLatency()).isBetween(100.0 * MILLISECOND, 150.0 * MILLISECOND);
+        assertThat(stats.getErrorRate()).isZero();
+    }
+
+    @Test
+    void latencyDecaysTowardsNewResponses() {
+        stats.record(System.nanoTime() - 100 * MILLISECOND, 200);
+        for (int i = 0; i < 100; i++) {
+            stats.record(System.nanoTime() - 1000 * MILLISECOND, 200);
+        }
+
+        // Back to back responses barely move the average, which decays with time rather than per response.
+        assertThat(stats.getLatency()).isBetween(100.0 * MILLISECOND, 1000.0 * MILLISECOND);
+    }
+
+    @Test
+    void rateLimitsAndFailuresAreErrors() {
+        stats.record(System.nanoTime(), 429);
+        assertThat(stats.getErrorRate()).isCloseTo(1, within(1e-9));
+
+        OpenAiKeyStats failed = new OpenAiKeyStats();
+        failed.record(System.nanoTime(), 0);
+        assertThat(failed.getErrorRate()).isCloseTo(1, within(1e-9));
+
+        OpenAiKeyStats badRequest = new OpenAiKeyStats();
+        badRequest.record(System.nanoTime(), 400);
+        assertThat(badRequest.getErrorRate()).isZero();
+    }
+
+    @Test
+    void costGrowsWithInFlightRequestsAndErrors() {
+        stats.record(System.nanoTime() - 100 * MILLISECOND, 200);
+        double idle = stats.cost();
+
+        stats.acquire();
+        assertThat(stats.getInFlight()).isEqualTo(1);
+        assertThat(stats.cost()).isCloseTo(2 * idle, within(idle * 1e-9));
+        stats.release();
+
+        OpenAiKeyStats limited = new OpenAiKeyStats();
+        limited.record(System.nanoTime() - 100 * MILLISECOND, 429);
+        assertThat(limited.cost()).isGreaterThan(idle * 10);
+        assertThat(limited.load()).isGreaterThan(stats.load() * 10);
+    }
+}
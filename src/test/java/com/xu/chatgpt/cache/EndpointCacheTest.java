@@ -0,0 +1,74 @@
+package com.xu.chatgpt.cache;
+
+import com.xu.chatgpt.properties.OpenAiEndpointCache;
+import com.xu.chatgpt.properties.OpenAiUrl;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class EndpointCacheTest {
+
+    private static final Object[] NO_VARIABLES = new Object[0];
+
+    private final EndpointCache endpointCache = new EndpointCache(new OpenAiEndpointCache());
+
+    @Test
+    void cachesUntilInvalidated() {
+        AtomicInteger loads = new AtomicInteger();
+        assertThat(load(loads)).isEqualTo("models1");
+        assertThat(load(loads)).isEqualTo("models1");
+
+        endpointCache.invalidate(OpenAiUrl.LIST_MODELS);
+        assertThat(load(loads)).isEqualTo("models2");
+    }
+
+    @Test
+    void checkedExceptionIsRethrownAndNotCached() {
+        assertThatThrownBy(() -> endpointCache.get(
+                        OpenAiUrl.LIST_MODELS, NO_VARIABLES, String.class, EndpointCacheTest::failWithIoException))
+                .isInstanceOf(IOException.class);
+
+        String response = assertTimeoutPreemptively(
+                Duration.ofSeconds(5),
+                () -> endpointCache.get(OpenAiUrl.LIST_MODELS, NO_VARIABLES, String.class, () -> "models"));
+        assertThat(response).isEqualTo("models");
+    }
+
+    @Test
+    void asyncLoaderRunsOutsideTheCacheLock() {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> response = endpointCache.getAsync(
+                OpenAiUrl.LIST_MODELS, NO_VARIABLES, String.class, () -> {
+                    loads.incrementAndGet();
+                    // Re-entering the map for the same key from inside its mapping function would be a recursive
+                    // update.
+                    assertThat(endpointCache.getAsync(OpenAiUrl.LIST_MODELS, NO_VARIABLES, String.class, () -> {
+                                loads.incrementAndGet();
+                                return CompletableFuture.completedFuture("nested");
+                            }))
+                            .isNotDone();
+                    return CompletableFuture.completedFuture("models");
+                });
+
+        assertThat(response.join()).isEqualTo("models");
+        assertThat(loads).hasValue(1);
+    }
+
+    private String load(AtomicInteger loads) {
+        return endpointCache.get(
+                OpenAiUrl.LIST_MODELS, NO_VARIABLES, String.class, () -> "models" + loads.incrementAndGet());
+    }
+
+    @SneakyThrows
+    private static String failWithIoException() {
+        throw new IOException("connection reset");
+    }
+}
@@ -0,0 +1,112 @@
+package com.xu.chatgpt.cache;
+
+import com.xu.chatgpt.properties.OpenAiResponseCache;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class ResponseCacheTest {
+
+    private final ResponseCache responseCache = new ResponseCache(new OpenAiResponseCache());
+    private final Map<String, String> request = Collections.singletonMap("prompt", "hello");
+
+    @Test
+    void loadsOnceAndCaches() {
+        AtomicInteger loads = new AtomicInteger();
+        assertThat(responseCache.get(request, String.class, () -> "hi" + loads.incrementAndGet()))
+                .isEqualTo("hi1");
+        assertThat(responseCache.get(request, String.class, () -> "hi" + loads.incrementAndGet()))
+                .isEqualTo("hi1");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void checkedExceptionIsRethrownAndNotCached() {
+        assertThatThrownBy(() -> responseCache.get(request, String.class, ResponseCacheTest::failWithIoException))
+                .isInstanceOf(IOException.class)
+                .hasMessage("connection reset");
+
+        String response = assertTimeoutPreemptively(
+                Duration.ofSeconds(5), () -> responseCache.get(request, String.class, () -> "hi"));
+        assertThat(response).isEqualTo("hi");
+    }
+
+    @Test
+    void waitingCallersGetTheFailure() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> loader = executor.submit(() -> responseCache.get(request, String.class, () -> {
+                loading.countDown();
+                await(release);
+                return failWithIoException();
+            }));
+            loading.await();
+            CompletableFuture<String> waiter =
+                    responseCache.getAsync(request, String.class, () -> CompletableFuture.completedFuture("hi"));
+            release.countDown();
+
+            assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class);
+            assertThatThrownBy(loader::get).hasCauseInstanceOf(IOException.class);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void asyncLoaderRunsOutsideTheCacheLock() {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> nested = new CompletableFuture<>();
+        CompletableFuture<String> response = responseCache.getAsync(request, String.class, () -> {
+            loads.incrementAndGet();
+            // Re-entering the map for the same key from inside its mapping function would be a recursive update.
+            nested.complete(responseCache
+                    .getAsync(request, String.class, () -> CompletableFuture.completedFuture("nested"))
+                    .isDone() ? "done" : "pending");
+            return CompletableFuture.completedFuture("hi");
+        });
+
+        assertThat(response.join()).isEqualTo("hi");
+        assertThat(nested.join()).isEqualTo("pending");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void asyncLoaderExceptionIsNotCached() {
+        CompletableFuture<String> failed = responseCache.getAsync(request, String.class, () -> {
+            throw new IllegalStateException("no key");
+        });
+        assertThatThrownBy(failed::join).hasCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(responseCache
+                        .getAsync(request, String.class, () -> CompletableFuture.completedFuture("hi"))
+                        .join())
+                .isEqualTo("hi");
+    }
+
+    @SneakyThrows
+    private static String failWithIoException() {
+        throw new IOException("connection reset");
+    }
+
+    @SneakyThrows
+    private static void await(CountDownLatch latch) {
+        latch.await();
+    }
+}
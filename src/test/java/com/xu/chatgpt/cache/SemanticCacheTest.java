@@ -0,0 +1,109 @@
+package com.xu.chatgpt.cache;
+
+import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.entity.embeddings.EmbeddingData;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+import com.xu.chatgpt.properties.OpenAiSemanticCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SemanticCacheTest {
+
+    private final ChatClient chatClient = mock(ChatClient.class);
+    private final ChatCompletionResponse response = new ChatCompletionResponse();
+    private SemanticCache semanticCache;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddingData data = new EmbeddingData();
+        data.setIndex(0L);
+        data.setVector(new float[] {1, 0, 0});
+        EmbeddingResponse embeddingResponse = new EmbeddingResponse();
+        embeddingResponse.setData(Collections.singletonList(data));
+        when(chatClient.embeddings(any(EmbeddingRequest.class))).thenReturn(embeddingResponse);
+        when(chatClient.chatCompletions(any(ChatCompletionRequest.class))).thenReturn(response);
+        semanticCache = new SemanticCache(chatClient, new OpenAiSemanticCache());
+    }
+
+    @Test
+    void nonDeterministicRequestIsNotEmbedded() {
+        assertThat(semanticCache.chatCompletions(request("hello", null))).isSameAs(response);
+        verify(chatClient, never()).embeddings(any());
+    }
+
+    @Test
+    void unknownContextIsEmbeddedOnlyAfterTheUpstreamCall() {
+        when(chatClient.chatCompletions(any(ChatCompletionRequest.class))).thenThrow(new IllegalStateException());
+        assertThatThrownBy(() -> semanticCache.chatCompletions(request("hello", 0)))
+                .isInstanceOf(IllegalStateException.class);
+        verify(chatClient, never()).embeddings(any());
+    }
+
+    @Test
+    void similarPromptOfTheSameContextHits() {
+        assertThat(semanticCache.chatCompletions(request("hello", 0))).isSameAs(response);
+        assertThat(semanticCache.chatCompletions(request("hello!", 0))).isSameAs(response);
+        verify(chatClient, times(1)).chatCompletions(any());
+        verify(chatClient, times(2)).embeddings(any());
+
+        ChatCompletionRequest otherModel = request("hello", 0);
+        otherModel.setModel("gpt-4");
+        semanticCache.chatCompletions(otherModel);
+        verify(chatClient, times(2)).chatCompletions(any());
+        verify(chatClient, times(3)).embeddings(any());
+    }
+
+    @Test
+    void failingEmbeddingAfterTheUpstreamCallReturnsTheResponse() {
+        when(chatClient.embeddings(any(EmbeddingRequest.class))).thenThrow(new IllegalStateException("embeddings"));
+        assertThat(semanticCache.chatCompletions(request("hello", 0))).isSameAs(response);
+        assertThat(semanticCache.chatCompletions(request("hello", 0))).isSameAs(response);
+        verify(chatClient, times(2)).chatCompletions(any());
+    }
+
+    @Test
+    void failingLookupEmbeddingFallsThroughToUpstream() {
+        assertThat(semanticCache.chatCompletions(request("hello", 0))).isSameAs(response);
+        when(chatClient.embeddings(any(EmbeddingRequest.class))).thenThrow(new IllegalStateException("embeddings"));
+        ChatCompletionResponse second = new ChatCompletionResponse();
+        when(chatClient.chatCompletions(any(ChatCompletionRequest.class))).thenReturn(second);
+
+        assertThat(semanticCache.chatCompletions(request("hello", 0))).isSameAs(second);
+        verify(chatClient, times(2)).chatCompletions(any());
+        verify(chatClient, times(2)).embeddings(any());
+    }
+
+    @Test
+    void expiredContextIsEmbeddedOnlyAfterTheUpstreamCall() {
+        OpenAiSemanticCache properties = new OpenAiSemanticCache();
+        properties.setTtl(Duration.ofNanos(1));
+        semanticCache = new SemanticCache(chatClient, properties);
+
+        semanticCache.chatCompletions(request("hello", 0));
+        semanticCache.chatCompletions(request("hello", 0));
+
+        InOrder inOrder = inOrder(chatClient);
+        for (int i = 0; i < 2; i++) {
+            inOrder.verify(chatClient).chatCompletions(any());
+            inOrder.verify(chatClient).embeddings(any());
+        }
+    }
+
+    private static ChatCompletionRequest request(String content, Integer temperature) {
+        ChatCompletionRequest request = ChatCompletionRequest.create(content);
+        request.setTemperature(temperature);
+        return request;
+    }
+}
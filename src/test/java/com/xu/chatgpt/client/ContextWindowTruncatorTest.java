@@ -0,0 +1,181 @@
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.entity.chat.ChatCompletionFunction;
+import com.xu.chatgpt.entity.chat.ChatCompletionFunctionCall;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.entity.chat.ChatCompletionParameter;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiContextWindow;
+import com.xu.chatgpt.utils.TokenCounter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContextWindowTruncatorTest {
+
+    private static final String MODEL = "gpt-3.5-turbo";
+    private static final TokenCounter COUNTER = TokenCounter.of(MODEL);
+
+    @Test
+    void fittingConversationIsUnchanged() {
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("system", "s"), message("user", "u1"), message("assistant", "a1"), message("user", "u2"));
+        ChatCompletionRequest request = request(messages);
+
+        ContextWindowTruncator.truncate(request, properties(COUNTER.count(messages)));
+
+        assertThat(request.getMessages()).isSameAs(messages);
+    }
+
+    @Test
+    void dropsOldestMessagesButKeepsSystemAndLast() {
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("system", "s"), message("user", "u1"), message("assistant", "a1"), message("user", "u2"));
+        ChatCompletionRequest request = request(messages);
+
+        ContextWindowTruncator.truncate(
+                request, properties(COUNTER.count(Arrays.asList(messages.get(0), messages.get(3)))));
+
+        assertThat(contents(request)).containsExactly("s", "u2");
+    }
+
+    @Test
+    void dropsFunctionResultsWithTheirCall() {
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("user", "u1"),
+                message("assistant", "call"),
+                message("function", "result"),
+                message("assistant", "a1"),
+                message("user", "u2"));
+        ChatCompletionRequest request = request(messages);
+
+        ContextWindowTruncator.truncate(
+                request, properties(COUNTER.count(Arrays.asList(messages.get(3), messages.get(4)))));
+
+        assertThat(contents(request)).containsExactly("a1", "u2");
+    }
+
+    @Test
+    void keepsTheCallOfALastFunctionResult() {
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("system", "s"),
+                message("user", "u1"),
+                message("assistant", "call"),
+                message("function", "result"));
+        ChatCompletionRequest request = request(messages);
+        List<ChatCompletionMessage> pair = Arrays.asList(messages.get(0), messages.get(2), messages.get(3));
+
+        ContextWindowTruncator.truncate(request, properties(COUNTER.count(pair)));
+
+        assertThat(contents(request)).containsExactly("s", "call", "result");
+    }
+
+    @Test
+    void failsWhenTheLastFunctionResultAndItsCallDoNotFit() {
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("user", "u1"), message("assistant", "call"), message("function", "result"));
+        ChatCompletionRequest request = request(messages);
+
+        assertThatThrownBy(() -> ContextWindowTruncator.truncate(
+                        request, properties(COUNTER.count(messages.subList(2, 3)))))
+                .isInstanceOf(OpenAiException.class);
+    }
+
+    @Test
+    void countsFunctionDefinitions() {
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("system", "s"), message("user", "u1"), message("assistant", "a1"), message("user", "u2"));
+        ChatCompletionRequest request = request(messages);
+        request.setFunctions(Collections.singletonList(function()));
+
+        // The messages alone fit, but not together with the function definitions.
+        ContextWindowTruncator.truncate(
+                request,
+                properties(COUNTER.count(Arrays.asList(messages.get(0), messages.get(3)))
+                        + COUNTER.countFunctions(request.getFunctions())));
+
+        assertThat(contents(request)).containsExactly("s", "u2");
+    }
+
+    @Test
+    void failsWhenTheFunctionDefinitionsDoNotFit() {
+        List<ChatCompletionMessage> messages = Collections.singletonList(message("user", "u1"));
+        ChatCompletionRequest request = request(messages);
+        request.setFunctions(Collections.singletonList(function()));
+
+        assertThatThrownBy(() -> ContextWindowTruncator.truncate(request, properties(COUNTER.count(messages))))
+                .isInstanceOf(OpenAiException.class);
+    }
+
+    @Test
+    void countsFunctionCallArguments() {
+        ChatCompletionMessage call = message("assistant", null);
+        call.setFunctionCall(ChatCompletionFunctionCall.builder()
+                .name("get_current_weather")
+                .arguments("{\"location\": \"Boston, MA\", \"unit\": \"celsius\", \"days\": 7}")
+                .build());
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("user", "u1"), call, message("function", "result"), message("user", "u2"));
+        ChatCompletionRequest request = request(messages);
+
+        // The conversation would fit if the arguments of the call were not counted.
+        long withoutArguments = COUNTER.count(Arrays.asList(
+                messages.get(0), message("assistant", null), messages.get(2), messages.get(3)));
+        ContextWindowTruncator.truncate(request, properties(withoutArguments));
+
+        assertThat(contents(request)).containsExactly("u2");
+    }
+
+    private static ChatCompletionFunction function() {
+        Map<String, Object> location = new HashMap<>();
+        location.put("type", "string");
+        location.put("description", "The city and state, e.g. San Francisco, CA");
+        return ChatCompletionFunction.builder()
+                .name("get_current_weather")
+                .description("Get the current weather in a given location")
+                .parameters(ChatCompletionParameter.builder()
+                        .type("object")
+                        .properties(Collections.singletonMap("location", location))
+                        .required(Collections.singletonList("location"))
+                        .build())
+                .build();
+    }
+
+    private static OpenAiContextWindow properties(long promptTokens) {
+        OpenAiContextWindow properties = new OpenAiContextWindow();
+        properties.getWindows().put(MODEL, (int) promptTokens + properties.getReserveTokens());
+        return properties;
+    }
+
+    private static ChatCompletionRequest request(List<ChatCompletionMessage> messages) {
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setModel(MODEL);
+        request.setMessages(messages);
+        return request;
+    }
+
+    private static ChatCompletionMessage message(String role, String content) {
+        ChatCompletionMessage message = new ChatCompletionMessage();
+        message.setRole(role);
+        message.setContent(content);
+        if ("function".equals(role)) {
+            message.setName("lookup");
+        }
+        return message;
+    }
+
+    private static List<String> contents(ChatCompletionRequest request) {
+        return request.getMessages().stream()
+                .map(ChatCompletionMessage::getContent)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,227 @@
+package com.xu.chatgpt.client;
+
+import com.xu.chatgpt.apikey.OpenAiKey;
+import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.exception.OpenAiErrorInterceptor;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DefaultReactiveChatClientTest {
+
+    private static final String KEY_A = "sk-a";
+    private static final String KEY_B = "sk-b";
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final MockWebServer upstream = new MockWebServer();
+    private final OpenAiProperties properties = new OpenAiProperties();
+    private OpenAiKeyWrapper openAiKeyWrapper;
+    private DefaultReactiveChatClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        upstream.start();
+        client = client(upstream.url("/").toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        upstream.shutdown();
+    }
+
+    @Test
+    void streamsUntilDone() throws Exception {
+        upstream.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(event(0) + event(1) + "data: [DONE]\n\n" + event(2)));
+
+        List<ChatCompletionResponse> chunks =
+                client.streamChatCompletions(request()).collectList().block(TIMEOUT);
+
+        assertThat(chunks).extracting(ChatCompletionResponse::getId).containsExactly("chatcmpl-0", "chatcmpl-1");
+        String body = upstream.takeRequest().getBody().readUtf8();
+        assertThat(body).contains("\"stream\":true");
+    }
+
+    @Test
+    void upstreamReadsFollowTheDemand() throws Exception {
+        int total = 100_000;
+        AtomicInteger written = new AtomicInteger();
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> serveEvents(serverSocket, total, written));
+            server.start();
+            DefaultReactiveChatClient slowClient = client("http://localhost:" + serverSocket.getLocalPort() + "/");
+            CountDownLatch first = new CountDownLatch(1);
+            AtomicInteger received = new AtomicInteger();
+            BaseSubscriber<String> subscriber = new BaseSubscriber<String>() {
+
+                @Override
+                protected void hookOnSubscribe(Subscription subscription) {
+                    request(1);
+                }
+
+                @Override
+                protected void hookOnNext(String value) {
+                    received.incrementAndGet();
+                    first.countDown();
+                }
+            };
+            slowClient.streamChatCompletionEvents(request()).subscribe(subscriber);
+
+            assertThat(first.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+            Thread.sleep(1000);
+            int stalled = written.get();
+            Thread.sleep(500);
+
+            assertThat(received.get()).isEqualTo(1);
+            assertThat(stalled).isLessThan(total);
+            assertThat(written.get()).isEqualTo(stalled);
+            subscriber.dispose();
+            server.join(TIMEOUT.toMillis());
+            assertThat(server.isAlive()).isFalse();
+        }
+    }
+
+    @Test
+    void cancellingReleasesTheKey() throws Exception {
+        Buffer body = new Buffer();
+        for (int i = 0; i < 100; i++) {
+            body.writeUtf8(event(i));
+        }
+        upstream.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(body)
+                .throttleBody(event(0).length(), 100, TimeUnit.MILLISECONDS));
+
+        String data = client.streamChatCompletionEvents(request()).blockFirst(TIMEOUT);
+        String apiKey = upstream.takeRequest().getHeader("Authorization").substring("Bearer ".length());
+
+        assertThat(data).contains("chatcmpl-0");
+        assertThat(awaitInFlight(apiKey)).isZero();
+    }
+
+    @Test
+    void errorResponseRotatesTheKey() throws Exception {
+        upstream.enqueue(new MockResponse()
+                .setResponseCode(429)
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"requests\","
+                        + "\"code\":\"rate_limit_exceeded\"}}"));
+        upstream.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(event(0) + "data: [DONE]\n\n"));
+
+        assertThatThrownBy(() -> client.streamChatCompletionEvents(request()).blockLast(TIMEOUT))
+                .isInstanceOf(OpenAiException.class)
+                .hasMessageContaining("rate_limit_exceeded");
+        String rateLimited = upstream.takeRequest().getHeader("Authorization").substring("Bearer ".length());
+        assertThat(openAiKeyWrapper.getInvalidKeys()).containsExactly(rateLimited);
+        assertThat(awaitInFlight(rateLimited)).isZero();
+
+        assertThat(client.streamChatCompletionEvents(request()).collectList().block(TIMEOUT)).hasSize(1);
+        assertThat(upstream.takeRequest().getHeader("Authorization")).isNotEqualTo("Bearer " + rateLimited);
+    }
+
+    /**
+     * The key is released once the stream terminates, which may be just after the subscriber got the signal.
+     */
+    private int awaitInFlight(String apiKey) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (openAiKeyWrapper.stats(apiKey).getInFlight() != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return openAiKeyWrapper.stats(apiKey).getInFlight();
+    }
+
+    private DefaultReactiveChatClient client(String url) {
+        properties.setDomain(url.substring(0, url.length() - 1));
+        properties.setKeys(Arrays.asList(key(KEY_A), key(KEY_B)));
+        if (openAiKeyWrapper == null) {
+            openAiKeyWrapper = new OpenAiKeyWrapper(properties::getKeys, properties);
+        }
+        return new DefaultReactiveChatClient(
+                WebClient.create(),
+                properties,
+                openAiKeyWrapper,
+                new DefaultUriBuilderFactory(),
+                new OpenAiErrorInterceptor(openAiKeyWrapper));
+    }
+
+    /**
+     * Answer one request with {@code total} events of about 1 KB, counting the events written to the socket.
+     */
+    private static void serveEvents(ServerSocket serverSocket, int total, AtomicInteger written) {
+        char[] content = new char[1000];
+        Arrays.fill(content, 'x');
+        byte[] event = ("data: {\"id\":\"chatcmpl\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\""
+                        + new String(content) + "\"}}]}\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+        try (Socket socket = serverSocket.accept()) {
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                // Skip the request headers, the response does not depend on the request.
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < total; i++) {
+                out.write(event);
+                written.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // The client cancelled the stream.
+        }
+    }
+
+    private static String event(int i) {
+        return "data: {\"id\":\"chatcmpl-" + i + "\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"token " + i
+                + "\"}}]}\n\n";
+    }
+
+    private static OpenAiKey key(String key) {
+        OpenAiKey openAiKey = new OpenAiKey();
+        openAiKey.setKey(key);
+        openAiKey.setWeight(1.0);
+        return openAiKey;
+    }
+
+    private static ChatCompletionRequest request() {
+        ChatCompletionMessage message = new ChatCompletionMessage();
+        message.setRole("user");
+        message.setContent("hello");
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(Collections.singletonList(message));
+        return request;
+    }
+}
@@ -0,0 +1,78 @@
+package com.xu.chatgpt.client;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonRequestBodyTest {
+
+    private static final Map<String, String> VALUE = Collections.singletonMap("model", "gpt-3.5-turbo");
+    private static final String JSON = "{\"model\":\"gpt-3.5-turbo\"}";
+
+    private final OkHttpClient okHttpClient = new OkHttpClient();
+    private MockWebServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void bufferedSendsContentLength() throws Exception {
+        RecordedRequest request = post(JsonRequestBody.buffered(VALUE));
+
+        assertThat(request.getHeader("Content-Length")).isEqualTo(String.valueOf(JSON.length()));
+        assertThat(request.getHeader("Transfer-Encoding")).isNull();
+        assertThat(request.getBody().readUtf8()).isEqualTo(JSON);
+    }
+
+    @Test
+    void streamingSendsChunked() throws Exception {
+        RecordedRequest request = post(JsonRequestBody.streaming(VALUE));
+
+        assertThat(request.getHeader("Transfer-Encoding")).isEqualTo("chunked");
+        assertThat(request.getHeader("Content-Length")).isNull();
+        assertThat(request.getBody().readUtf8()).isEqualTo(JSON);
+    }
+
+    @Test
+    void bodiesCanBeWrittenTwice() throws Exception {
+        JsonRequestBody[] bodies = {JsonRequestBody.streaming(VALUE), JsonRequestBody.buffered(VALUE)};
+        for (JsonRequestBody body : bodies) {
+            Buffer first = new Buffer();
+            Buffer second = new Buffer();
+            body.writeTo(first);
+            body.writeTo(second);
+
+            assertThat(first.readUtf8()).isEqualTo(JSON);
+            assertThat(second.readUtf8()).isEqualTo(JSON);
+        }
+    }
+
+    private RecordedRequest post(JsonRequestBody body) throws Exception {
+        server.enqueue(new MockResponse());
+        Request request = new Request.Builder().url(server.url("/")).post(body).build();
+        try (Response ignored = okHttpClient.newCall(request).execute()) {
+            return server.takeRequest();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.xu.chatgpt.config;
+
+import com.xu.chatgpt.properties.OpenAiProperties;
+import com.xu.chatgpt.utils.VirtualThreadUtils;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class ChatConfigurationTest {
+
+    @Test
+    void dispatcherKeepsTheOkHttpLimitsByDefault() {
+        Dispatcher defaults = new Dispatcher();
+        Dispatcher dispatcher = new ChatConfiguration(new OpenAiProperties())
+                .okHttpClient(Collections.emptyList())
+                .dispatcher();
+
+        assertThat(dispatcher.getMaxRequests()).isEqualTo(defaults.getMaxRequests());
+        assertThat(dispatcher.getMaxRequestsPerHost()).isEqualTo(defaults.getMaxRequestsPerHost());
+    }
+
+    @Test
+    void dispatcherLimitsAreConfigurable() {
+        OpenAiProperties properties = new OpenAiProperties();
+        properties.setMaxRequests(1024);
+        properties.setMaxRequestsPerHost(512);
+        OkHttpClient okHttpClient = new ChatConfiguration(properties).okHttpClient(Collections.emptyList());
+
+        assertThat(okHttpClient.dispatcher().getMaxRequests()).isEqualTo(1024);
+        assertThat(okHttpClient.dispatcher().getMaxRequestsPerHost()).isEqualTo(512);
+    }
+
+    @Test
+    void dispatcherFallsBackToPlatformThreadsBeforeJdk21() throws Exception {
+        assumeFalse(VirtualThreadUtils.isSupported());
+        OpenAiProperties properties = new OpenAiProperties();
+        properties.setVirtualThreads(true);
+        Dispatcher dispatcher = new ChatConfiguration(properties)
+                .okHttpClient(Collections.emptyList())
+                .dispatcher();
+
+        Thread thread = dispatcher.executorService().submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+        assertThat(thread.getName()).startsWith("OkHttp Dispatcher");
+    }
+}
@@ -0,0 +1,30 @@
+package com.xu.chatgpt.config;
+
+import com.xu.chatgpt.utils.VirtualThreadUtils;
+import org.apache.coyote.ProtocolHandler;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class VirtualThreadConfigurationTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void tomcatKeepsItsPlatformThreadPoolBeforeJdk21() {
+        assumeFalse(VirtualThreadUtils.isSupported());
+        TomcatProtocolHandlerCustomizer<ProtocolHandler> customizer = (TomcatProtocolHandlerCustomizer<ProtocolHandler>)
+                new VirtualThreadConfiguration().virtualThreadProtocolHandlerCustomizer();
+        ProtocolHandler protocolHandler = mock(ProtocolHandler.class);
+
+        customizer.customize(protocolHandler);
+
+        verify(protocolHandler, never()).setExecutor(any(Executor.class));
+    }
+}
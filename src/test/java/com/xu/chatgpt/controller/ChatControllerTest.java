@@ -0,0 +1,121 @@
+package com.xu.chatgpt.controller;
+
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import com.xu.chatgpt.utils.JsonUtils;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many concurrent requests against an upstream with added latency, served by far fewer Tomcat threads: a blocking
+ * handler needs at least {@code REQUESTS / THREADS * LATENCY}, the async one about one {@code LATENCY}.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+            "server.tomcat.threads.max=" + ChatControllerTest.THREADS,
+            "gpt.max-requests-per-host=" + ChatControllerTest.REQUESTS,
+            "logging.level.root=info"
+        })
+class ChatControllerTest {
+
+    static final int THREADS = 4;
+    static final int REQUESTS = 40;
+    private static final Duration LATENCY = Duration.ofMillis(500);
+    private static final MockWebServer UPSTREAM = new MockWebServer();
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void upstream(DynamicPropertyRegistry registry) throws IOException {
+        UPSTREAM.setDispatcher(new okhttp3.mockwebserver.Dispatcher() {
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setHeader("Content-Type", "application/json")
+                        .setHeadersDelay(LATENCY.toMillis(), TimeUnit.MILLISECONDS)
+                        .setBody("{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"model\":\"gpt-3.5-turbo\","
+                                + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"hi\"},"
+                                + "\"finish_reason\":\"stop\"}]}");
+            }
+        });
+        UPSTREAM.start();
+        String domain = UPSTREAM.url("/").toString();
+        registry.add("gpt.domain", () -> domain.substring(0, domain.length() - 1));
+    }
+
+    @AfterAll
+    static void shutdown() throws IOException {
+        UPSTREAM.shutdown();
+    }
+
+    @Test
+    void concurrentRequestsDoNotHoldTomcatThreads() throws Exception {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(REQUESTS);
+        dispatcher.setMaxRequestsPerHost(REQUESTS);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .readTimeout(Duration.ofSeconds(30))
+                .build();
+        Request request = new Request.Builder()
+                .url("http://localhost:" + port + "/v0/chat/completions")
+                .post(RequestBody.create(
+                        "{\"model\":\"gpt-3.5-turbo\",\"messages\":[{\"role\":\"user\",\"content\":\"hello\"}]}",
+                        MediaType.get("application/json")))
+                .build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+        try {
+            List<Callable<ChatCompletionResponse>> calls = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                calls.add(() -> {
+                    try (Response response = client.newCall(request).execute()) {
+                        assertThat(response.code()).isEqualTo(200);
+                        return JsonUtils.parse(response.body().string(), ChatCompletionResponse.class);
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            List<Future<ChatCompletionResponse>> responses = executor.invokeAll(calls);
+            for (Future<ChatCompletionResponse> response : responses) {
+                assertThat(response.get().getChoices()).hasSize(1);
+            }
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            Duration blocking = LATENCY.multipliedBy(REQUESTS / THREADS);
+            assertThat(UPSTREAM.getRequestCount()).isGreaterThanOrEqualTo(REQUESTS);
+            assertThat(elapsed).isLessThan(blocking.dividedBy(2));
+        } finally {
+            executor.shutdownNow();
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+}
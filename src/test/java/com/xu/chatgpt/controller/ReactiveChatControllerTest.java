@@ -0,0 +1,112 @@
+package com.xu.chatgpt.controller;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code /v1/chat/completions} with {@code spring.main.web-application-type=reactive}, against a mock upstream.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+            "spring.main.web-application-type=reactive",
+            "gpt.stream.timeout=1s",
+            "logging.level.root=info"
+        })
+class ReactiveChatControllerTest {
+
+    private static final String SLOW = "slow";
+    private static final MockWebServer UPSTREAM = new MockWebServer();
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @DynamicPropertySource
+    static void upstream(DynamicPropertyRegistry registry) throws IOException {
+        UPSTREAM.setDispatcher(new okhttp3.mockwebserver.Dispatcher() {
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                boolean slow = request.getBody().readUtf8().contains(SLOW);
+                Buffer body = new Buffer();
+                for (int i = 0; i < (slow ? 100 : 2); i++) {
+                    body.writeUtf8(event(i));
+                }
+                MockResponse response = new MockResponse().setHeader("Content-Type", "text/event-stream");
+                if (slow) {
+                    return response.setBody(body).throttleBody(event(0).length(), 100, TimeUnit.MILLISECONDS);
+                }
+                return response.setBody(body.writeUtf8("data: [DONE]\n\n"));
+            }
+        });
+        UPSTREAM.start();
+        String domain = UPSTREAM.url("/").toString();
+        registry.add("gpt.domain", () -> domain.substring(0, domain.length() - 1));
+    }
+
+    @AfterAll
+    static void shutdown() throws IOException {
+        UPSTREAM.shutdown();
+    }
+
+    @Test
+    void streamsUntilDone() {
+        assertThat(stream("hello")).containsExactly(data(0), data(1), "[DONE]");
+    }
+
+    @Test
+    void timedOutStreamStillEndsWithDone() {
+        // Load the tokenizer first, the timeout also covers counting the prompt tokens.
+        stream("hello");
+
+        List<String> events = stream(SLOW);
+
+        assertThat(events).hasSizeBetween(2, 99).last().isEqualTo("[DONE]");
+        assertThat(events.get(0)).isEqualTo(data(0));
+    }
+
+    private List<String> stream(String content) {
+        return webTestClient
+                .mutate()
+                .responseTimeout(Duration.ofSeconds(10))
+                .build()
+                .post()
+                .uri("/v1/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue("{\"model\":\"gpt-3.5-turbo\",\"messages\":[{\"role\":\"user\",\"content\":\"" + content
+                        + "\"}]}")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .collectList()
+                .block(Duration.ofSeconds(10));
+    }
+
+    private static String data(int i) {
+        return "{\"id\":\"chatcmpl-" + i + "\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"token " + i + "\"}}]}";
+    }
+
+    private static String event(int i) {
+        return "data: " + data(i) + "\n\n";
+    }
+}
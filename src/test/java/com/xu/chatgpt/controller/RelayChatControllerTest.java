@@ -0,0 +1,110 @@
+package com.xu.chatgpt.controller;
+
+import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@code /v1/chat/completions} with {@code gpt.stream.relay} enabled, against a mock upstream.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"gpt.stream.relay=true", "logging.level.root=info"})
+class RelayChatControllerTest {
+
+    private static final String API_KEY = "sk-586d22ef1e9819e1a0334a8993e8871c";
+    private static final MockWebServer UPSTREAM = new MockWebServer();
+
+    private final OkHttpClient client = new OkHttpClient();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private OpenAiKeyWrapper openAiKeyWrapper;
+
+    @DynamicPropertySource
+    static void upstream(DynamicPropertyRegistry registry) throws IOException {
+        UPSTREAM.start();
+        String domain = UPSTREAM.url("/").toString();
+        registry.add("gpt.domain", () -> domain.substring(0, domain.length() - 1));
+    }
+
+    @AfterAll
+    static void shutdown() throws IOException {
+        UPSTREAM.shutdown();
+    }
+
+    @AfterEach
+    void restoreKey() {
+        openAiKeyWrapper.restoreKey(API_KEY);
+    }
+
+    @Test
+    void relaysTheUpstreamBytesExactly() throws Exception {
+        Buffer upstreamBody = new Buffer();
+        upstreamBody.writeUtf8(": keep-alive\n\n");
+        for (int i = 0; i < 50; i++) {
+            upstreamBody.writeUtf8("data: {\"id\":\"chatcmpl-1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\""
+                    + i + " \\u00e9\u00e8\u4f60\u597d\"}}]}\r\n\r\n");
+        }
+        upstreamBody.writeUtf8("data: [DONE]\n\n");
+        byte[] expected = upstreamBody.snapshot().toByteArray();
+        UPSTREAM.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(upstreamBody)
+                .throttleBody(512, 5, TimeUnit.MILLISECONDS));
+
+        try (Response response = client.newCall(request()).execute()) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.header("Content-Type")).startsWith("text/event-stream");
+            assertThat(response.body().bytes()).isEqualTo(expected);
+        }
+        assertThat(UPSTREAM.takeRequest().getHeader("Authorization")).isEqualTo("Bearer " + API_KEY);
+    }
+
+    @Test
+    void rateLimitedUpstreamQuarantinesTheKey() throws Exception {
+        UPSTREAM.enqueue(new MockResponse()
+                .setResponseCode(429)
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"requests\","
+                        + "\"code\":\"rate_limit_exceeded\"}}"));
+
+        try (Response response = client.newCall(request()).execute()) {
+            assertThat(response.code()).isNotEqualTo(200);
+            assertThat(response.body().string()).doesNotContain("data:");
+        }
+        assertThat(openAiKeyWrapper.getInvalidKeys()).containsExactly(API_KEY);
+    }
+
+    private Request request() {
+        return new Request.Builder()
+                .url("http://localhost:" + port + "/v1/chat/completions")
+                .post(RequestBody.create(
+                        "{\"model\":\"gpt-3.5-turbo\",\"messages\":[{\"role\":\"user\",\"content\":\"hello\"}]}"
+                                .getBytes(StandardCharsets.UTF_8),
+                        MediaType.get("application/json")))
+                .build();
+    }
+}
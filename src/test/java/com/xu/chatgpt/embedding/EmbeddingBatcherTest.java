@@ -0,0 +1,196 @@
+package com.xu.chatgpt.embedding;
+
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.client.AsyncChatClient;
+import com.xu.chatgpt.entity.embeddings.EmbeddingData;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+import com.xu.chatgpt.exception.OpenAiException;
+import com.xu.chatgpt.properties.OpenAiEmbeddingBatch;
+import com.xu.chatgpt.utils.TokenCounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class EmbeddingBatcherTest {
+
+    private static final String MODEL = "text-embedding-ada-002";
+
+    private final AsyncChatClient asyncChatClient = mock(AsyncChatClient.class);
+    private final OpenAiEmbeddingBatch properties = new OpenAiEmbeddingBatch();
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private EmbeddingBatcher batcher;
+
+    @AfterEach
+    void tearDown() {
+        batcher.destroy();
+    }
+
+    @Test
+    void flushesWhenTheWindowElapses() {
+        answerWithIndexes(false);
+        properties.setWindow(Duration.ofMillis(100));
+        EmbeddingBatcher batcher = batcher();
+
+        long start = System.nanoTime();
+        CompletableFuture<float[]> a = batcher.embed(MODEL, "a");
+        CompletableFuture<float[]> bb = batcher.embed(MODEL, "bb");
+        assertThat(a).isNotDone();
+
+        assertThat(a.join()).isEqualTo(vector("a"));
+        assertThat(bb.join()).isEqualTo(vector("bb"));
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(upstreamInputs()).containsExactly(Arrays.asList("a", "bb"));
+    }
+
+    @Test
+    void splitsAtMaxSizeAndCancelsTheWindow() throws Exception {
+        answerWithIndexes(false);
+        properties.setWindow(Duration.ofMinutes(1));
+        properties.setMaxSize(2);
+        EmbeddingBatcher batcher = batcher();
+
+        CompletableFuture<float[]> a = batcher.embed(MODEL, "a");
+        CompletableFuture<float[]> bb = batcher.embed(MODEL, "bb");
+        CompletableFuture<float[]> ccc = batcher.embed(MODEL, "ccc");
+
+        assertThat(a.get(5, TimeUnit.SECONDS)).isEqualTo(vector("a"));
+        assertThat(bb.get(5, TimeUnit.SECONDS)).isEqualTo(vector("bb"));
+        assertThat(ccc).isNotDone();
+        assertThat(upstreamInputs()).containsExactly(Arrays.asList("a", "bb"));
+        // Only the window of the pending batch is left.
+        assertThat(scheduler.getQueue()).hasSize(1);
+    }
+
+    @Test
+    void splitsAtMaxTokens() throws Exception {
+        answerWithIndexes(false);
+        properties.setWindow(Duration.ofMinutes(1));
+        properties.setMaxTokens(tokens("hello world") + tokens("goodbye world") - 1);
+        EmbeddingBatcher batcher = batcher();
+
+        CompletableFuture<float[]> hello = batcher.embed(MODEL, "hello world");
+        CompletableFuture<float[]> goodbye = batcher.embed(MODEL, "goodbye world");
+
+        assertThat(hello.get(5, TimeUnit.SECONDS)).isEqualTo(vector("hello world"));
+        assertThat(goodbye).isNotDone();
+        assertThat(upstreamInputs()).containsExactly(Collections.singletonList("hello world"));
+        assertThat(scheduler.getQueue()).hasSize(1);
+    }
+
+    @Test
+    void mapsResultsByIndex() {
+        answerWithIndexes(true);
+        properties.setMaxSize(3);
+        EmbeddingBatcher batcher = batcher();
+
+        CompletableFuture<float[]> a = batcher.embed(MODEL, "a");
+        CompletableFuture<float[]> bb = batcher.embed(MODEL, "bb");
+        CompletableFuture<float[]> ccc = batcher.embed(MODEL, "ccc");
+
+        assertThat(a.join()).isEqualTo(vector("a"));
+        assertThat(bb.join()).isEqualTo(vector("bb"));
+        assertThat(ccc.join()).isEqualTo(vector("ccc"));
+    }
+
+    @Test
+    void missingIndexFailsOnlyItsInput() {
+        when(asyncChatClient.embeddings(any())).thenReturn(CompletableFuture.completedFuture(
+                response(Collections.singletonList(data(1, vector("bb"))))));
+        properties.setMaxSize(2);
+        EmbeddingBatcher batcher = batcher();
+
+        CompletableFuture<float[]> a = batcher.embed(MODEL, "a");
+        CompletableFuture<float[]> bb = batcher.embed(MODEL, "bb");
+
+        assertThat(bb.join()).isEqualTo(vector("bb"));
+        assertThatThrownBy(a::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(OpenAiException.class);
+    }
+
+    @Test
+    void failureFansOutToEveryInput() {
+        OpenAiException failure = new OpenAiException("upstream failed");
+        CompletableFuture<EmbeddingResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(failure);
+        when(asyncChatClient.embeddings(any())).thenReturn(failed);
+        properties.setMaxSize(3);
+        EmbeddingBatcher batcher = batcher();
+
+        List<CompletableFuture<float[]>> futures = new ArrayList<>();
+        for (String input : Arrays.asList("a", "bb", "ccc")) {
+            futures.add(batcher.embed(MODEL, input));
+        }
+
+        for (CompletableFuture<float[]> future : futures) {
+            assertThatThrownBy(future::join).hasCause(failure);
+        }
+        verify(asyncChatClient, times(1)).embeddings(any());
+    }
+
+    private EmbeddingBatcher batcher() {
+        scheduler.setRemoveOnCancelPolicy(true);
+        batcher = new EmbeddingBatcher(asyncChatClient, properties, scheduler, Executors.newCachedThreadPool());
+        return batcher;
+    }
+
+    private void answerWithIndexes(boolean reversed) {
+        when(asyncChatClient.embeddings(any())).thenAnswer(invocation -> {
+            EmbeddingRequest request = invocation.getArgument(0);
+            List<EmbeddingData> data = new ArrayList<>();
+            for (int i = 0; i < request.getInput().size(); i++) {
+                data.add(data(i, vector(request.getInput().get(i))));
+            }
+            if (reversed) {
+                Collections.reverse(data);
+            }
+            return CompletableFuture.completedFuture(response(data));
+        });
+    }
+
+    private List<List<String>> upstreamInputs() {
+        ArgumentCaptor<EmbeddingRequest> captor = ArgumentCaptor.forClass(EmbeddingRequest.class);
+        verify(asyncChatClient, atLeastOnce()).embeddings(captor.capture());
+        List<List<String>> inputs = new ArrayList<>();
+        captor.getAllValues().forEach(request -> inputs.add(request.getInput()));
+        return inputs;
+    }
+
+    private static EmbeddingData data(int index, float[] vector) {
+        EmbeddingData data = new EmbeddingData();
+        data.setIndex((long) index);
+        data.setVector(vector);
+        return data;
+    }
+
+    private static EmbeddingResponse response(List<EmbeddingData> data) {
+        EmbeddingResponse response = new EmbeddingResponse();
+        response.setData(data);
+        return response;
+    }
+
+    private static long tokens(String input) {
+        return TokenCounter.of(MODEL, ModelType.TEXT_EMBEDDING_ADA_002).count(input);
+    }
+
+    private static float[] vector(String input) {
+        return new float[] {input.length(), input.hashCode()};
+    }
+}
@@ -0,0 +1,129 @@
+package com.xu.chatgpt.embedding;
+
+import com.xu.chatgpt.client.ChatClient;
+import com.xu.chatgpt.entity.embeddings.EmbeddingData;
+import com.xu.chatgpt.entity.embeddings.EmbeddingRequest;
+import com.xu.chatgpt.entity.embeddings.EmbeddingResponse;
+import com.xu.chatgpt.exception.OpenAiException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class EmbeddingCacheTest {
+
+    private static final String MODEL = "text-embedding-ada-002";
+
+    private final ChatClient chatClient = mock(ChatClient.class);
+
+    @Test
+    void onlyMissingInputsAreSentUpstream(@TempDir Path dir) throws IOException {
+        answerWithIndexes(true);
+        EmbeddingCache cache = new EmbeddingCache(chatClient, dir);
+        try {
+            cache.embeddings(request("a", "bb"));
+            EmbeddingResponse response = cache.embeddings(request("bb", "ccc", "a"));
+
+            assertThat(vectors(response)).containsExactly(vector("bb"), vector("ccc"), vector("a"));
+            assertThat(response.getData()).extracting(EmbeddingData::getIndex).containsExactly(0L, 1L, 2L);
+            assertThat(upstreamInputs()).containsExactly(Arrays.asList("a", "bb"), Collections.singletonList("ccc"));
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    @Test
+    void embeddingsSurviveARestart(@TempDir Path dir) throws IOException {
+        answerWithIndexes(true);
+        EmbeddingCache cache = new EmbeddingCache(chatClient, dir);
+        cache.embeddings(request("a", "bb"));
+        cache.destroy();
+
+        EmbeddingCache restarted = new EmbeddingCache(chatClient, dir);
+        try {
+            assertThat(vectors(restarted.embeddings(request("bb", "a")))).containsExactly(vector("bb"), vector("a"));
+            verify(chatClient, times(1)).embeddings(any());
+        } finally {
+            restarted.destroy();
+        }
+    }
+
+    @Test
+    void dataWithoutIndexIsInInputOrder(@TempDir Path dir) throws IOException {
+        answerWithIndexes(false);
+        EmbeddingCache cache = new EmbeddingCache(chatClient, dir);
+        try {
+            cache.embeddings(request("a"));
+            EmbeddingResponse response = cache.embeddings(request("bb", "a", "ccc"));
+
+            assertThat(vectors(response)).containsExactly(vector("bb"), vector("a"), vector("ccc"));
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    @Test
+    void missingEmbeddingIsRejected(@TempDir Path dir) throws IOException {
+        when(chatClient.embeddings(any(EmbeddingRequest.class))).thenReturn(new EmbeddingResponse());
+        EmbeddingCache cache = new EmbeddingCache(chatClient, dir);
+        try {
+            assertThatThrownBy(() -> cache.embeddings(request("a"))).isInstanceOf(OpenAiException.class);
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    private void answerWithIndexes(boolean withIndexes) {
+        when(chatClient.embeddings(any(EmbeddingRequest.class))).thenAnswer(invocation -> {
+            List<String> inputs = invocation.<EmbeddingRequest>getArgument(0).getInput();
+            List<EmbeddingData> data = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                EmbeddingData embeddingData = new EmbeddingData();
+                embeddingData.setIndex(withIndexes ? (long) i : null);
+                embeddingData.setVector(vector(inputs.get(i)));
+                data.add(embeddingData);
+            }
+            // Indexed data may come in any order.
+            if (withIndexes) {
+                Collections.reverse(data);
+            }
+            EmbeddingResponse response = new EmbeddingResponse();
+            response.setModel(MODEL);
+            response.setData(data);
+            return response;
+        });
+    }
+
+    private List<List<String>> upstreamInputs() {
+        ArgumentCaptor<EmbeddingRequest> captor = ArgumentCaptor.forClass(EmbeddingRequest.class);
+        verify(chatClient, atLeastOnce()).embeddings(captor.capture());
+        List<List<String>> inputs = new ArrayList<>();
+        captor.getAllValues().forEach(request -> inputs.add(request.getInput()));
+        return inputs;
+    }
+
+    private static List<float[]> vectors(EmbeddingResponse response) {
+        List<float[]> vectors = new ArrayList<>();
+        response.getData().forEach(data -> vectors.add(data.getVector()));
+        return vectors;
+    }
+
+    private static EmbeddingRequest request(String... inputs) {
+        return EmbeddingRequest.builder().model(MODEL).input(Arrays.asList(inputs)).build();
+    }
+
+    private static float[] vector(String input) {
+        return new float[] {input.length(), input.charAt(0), 1};
+    }
+}
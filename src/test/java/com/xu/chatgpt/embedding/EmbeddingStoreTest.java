@@ -0,0 +1,83 @@
+package com.xu.chatgpt.embedding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EmbeddingStoreTest {
+
+    @Test
+    void missingFileIsNotOpened(@TempDir Path dir) throws IOException {
+        assertThat(EmbeddingStore.open(dir.resolve("missing.emb"))).isNull();
+    }
+
+    @Test
+    void otherFilesAreRejected(@TempDir Path dir) throws IOException {
+        Path file = Files.write(dir.resolve("other.emb"), "not an embedding store".getBytes());
+        assertThatThrownBy(() -> EmbeddingStore.open(file)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void storesEachDigestOnce(@TempDir Path dir) throws IOException {
+        try (EmbeddingStore store = EmbeddingStore.create(dir.resolve("model.emb"), 3)) {
+            store.put(1, 2, new float[] {1, 2, 3});
+            store.put(1, 2, new float[] {4, 5, 6});
+
+            assertThat(store.size()).isEqualTo(1);
+            assertThat(store.get(1, 2)).containsExactly(1, 2, 3);
+            assertThat(store.get(2, 1)).isNull();
+        }
+    }
+
+    @Test
+    void digestsSharingTheirHighBitsAreKeptApart(@TempDir Path dir) throws IOException {
+        try (EmbeddingStore store = EmbeddingStore.create(dir.resolve("model.emb"), 2)) {
+            for (int low = 0; low < 100; low++) {
+                store.put(42, low, new float[] {42, low});
+            }
+
+            assertThat(store.size()).isEqualTo(100);
+            for (int low = 0; low < 100; low++) {
+                assertThat(store.get(42, low)).containsExactly(42, low);
+            }
+            assertThat(store.get(42, 100)).isNull();
+        }
+    }
+
+    @Test
+    void reopenedStoreHasEveryRecord(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("model.emb");
+        // Records of 4096 floats take more than one 16 MiB region.
+        int dimensions = 4096;
+        int records = 1100;
+        try (EmbeddingStore store = EmbeddingStore.create(file, dimensions)) {
+            for (int i = 0; i < records; i++) {
+                store.put(i, -i, vector(dimensions, i));
+            }
+        }
+
+        try (EmbeddingStore store = EmbeddingStore.open(file)) {
+            assertThat(store.getDimensions()).isEqualTo(dimensions);
+            assertThat(store.size()).isEqualTo(records);
+            for (int i = 0; i < records; i++) {
+                assertThat(store.get(i, -i)).isEqualTo(vector(dimensions, i));
+            }
+            store.put(records, -records, vector(dimensions, records));
+            assertThat(store.size()).isEqualTo(records + 1);
+        }
+    }
+
+    private static float[] vector(int dimensions, int seed) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = seed + i / (float) dimensions;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,79 @@
+package com.xu.chatgpt.entity.embeddings;
+
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.xu.chatgpt.utils.JsonUtils;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.StringJoiner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EmbeddingDeserializerTest {
+
+    @Test
+    void jsonArray() {
+        EmbeddingData data = parse("[0.5,-1.25,3]");
+
+        assertThat(data.getVector()).containsExactly(0.5f, -1.25f, 3f);
+        assertThat(data.getIndex()).isEqualTo(0L);
+    }
+
+    @Test
+    void jsonArrayOfAnyLength() {
+        assertThat(parse("[]").getVector()).isEmpty();
+
+        float[] vector = new float[3072];
+        StringJoiner json = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = i / 4f;
+            json.add(Float.toString(vector[i]));
+        }
+        assertThat(parse(json.toString()).getVector()).containsExactly(vector);
+    }
+
+    @Test
+    void base64IsLittleEndian() {
+        float[] vector = {0.5f, -1.25f, 3f};
+        ByteBuffer bytes = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asFloatBuffer().put(vector);
+
+        assertThat(bytes.array()).startsWith(0x00, 0x00, 0x00, 0x3f);
+        assertThat(parse("\"" + Base64.getEncoder().encodeToString(bytes.array()) + "\"").getVector())
+                .containsExactly(vector);
+    }
+
+    @Test
+    void base64RejectsAPartialFloat() {
+        String base64 = Base64.getEncoder().encodeToString(new byte[] {0, 0, 0, 0x3f, 0, 0});
+
+        assertThatThrownBy(() -> parse("\"" + base64 + "\""))
+                .isInstanceOf(MismatchedInputException.class)
+                .hasMessageContaining("6 bytes");
+    }
+
+    @Test
+    void rejectsOtherTokens() {
+        assertThatThrownBy(() -> parse("{}")).isInstanceOf(MismatchedInputException.class);
+    }
+
+    @Test
+    void decimalAccessorsAreKept() {
+        EmbeddingData data = parse("[0.0023064255,-0.009327292]");
+
+        assertThat(data.getEmbedding()).containsExactly(new BigDecimal("0.0023064255"), new BigDecimal("-0.009327292"));
+        data.setEmbedding(Arrays.asList(new BigDecimal("1.5"), BigDecimal.ONE));
+        assertThat(data.getVector()).containsExactly(1.5f, 1f);
+        assertThat(JsonUtils.toJsonString(data)).isEqualTo("{\"object\":\"embedding\",\"embedding\":[1.5,1.0],\"index\":0}");
+    }
+
+    private static EmbeddingData parse(String embedding) {
+        return JsonUtils.parse(
+                "{\"object\":\"embedding\",\"embedding\":" + embedding + ",\"index\":0}", EmbeddingData.class);
+    }
+}
@@ -0,0 +1,77 @@
+package com.xu.chatgpt.exception;
+
+import com.xu.chatgpt.apikey.OpenAiKey;
+import com.xu.chatgpt.apikey.OpenAiKeyWrapper;
+import com.xu.chatgpt.properties.OpenAiProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class OpenAiErrorInterceptorTest {
+
+    private final OpenAiKeyWrapper openAiKeyWrapper = mock(OpenAiKeyWrapper.class);
+    private final OpenAiErrorInterceptor interceptor = new OpenAiErrorInterceptor(openAiKeyWrapper);
+
+    @Test
+    void errorCodeIsTheReason() {
+        interceptor.rotateKey("sk-a", 429, error("requests", OpenAiErrorCode.RATE_LIMIT_EXCEEDED));
+        verify(openAiKeyWrapper).invalidKey("sk-a", OpenAiErrorCode.RATE_LIMIT_EXCEEDED);
+
+        interceptor.rotateKey("sk-b", 401, error("invalid_request_error", OpenAiErrorCode.INVALID_API_KEY));
+        verify(openAiKeyWrapper).invalidKey("sk-b", OpenAiErrorCode.INVALID_API_KEY);
+    }
+
+    @Test
+    void errorTypeIsTheReasonWithoutAKnownCode() {
+        interceptor.rotateKey("sk-a", 429, error(OpenAiErrorCode.INSUFFICIENT_QUOTA, null));
+        verify(openAiKeyWrapper).invalidKey("sk-a", OpenAiErrorCode.INSUFFICIENT_QUOTA);
+    }
+
+    @Test
+    void unknown429IsARateLimit() {
+        interceptor.rotateKey("sk-a", 429, "{}");
+        verify(openAiKeyWrapper).invalidKey("sk-a", OpenAiErrorCode.RATE_LIMIT_EXCEEDED);
+    }
+
+    @Test
+    void otherErrorsKeepTheKey() {
+        interceptor.rotateKey("sk-a", 401, error("invalid_request_error", "model_not_found"));
+        interceptor.rotateKey("sk-a", 500, error("server_error", OpenAiErrorCode.RATE_LIMIT_EXCEEDED));
+        interceptor.rotateKey("", 429, error("requests", OpenAiErrorCode.RATE_LIMIT_EXCEEDED));
+        verify(openAiKeyWrapper, never()).invalidKey(anyString(), any());
+    }
+
+    @Test
+    void rateLimitedKeyRejoinsAfterItsQuarantine() throws InterruptedException {
+        OpenAiProperties properties = new OpenAiProperties();
+        properties.getQuarantine().setRateLimited(Duration.ofMillis(200));
+        List<OpenAiKey> keys = Arrays.asList(key("sk-a"), key("sk-b"));
+        OpenAiKeyWrapper wrapper = new OpenAiKeyWrapper(() -> keys, properties);
+        OpenAiErrorInterceptor rotating = new OpenAiErrorInterceptor(wrapper);
+
+        rotating.rotateKey("sk-a", 429, error("requests", OpenAiErrorCode.RATE_LIMIT_EXCEEDED));
+        rotating.rotateKey("sk-b", 429, error(OpenAiErrorCode.INSUFFICIENT_QUOTA, OpenAiErrorCode.INSUFFICIENT_QUOTA));
+        assertThat(wrapper.getInvalidKeys()).containsExactlyInAnyOrder("sk-a", "sk-b");
+        assertThat(wrapper.wrap().size()).isZero();
+
+        Thread.sleep(300);
+        assertThat(wrapper.wrap().size()).isEqualTo(1);
+        assertThat(wrapper.wrap().next()).isEqualTo("sk-a");
+        assertThat(wrapper.getInvalidKeys()).containsExactly("sk-b");
+    }
+
+    private static String error(String type, String code) {
+        return "{\"error\":{\"message\":\"error\",\"type\":\"" + type + "\",\"code\":"
+                + (code == null ? "null" : "\"" + code + "\"") + "}}";
+    }
+
+    private static OpenAiKey key(String key) {
+        return OpenAiKey.builder().key(key).weight(1).build();
+    }
+}
@@ -0,0 +1,199 @@
+package com.xu.chatgpt.sse;
+
+import com.xu.chatgpt.properties.OpenAiStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitterReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class CoalescingSseWriterTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+    private final SseEmitter sseEmitter = mock(SseEmitter.class);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void everyEventIsSentAsOneFrameInOrder() throws IOException {
+        recordSends(0);
+        CoalescingSseWriter writer = new CoalescingSseWriter(sseEmitter);
+        writer.write("a");
+        writer.write("b");
+        writer.write("[DONE]");
+        writer.complete();
+
+        assertThat(written).containsExactly("data:a\n\n", "data:b\n\n", "data:[DONE]\n\n", "complete");
+    }
+
+    @Test
+    void completeWaitsForAFlushWhichIsSending() throws IOException {
+        recordSends(20);
+        OpenAiStream properties = new OpenAiStream();
+        properties.setFlushInterval(Duration.ofMillis(5));
+        properties.setFlushFirstEvent(true);
+        CoalescingSseWriter writer = new CoalescingSseWriter(sseEmitter, properties, scheduler, executor);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            writer.write("e" + i);
+            expected.append("data:e").append(i).append("\n\n");
+        }
+        writer.write("[DONE]");
+        expected.append("data:[DONE]\n\n");
+        writer.complete();
+
+        assertThat(written).last().isEqualTo("complete");
+        assertThat(String.join("", written.subList(0, written.size() - 1))).isEqualTo(expected.toString());
+    }
+
+    @Test
+    void mergePolicyCompletesAfterTheLastFrame() throws IOException {
+        recordSends(20);
+        OpenAiStream properties = new OpenAiStream();
+        properties.setOverflowPolicy(OpenAiStream.OverflowPolicy.MERGE);
+        CoalescingSseWriter writer = new CoalescingSseWriter(sseEmitter, properties, scheduler, executor);
+
+        for (int i = 0; i < 20; i++) {
+            writer.write("e" + i);
+        }
+        writer.write("[DONE]");
+        writer.completeWithError(new IOException("upstream closed"));
+
+        assertThat(written).last().isEqualTo("completeWithError");
+        assertThat(String.join("", written.subList(0, written.size() - 1))).endsWith("data:[DONE]\n\n");
+    }
+
+    @Test
+    void coalescedEventsAreWellFormedFramesOnARealEmitter() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        SseEmitter realEmitter = handle(response);
+        OpenAiStream properties = new OpenAiStream();
+        properties.setFlushInterval(Duration.ofHours(1));
+        properties.setFlushFirstEvent(false);
+        CoalescingSseWriter writer = new CoalescingSseWriter(realEmitter, properties, scheduler, executor);
+
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add("{\"id\":\"x\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"line " + i + "\\n\"}}]}");
+        }
+        events.add("[DONE]");
+        StringBuilder expected = new StringBuilder();
+        for (String event : events) {
+            writer.write(event);
+            expected.append("data:").append(event).append("\n\n");
+        }
+        assertThat(response.getContentAsString()).isEmpty();
+        writer.complete();
+
+        assertThat(response.getContentAsString()).isEqualTo(expected.toString());
+        assertThat(response.getContentType()).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+    }
+
+    @Test
+    void rejectedMergeFlushFallsBackToBlock() throws IOException {
+        recordSends(0);
+        OpenAiStream properties = new OpenAiStream();
+        properties.setOverflowPolicy(OpenAiStream.OverflowPolicy.MERGE);
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException("overloaded");
+        };
+        CoalescingSseWriter writer = new CoalescingSseWriter(sseEmitter, properties, scheduler, rejecting);
+
+        writer.write("a");
+        writer.write("b");
+        writer.write("[DONE]");
+        writer.complete();
+
+        assertThat(written).containsExactly("data:a\n\n", "data:b\n\n", "data:[DONE]\n\n", "complete");
+    }
+
+    @Test
+    void rejectedDelayedFlushIsSentByTheNextWrite() throws Exception {
+        recordSends(0);
+        OpenAiStream properties = new OpenAiStream();
+        properties.setFlushInterval(Duration.ofMillis(5));
+        properties.setFlushFirstEvent(false);
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException("overloaded");
+        };
+        CoalescingSseWriter writer = new CoalescingSseWriter(sseEmitter, properties, scheduler, rejecting);
+
+        writer.write("a");
+        Thread.sleep(100);
+        assertThat(written).isEmpty();
+        writer.write("b");
+
+        assertThat(written).containsExactly("data:a\n\ndata:b\n\n");
+    }
+
+    /**
+     * Return an {@link SseEmitter} which writes to {@code response}, handled by Spring MVC as a controller's return
+     * value.
+     */
+    private static SseEmitter handle(MockHttpServletResponse response) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        NativeWebRequest webRequest = new ServletWebRequest(request, response);
+        WebAsyncUtils.getAsyncManager(webRequest)
+                .setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+        ResponseBodyEmitterReturnValueHandler handler =
+                new ResponseBodyEmitterReturnValueHandler(Collections.singletonList(new StringHttpMessageConverter()));
+        SseEmitter sseEmitter = new SseEmitter();
+        MethodParameter returnType = new MethodParameter(
+                CoalescingSseWriterTest.class.getDeclaredMethod("handle", MockHttpServletResponse.class), -1);
+        handler.handleReturnValue(sseEmitter, returnType, new ModelAndViewContainer(), webRequest);
+        return sseEmitter;
+    }
+
+    /**
+     * Record what the emitter writes, as the client would read it, taking {@code millis} per send.
+     */
+    private void recordSends(long millis) throws IOException {
+        doAnswer(invocation -> {
+                    Thread.sleep(millis);
+                    StringBuilder frames = new StringBuilder();
+                    SseEmitter.SseEventBuilder event = invocation.getArgument(0);
+                    event.build().forEach(part -> frames.append(part.getData()));
+                    written.add(frames.toString());
+                    return null;
+                })
+                .when(sseEmitter)
+                .send(any(SseEmitter.SseEventBuilder.class));
+        doAnswer(invocation -> written.add("complete")).when(sseEmitter).complete();
+        doAnswer(invocation -> written.add("completeWithError"))
+                .when(sseEmitter)
+                .completeWithError(any());
+    }
+}
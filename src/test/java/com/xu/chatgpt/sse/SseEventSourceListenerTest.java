@@ -0,0 +1,119 @@
+package com.xu.chatgpt.sse;
+
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.sse.EventSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class SseEventSourceListenerTest {
+
+    private static final int MAX_TOKENS = 100;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SseEmitter sseEmitter = mock(SseEmitter.class);
+    private final EventSource eventSource = mock(EventSource.class);
+    private final SseEventSourceListener listener = new SseEventSourceListener(sseEmitter);
+    private final UsageEventSourceListener usage = new UsageEventSourceListener(request(), listener);
+    private Runnable onTimeout;
+    private Consumer<Throwable> onError;
+    private Runnable onCompletion;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        Metrics.addRegistry(registry);
+        listener.cancelOnDisconnect(eventSource, usage);
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Consumer<Throwable>> error = ArgumentCaptor.forClass(Consumer.class);
+        ArgumentCaptor<Runnable> completion = ArgumentCaptor.forClass(Runnable.class);
+        verify(sseEmitter).onTimeout(timeout.capture());
+        verify(sseEmitter).onError(error.capture());
+        verify(sseEmitter).onCompletion(completion.capture());
+        onTimeout = timeout.getValue();
+        onError = error.getValue();
+        onCompletion = completion.getValue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(registry);
+        registry.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"timeout", "error", "disconnect"})
+    void endOfTheEmitterCancelsUpstreamOnce(String reason) {
+        switch (reason) {
+            case "timeout":
+                onTimeout.run();
+                break;
+            case "error":
+                onError.accept(new IOException("Broken pipe"));
+                break;
+            default:
+                break;
+        }
+        // The emitter always completes in the end, and may report more than one callback.
+        onCompletion.run();
+        onTimeout.run();
+
+        verify(eventSource, times(1)).cancel();
+        assertThat(registry.counter("gpt.stream.aborted", "reason", reason).count()).isEqualTo(1);
+        assertThat(aborted()).isEqualTo(1);
+        assertThat(registry.counter("gpt.stream.tokens.saved").count()).isEqualTo(MAX_TOKENS);
+    }
+
+    @Test
+    void tokensSavedExcludeTheTokensAlreadyGenerated() {
+        usage.onEvent(eventSource, null, null,
+                "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hello there my friend \"}}]}");
+        long generated = usage.getUsage().getCompletionTokens();
+
+        onCompletion.run();
+
+        assertThat(generated).isPositive();
+        assertThat(registry.counter("gpt.stream.tokens.saved").count()).isEqualTo(MAX_TOKENS - generated);
+    }
+
+    @Test
+    void upstreamEndingFirstCancelsNothing() {
+        listener.onClosed(eventSource);
+        onCompletion.run();
+
+        verify(eventSource, never()).cancel();
+        assertThat(aborted()).isZero();
+        assertThat(registry.counter("gpt.stream.tokens.saved").count()).isZero();
+    }
+
+    private double aborted() {
+        return registry.find("gpt.stream.aborted").counters().stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+
+    private static ChatCompletionRequest request() {
+        ChatCompletionMessage message = new ChatCompletionMessage();
+        message.setRole("user");
+        message.setContent("Hi");
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(Collections.singletonList(message));
+        request.setMaxTokens(MAX_TOKENS);
+        return request;
+    }
+}
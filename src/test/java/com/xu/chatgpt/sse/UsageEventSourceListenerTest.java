@@ -0,0 +1,75 @@
+package com.xu.chatgpt.sse;
+
+import com.xu.chatgpt.entity.CommonUsage;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.entity.chat.ChatCompletionRequest;
+import com.xu.chatgpt.utils.StreamingTokenCounter;
+import com.xu.chatgpt.utils.TokenCounter;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class UsageEventSourceListenerTest {
+
+    private final EventSource eventSource = mock(EventSource.class);
+    private final EventSourceListener delegate = mock(EventSourceListener.class);
+    private final UsageEventSourceListener listener = new UsageEventSourceListener(request(), delegate);
+
+    @Test
+    void countsOnlyTheDeltasOfEachChoice() {
+        event("{\"id\":\"1\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"Hello there \"},"
+                + "\"logprobs\":{\"content\":[{\"token\":\"ignored words \"}]},\"finish_reason\":null}]}");
+        event("{\"choices\":[{\"delta\":{\"function_call\":{\"name\":\"get_weather\",\"arguments\":\"{\\\"city\\\": \"}},"
+                + "\"index\":1},null,{\"index\":0}]}");
+        event("{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"my friend \"}}],\"model\":\"gpt-3.5-turbo\"}");
+
+        StreamingTokenCounter first = TokenCounter.of("gpt-3.5-turbo").streaming();
+        first.append("Hello there ");
+        first.append("my friend ");
+        StreamingTokenCounter second = TokenCounter.of("gpt-3.5-turbo").streaming();
+        second.append("get_weather");
+        second.append("{\"city\": ");
+        assertThat(first.getTokens()).isPositive();
+        assertThat(listener.getUsage().getCompletionTokens()).isEqualTo(first.getTokens() + second.getTokens());
+    }
+
+    @Test
+    void upstreamUsageWins() {
+        event("{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hello there \"}}]}");
+        event("{\"choices\":[],\"usage\":{\"prompt_tokens\":9,\"completion_tokens\":2,\"total_tokens\":11}}");
+
+        CommonUsage usage = listener.getUsage();
+        assertThat(usage.getPromptTokens()).isEqualTo(9L);
+        assertThat(usage.getCompletionTokens()).isEqualTo(2L);
+        assertThat(usage.getTotalTokens()).isEqualTo(11L);
+    }
+
+    @Test
+    void skipsUnparsableChunks() {
+        event("{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hello ");
+        event("[DONE]");
+
+        assertThat(listener.getUsage().getCompletionTokens()).isZero();
+        verify(delegate).onEvent(eventSource, null, null, "[DONE]");
+    }
+
+    private void event(String data) {
+        listener.onEvent(eventSource, null, null, data);
+        verify(delegate).onEvent(eventSource, null, null, data);
+    }
+
+    private static ChatCompletionRequest request() {
+        ChatCompletionMessage message = new ChatCompletionMessage();
+        message.setRole("user");
+        message.setContent("Hi");
+        ChatCompletionRequest request = new ChatCompletionRequest();
+        request.setMessages(Collections.singletonList(message));
+        return request;
+    }
+}
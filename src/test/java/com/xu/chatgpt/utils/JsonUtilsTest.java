@@ -0,0 +1,81 @@
+package com.xu.chatgpt.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.xu.chatgpt.entity.CommonUsage;
+import com.xu.chatgpt.entity.chat.ChatCompletionResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonUtilsTest {
+
+    @Test
+    void canonicalJsonSortsPropertiesAndMapKeys() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("b", 1);
+        first.put("a", new Bean());
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("a", new Bean());
+        second.put("b", 1);
+
+        byte[] json = JsonUtils.toCanonicalJsonBytes(first);
+        assertThat(json).isEqualTo(JsonUtils.toCanonicalJsonBytes(second));
+        assertThat(new String(json, StandardCharsets.UTF_8)).isEqualTo("{\"a\":{\"x\":\"x\",\"y\":\"y\"},\"b\":1}");
+    }
+
+    @Test
+    void plainJsonKeepsDeclarationOrder() {
+        assertThat(JsonUtils.toJsonString(new Bean())).isEqualTo("{\"y\":\"y\",\"x\":\"x\"}");
+    }
+
+    @Test
+    void parseInputStreamRoundTrip() {
+        CommonUsage usage = new CommonUsage();
+        usage.setPromptTokens(3L);
+        usage.setCompletionTokens(5L);
+        usage.setTotalTokens(8L);
+        ChatCompletionResponse response = new ChatCompletionResponse();
+        response.setId("chatcmpl-1");
+        response.setModel("gpt-3.5-turbo");
+        response.setCreated(1690000000L);
+        response.setUsage(usage);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtils.write(out, response);
+
+        ChatCompletionResponse parsed =
+                JsonUtils.parse(new ByteArrayInputStream(out.toByteArray()), ChatCompletionResponse.class);
+
+        assertThat(parsed).isEqualTo(response);
+        assertThat(JsonUtils.parse(new ByteArrayInputStream(out.toByteArray()), ChatCompletionResponse.class))
+                .isEqualTo(response);
+    }
+
+    @Test
+    void parseInputStreamRejectsEmptyBody() {
+        assertThatThrownBy(() -> JsonUtils.parse(new ByteArrayInputStream(new byte[0]), ChatCompletionResponse.class))
+                .isInstanceOf(JsonProcessingException.class)
+                .hasMessageContaining("end-of-input");
+    }
+
+    @Test
+    void parseInputStreamRejectsTruncatedBody() {
+        byte[] truncated = "{\"id\":\"chatcmpl-1\",\"usage\":{\"total_tokens\":8".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> JsonUtils.parse(new ByteArrayInputStream(truncated), ChatCompletionResponse.class))
+                .isInstanceOf(JsonProcessingException.class)
+                .hasMessageContaining("end-of-input");
+    }
+
+    static class Bean {
+
+        public String y = "y";
+        public String x = "x";
+    }
+}
@@ -0,0 +1,78 @@
+package com.xu.chatgpt.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingTokenCounterTest {
+
+    private static final List<String> TEXTS = Arrays.asList(
+            "Hello, world! How are you doing today?",
+            "The quick brown fox jumps over the lazy dog.\nThe end.\n\nNew paragraph  with  double spaces.",
+            "def count(n):\n    return sum(i * i for i in range(n))  # squares\n",
+            "Numbers 12345 and 3.14159, dates 2023-06-13, urls https://example.com/a?b=c.",
+            "Unicode: naïve café, 你好，世界！ こんにちは 🙂 emoji.",
+            "Mixed\tTabs\tand   'quotes' \"double\" don't can't I'm we'll they're.",
+            "");
+
+    @Test
+    void countsTheSameAsTheBatchCounter() {
+        for (String model : Arrays.asList("gpt-3.5-turbo", "gpt-4", "text-davinci-003")) {
+            TokenCounter counter = TokenCounter.of(model);
+            Random random = new Random(42);
+            for (String text : texts()) {
+                int expected = counter.count(text);
+                for (int round = 0; round < 20; round++) {
+                    assertThat(stream(counter, text, random))
+                            .as("%s: %s", model, text)
+                            .isEqualTo(expected);
+                }
+                assertThat(stream(counter, text, 1)).as("%s: %s", model, text).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void countsCompleteTextBeforeTheEnd() {
+        StreamingTokenCounter streaming = TokenCounter.of("gpt-3.5-turbo").streaming();
+        streaming.append("Hello world, this is");
+        streaming.append(" a test");
+        assertThat(streaming.getTokens()).isPositive();
+        assertThat(streaming.finish()).isEqualTo(TokenCounter.of("gpt-3.5-turbo").count("Hello world, this is a test"));
+        streaming.append(null);
+        assertThat(streaming.finish()).isEqualTo(streaming.getTokens());
+    }
+
+    private static List<String> texts() {
+        List<String> texts = new ArrayList<>(TEXTS);
+        texts.add(TokenCounterTest.longContent());
+        return texts;
+    }
+
+    private static long stream(TokenCounter counter, String text, Random random) {
+        StreamingTokenCounter streaming = counter.streaming();
+        int i = 0;
+        while (i < text.length()) {
+            int end = Math.min(text.length(), i + 1 + random.nextInt(8));
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++;
+            }
+            streaming.append(text.substring(i, end));
+            i = end;
+        }
+        return streaming.finish();
+    }
+
+    private static long stream(TokenCounter counter, String text, int size) {
+        StreamingTokenCounter streaming = counter.streaming();
+        for (int i = 0; i < text.length(); i += size) {
+            streaming.append(text.substring(i, Math.min(text.length(), i + size)));
+        }
+        return streaming.finish();
+    }
+}
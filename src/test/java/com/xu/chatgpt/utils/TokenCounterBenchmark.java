@@ -0,0 +1,152 @@
+package com.xu.chatgpt.utils;
+
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.exception.OpenAiException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Counting the tokens of a 20-message conversation with {@link TokenCounter}, where the long messages hit the count
+ * cache as when a conversation is resent each turn, against encoding every message with jtokkit.
+ *
+ * <p>The {@code short*} benchmarks count a conversation of messages under 32 chars, which bypass the count cache,
+ * so they compare resolving the model once in {@link TokenCounter} with the former {@link TokenUtils} path,
+ * which resolved the {@link ModelType} and looked up the encoding registry for every string.
+ *
+ * <p>Run it like {@code com.xu.chatgpt.vector.VectorIndexBenchmark}:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) \
+ *     com.xu.chatgpt.utils.TokenCounterBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenCounterBenchmark {
+
+    private static final Map<String, ToIntFunction<String>> PER_MODEL_MAP = new HashMap<>(4);
+
+    static {
+        PER_MODEL_MAP.put("gpt-3.5-turbo", name -> 4 + (StringUtils.hasText(name) ? -1 : 0));
+        PER_MODEL_MAP.put("gpt-3.5-turbo-0301", name -> 4 + (StringUtils.hasText(name) ? -1 : 0));
+        PER_MODEL_MAP.put("gpt-4", name -> 3 + (StringUtils.hasText(name) ? 1 : 0));
+        PER_MODEL_MAP.put("gpt-4-0314", name -> 3 + (StringUtils.hasText(name) ? 1 : 0));
+    }
+
+    private final List<ChatCompletionMessage> messages = new ArrayList<>();
+    private final List<ChatCompletionMessage> shortMessages = new ArrayList<>();
+    private TokenCounter counter;
+    private Encoding encoding;
+
+    @Setup
+    public void setUp() {
+        counter = TokenCounter.of("gpt-3.5-turbo");
+        encoding = TokenUtils.getEncoding(ModelType.GPT_3_5_TURBO);
+        String content = TokenCounterTest.longContent();
+        for (int i = 0; i < 20; i++) {
+            ChatCompletionMessage message = new ChatCompletionMessage();
+            message.setRole(i % 2 == 0 ? "user" : "assistant");
+            message.setContent(i + ": " + content.substring(0, 200 + i * 100));
+            messages.add(message);
+
+            ChatCompletionMessage shortMessage = new ChatCompletionMessage();
+            shortMessage.setRole(message.getRole());
+            shortMessage.setContent(i + ": " + content.substring(0, 20));
+            shortMessages.add(shortMessage);
+        }
+    }
+
+    @Benchmark
+    public long tokenCounter() {
+        return counter.count(messages);
+    }
+
+    @Benchmark
+    public long encoding() {
+        long tokens = TokenCounter.REPLY_PRIMED_NUM;
+        for (ChatCompletionMessage message : messages) {
+            tokens += 4 + encoding.countTokens(message.getRole()) + encoding.countTokens(message.getContent());
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public long shortTokenCounter() {
+        return counter.count(shortMessages);
+    }
+
+    @Benchmark
+    public long shortBefore() {
+        return beforeTokens("gpt-3.5-turbo", shortMessages);
+    }
+
+    @Benchmark
+    public long streaming() {
+        StreamingTokenCounter streaming = counter.streaming();
+        String content = messages.get(messages.size() - 1).getContent();
+        for (int i = 0; i < content.length(); i += 4) {
+            streaming.append(content.substring(i, Math.min(content.length(), i + 4)));
+        }
+        return streaming.finish();
+    }
+
+    /**
+     * The former {@code TokenUtils.tokens(String, List)}, which resolved the model of every string.
+     */
+    private static long beforeTokens(String model, List<ChatCompletionMessage> messages) {
+        return TokenCounter.REPLY_PRIMED_NUM
+                + messages.stream()
+                        .map(message -> {
+                            String name = message.getName();
+                            ToIntFunction<String> handler = PER_MODEL_MAP.getOrDefault(model, x -> 0);
+                            return handler.applyAsInt(name)
+                                    + beforeTokens(model, name)
+                                    + beforeTokens(model, message.getRole())
+                                    + beforeTokens(model, message.getContent());
+                        })
+                        .mapToLong(Long::longValue)
+                        .sum();
+    }
+
+    private static long beforeTokens(String model, String content) {
+        ModelType modelType =
+                ModelType.fromName(model).orElseThrow(() -> new OpenAiException("Unknown model " + model));
+        if (content == null) {
+            return 0L;
+        }
+        Encoding encoding = TokenUtils.getRegistry().getEncodingForModel(modelType);
+        return (long) TokenUtils.countTokens(encoding, content);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                        .include(TokenCounterBenchmark.class.getSimpleName())
+                        .build())
+                .run();
+    }
+}
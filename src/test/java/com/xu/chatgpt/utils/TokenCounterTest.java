@@ -0,0 +1,122 @@
+package com.xu.chatgpt.utils;
+
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.ModelType;
+import com.xu.chatgpt.entity.chat.ChatCompletionFunction;
+import com.xu.chatgpt.entity.chat.ChatCompletionFunctionCall;
+import com.xu.chatgpt.entity.chat.ChatCompletionMessage;
+import com.xu.chatgpt.entity.chat.ChatCompletionParameter;
+import com.xu.chatgpt.exception.OpenAiException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenCounterTest {
+
+    private static final Encoding CL100K = TokenUtils.getEncoding(ModelType.GPT_3_5_TURBO);
+
+    @Test
+    void countsContent() {
+        TokenCounter counter = TokenCounter.of("gpt-3.5-turbo");
+        assertThat(counter.count("hello world")).isEqualTo(2);
+        assertThat(counter.count((String) null)).isZero();
+        assertThat(counter.count("")).isZero();
+        assertThat(counter.countAll(Arrays.asList("hello world", null, "hello"))).isEqualTo(3);
+        assertThat(counter.countAll(null)).isZero();
+    }
+
+    @Test
+    void cachedCountOfLongContentMatchesTheEncoding() {
+        String content = longContent();
+        TokenCounter counter = TokenCounter.of("gpt-4");
+        int expected = CL100K.countTokens(content);
+        assertThat(counter.count(content)).isEqualTo(expected);
+        assertThat(counter.count(content)).isEqualTo(expected);
+        assertThat(counter.count(content + " more")).isEqualTo(CL100K.countTokens(content + " more"));
+    }
+
+    @Test
+    void countsConversationWithPerMessageOverhead() {
+        List<ChatCompletionMessage> messages = Arrays.asList(
+                message("system", "You are a helpful assistant.", null),
+                message("user", "What is the capital of France?", "alice"),
+                message("assistant", "Paris.", null));
+
+        assertThat(TokenCounter.of("gpt-3.5-turbo").count(messages)).isEqualTo(expected(messages, 4, -1));
+        assertThat(TokenCounter.of("gpt-4").count(messages)).isEqualTo(expected(messages, 3, 1));
+        assertThat(TokenUtils.tokens("gpt-4", messages)).isEqualTo(expected(messages, 3, 1));
+        assertThat(TokenCounter.of("gpt-4").count((List<ChatCompletionMessage>) null))
+                .isEqualTo(TokenCounter.REPLY_PRIMED_NUM);
+    }
+
+    @Test
+    void countsFunctionCallsAndDefinitions() {
+        TokenCounter counter = TokenCounter.of("gpt-3.5-turbo");
+        ChatCompletionMessage call = message("assistant", null, null);
+        int withoutCall = counter.count(call);
+        call.setFunctionCall(ChatCompletionFunctionCall.builder()
+                .name("lookup")
+                .arguments("{\"city\": \"Paris\"}")
+                .build());
+
+        assertThat(counter.count(call))
+                .isGreaterThan(
+                        withoutCall + CL100K.countTokens("lookup") + CL100K.countTokens("{\"city\": \"Paris\"}"));
+        assertThat(counter.countFunctions(null)).isZero();
+        ChatCompletionFunction function = ChatCompletionFunction.builder()
+                .name("lookup")
+                .description("Look up the weather of a city")
+                .parameters(ChatCompletionParameter.builder().type("object").build())
+                .build();
+        assertThat(counter.countFunctions(Collections.singletonList(function)))
+                .isGreaterThan(CL100K.countTokens(JsonUtils.toJsonString(function)));
+    }
+
+    @Test
+    void countersAreCachedPerModel() {
+        assertThat(TokenCounter.of("gpt-4")).isSameAs(TokenCounter.of("gpt-4"));
+        assertThat(TokenCounter.of("gpt-4").getModelType()).isEqualTo(ModelType.GPT_4);
+    }
+
+    @Test
+    void unknownModel() {
+        assertThatThrownBy(() -> TokenCounter.of("no-such-model")).isInstanceOf(OpenAiException.class);
+        assertThat(TokenCounter.of("no-such-model", ModelType.GPT_3_5_TURBO))
+                .isSameAs(TokenCounter.of(ModelType.GPT_3_5_TURBO.getName()));
+        assertThat(TokenCounter.of(null, ModelType.GPT_4)).isSameAs(TokenCounter.of("gpt-4"));
+    }
+
+    private static long expected(List<ChatCompletionMessage> messages, int tokensPerMessage, int tokensPerName) {
+        long tokens = TokenCounter.REPLY_PRIMED_NUM;
+        for (ChatCompletionMessage message : messages) {
+            tokens += tokensPerMessage
+                    + CL100K.countTokens(message.getRole())
+                    + CL100K.countTokens(message.getContent());
+            if (message.getName() != null) {
+                tokens += CL100K.countTokens(message.getName()) + tokensPerName;
+            }
+        }
+        return tokens;
+    }
+
+    private static ChatCompletionMessage message(String role, String content, String name) {
+        ChatCompletionMessage message = new ChatCompletionMessage();
+        message.setRole(role);
+        message.setContent(content);
+        message.setName(name);
+        return message;
+    }
+
+    static String longContent() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append("Line ").append(i).append(": the quick brown fox jumps over the lazy dog.\n");
+        }
+        return content.toString();
+    }
+}
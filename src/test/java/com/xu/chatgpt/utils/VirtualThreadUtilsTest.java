@@ -0,0 +1,53 @@
+package com.xu.chatgpt.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VirtualThreadUtilsTest {
+
+    @Test
+    void isSupportedMatchesTheRunningJdk() {
+        assertThat(VirtualThreadUtils.isSupported()).isEqualTo(javaVersion() >= 21);
+    }
+
+    @Test
+    void newVirtualThreadPerTaskExecutorFailsFastBeforeJdk21() {
+        assumeFalse(VirtualThreadUtils.isSupported());
+
+        assertThatIllegalStateException()
+                .isThrownBy(() -> VirtualThreadUtils.newVirtualThreadPerTaskExecutor("test-"))
+                .withMessageContaining("JDK 21");
+    }
+
+    @Test
+    void isEnabledFallsBackToPlatformThreadsBeforeJdk21() {
+        assertThat(VirtualThreadUtils.isEnabled(false)).isFalse();
+        assertThat(VirtualThreadUtils.isEnabled(true)).isEqualTo(VirtualThreadUtils.isSupported());
+    }
+
+    @Test
+    void newVirtualThreadPerTaskExecutorRunsOnVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreadUtils.isSupported());
+
+        ExecutorService executor = VirtualThreadUtils.newVirtualThreadPerTaskExecutor("test-");
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            assertThat(Thread.class.getMethod("isVirtual").invoke(thread)).isEqualTo(true);
+            assertThat(thread.getName()).startsWith("test-");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+    }
+}
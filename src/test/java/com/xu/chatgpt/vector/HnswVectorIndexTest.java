@@ -0,0 +1,165 @@
+package com.xu.chatgpt.vector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class HnswVectorIndexTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final int SIZE = 2000;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+
+    @Test
+    void recallMatchesExactSearch() {
+        float[][] vectors = randomVectors(SIZE, 1);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIMENSIONS, SIZE);
+        FlatVectorIndex flat = new FlatVectorIndex(DIMENSIONS, SIZE);
+        for (float[] vector : vectors) {
+            assertThat(hnsw.add(vector)).isEqualTo(flat.add(vector));
+        }
+
+        assertThat(recall(hnsw, flat, randomVectors(QUERIES, 2), id -> true)).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void filteredSearchOnlyReturnsAcceptedIds() {
+        float[][] vectors = randomVectors(SIZE, 3);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIMENSIONS, SIZE);
+        FlatVectorIndex flat = new FlatVectorIndex(DIMENSIONS, SIZE);
+        for (float[] vector : vectors) {
+            hnsw.add(vector);
+            flat.add(vector);
+        }
+
+        float[][] queries = randomVectors(QUERIES, 4);
+        for (float[] query : queries) {
+            assertThat(hnsw.search(query, K, id -> id % 10 == 0)).allMatch(match -> match.getId() % 10 == 0);
+        }
+        hnsw.setEfSearch(200);
+        assertThat(recall(hnsw, flat, queries, id -> id % 10 == 0)).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void exactVectorIsTheBestMatch() {
+        float[][] vectors = randomVectors(SIZE, 5);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIMENSIONS, SIZE);
+        for (float[] vector : vectors) {
+            hnsw.add(vector);
+        }
+
+        List<VectorMatch> matches = hnsw.search(vectors[42], 1);
+        assertThat(matches).hasSize(1);
+        assertThat(matches.get(0).getId()).isEqualTo(42);
+        assertThat(matches.get(0).getScore()).isCloseTo(1f, offset(1e-5f));
+    }
+
+    @Test
+    void concurrentAddsAreAllSearchable() throws Exception {
+        float[][] vectors = randomVectors(SIZE, 6);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIMENSIONS, SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int t = 0; t < futures.length; t++) {
+                int first = t;
+                futures[t] = executor.submit(() -> {
+                    for (int i = first; i < SIZE; i += 4) {
+                        hnsw.add(vectors[i]);
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(hnsw.size()).isEqualTo(SIZE);
+        int found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            List<VectorMatch> matches = hnsw.search(vectors[i * (SIZE / QUERIES)], 1);
+            found += matches.size() == 1 && matches.get(0).getScore() > 0.9999f ? 1 : 0;
+        }
+        assertThat(found).isGreaterThanOrEqualTo(QUERIES * 95 / 100);
+    }
+
+    @Test
+    void fullIndexRejectsAdds() {
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIMENSIONS, 1);
+        hnsw.add(randomVectors(1, 7)[0]);
+        assertThatThrownBy(() -> hnsw.add(randomVectors(1, 8)[0])).isInstanceOf(IllegalStateException.class);
+        assertThat(hnsw.size()).isEqualTo(1);
+    }
+
+    @Test
+    void restoredIndexSearchesTheSame(@TempDir Path dir) throws IOException {
+        float[][] vectors = randomVectors(SIZE, 9);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIMENSIONS, SIZE);
+        for (float[] vector : vectors) {
+            hnsw.add(vector);
+        }
+        Path file = dir.resolve("index.hnsw");
+        hnsw.save(file);
+
+        HnswVectorIndex restored = HnswVectorIndex.restore(file, SIZE * 2, 64);
+        assertThat(restored.size()).isEqualTo(SIZE);
+        assertThat(restored.dimensions()).isEqualTo(DIMENSIONS);
+        for (float[] query : randomVectors(QUERIES, 10)) {
+            assertThat(ids(restored.search(query, K))).isEqualTo(ids(hnsw.search(query, K)));
+        }
+        int id = restored.add(vectors[0]);
+        assertThat(id).isEqualTo(SIZE);
+    }
+
+    @Test
+    void restoreRejectsOtherFiles(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("other");
+        Files.write(file, new byte[64]);
+        assertThatThrownBy(() -> HnswVectorIndex.restore(file, SIZE, 64)).isInstanceOf(IOException.class);
+    }
+
+    private static double recall(VectorIndex index, VectorIndex exact, float[][] queries, IntPredicate filter) {
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> expected = new HashSet<>(ids(exact.search(query, K, filter)));
+            for (int id : ids(index.search(query, K, filter))) {
+                hits += expected.contains(id) ? 1 : 0;
+            }
+        }
+        return (double) hits / (queries.length * K);
+    }
+
+    private static List<Integer> ids(List<VectorMatch> matches) {
+        return matches.stream().map(VectorMatch::getId).collect(Collectors.toList());
+    }
+
+    static float[][] randomVectors(int count, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][DIMENSIONS];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,174 @@
+package com.xu.chatgpt.vector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Top-10 search throughput (queries per second) and recall of {@link HnswVectorIndex} against the exact
+ * {@link FlatVectorIndex}, with and without a filter which accepts one vector in ten, as the context filter of the
+ * semantic cache does.
+ *
+ * <p>The vectors are clustered, as embeddings of text are, with the 1536 dimensions of
+ * {@code text-embedding-ada-002}. The recall@10 of each size is computed against the flat index once the indexes are
+ * built, and printed before the measurements of that size as {@code # recall@10}.
+ *
+ * <p>Run it from the project directory, after {@code mvn -B test-compile dependency:build-classpath
+ * -Dmdep.outputFile=target/test-classpath.txt -Dmdep.includeScope=test}:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) \
+ *     com.xu.chatgpt.vector.VectorIndexBenchmark
+ * </pre>
+ *
+ * <p>Add JMH options to change the parameters, such as {@code -p size=300000 -jvmArgs -Xmx4g} for a few hundred
+ * thousand chunks, or {@code -p efSearch=64,200} to trade recall for speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class VectorIndexBenchmark {
+
+    private static final int K = 10;
+    private static final int QUERIES = 1024;
+    private static final int CLUSTERS = 256;
+    private static final IntPredicate ONE_IN_TEN = id -> id % 10 == 0;
+
+    @Param({"10000", "100000"})
+    private int size;
+
+    @Param({"1536"})
+    private int dimensions;
+
+    @Param({"200"})
+    private int efSearch;
+
+    private HnswVectorIndex hnsw;
+    private FlatVectorIndex flat;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        float[][] centroids = new float[CLUSTERS][];
+        for (int i = 0; i < CLUSTERS; i++) {
+            centroids[i] = gaussian(random, 1);
+        }
+        float[][] vectors = new float[size][];
+        for (int i = 0; i < size; i++) {
+            vectors[i] = near(centroids[random.nextInt(CLUSTERS)], random);
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = near(centroids[random.nextInt(CLUSTERS)], random);
+        }
+
+        // Inserts run concurrently, in any order, so the flat index is added in the id order of the graph.
+        hnsw = new HnswVectorIndex(dimensions, size, 16, 200, efSearch);
+        int[] order = new int[size];
+        IntStream.range(0, size).parallel().forEach(i -> order[hnsw.add(vectors[i])] = i);
+        flat = new FlatVectorIndex(dimensions, size);
+        for (int i = 0; i < size; i++) {
+            flat.add(vectors[order[i]]);
+        }
+
+        System.out.printf(
+                "# recall@%d size=%d dimensions=%d efSearch=%d: hnsw=%.4f hnswFiltered=%.4f%n",
+                K, size, dimensions, efSearch, recall(id -> true), recall(ONE_IN_TEN));
+    }
+
+    /**
+     * The share of the exact top-k which the graph search finds, over all queries.
+     */
+    private double recall(IntPredicate filter) {
+        long found = 0;
+        long expected = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = new HashSet<>();
+            for (VectorMatch match : flat.search(query, K, filter)) {
+                exact.add(match.getId());
+            }
+            for (VectorMatch match : hnsw.search(query, K, filter)) {
+                if (exact.contains(match.getId())) {
+                    found++;
+                }
+            }
+            expected += exact.size();
+        }
+        return (double) found / expected;
+    }
+
+    @Benchmark
+    public List<VectorMatch> hnsw() {
+        return hnsw.search(nextQuery(), K);
+    }
+
+    @Benchmark
+    public List<VectorMatch> hnswFiltered() {
+        return hnsw.search(nextQuery(), K, ONE_IN_TEN);
+    }
+
+    @Benchmark
+    public List<VectorMatch> flat() {
+        return flat.search(nextQuery(), K);
+    }
+
+    @Benchmark
+    public List<VectorMatch> flatFiltered() {
+        return flat.search(nextQuery(), K, ONE_IN_TEN);
+    }
+
+    private float[] nextQuery() {
+        return queries[next++ & (QUERIES - 1)];
+    }
+
+    private float[] near(float[] centroid, Random random) {
+        float[] vector = gaussian(random, 0.5);
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] += centroid[i];
+        }
+        return vector;
+    }
+
+    private float[] gaussian(Random random, double deviation) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (random.nextGaussian() * deviation);
+        }
+        return vector;
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                        .parent(new CommandLineOptions(args))
+                        .include(VectorIndexBenchmark.class.getSimpleName())
+                        .build())
+                .run();
+    }
+}